@@ -0,0 +1,115 @@
+/*
+ *  com/jtheory/jdring/benchmarks/LoadBenchmark.java
+ *  Copyright (C) 1999 - 2004 jtheory creations, Olivier Dedieu et al.
+ *
+ *  This library is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU Library General Public License as published
+ *  by the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Library General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Library General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+
+package com.jtheory.jdring.benchmarks;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.jtheory.jdring.AlarmEntry;
+import com.jtheory.jdring.AlarmManager;
+import com.jtheory.jdring.AlarmQueue;
+import com.jtheory.jdring.TimingWheelAlarmQueue;
+import com.jtheory.jdring.TreeSetAlarmQueue;
+
+/**
+ * Time to load an empty AlarmManager with 10^5 or 10^6 alarms, as at
+ * startup: one <code>addAlarm()</code> call per alarm, or a single
+ * <code>addAlarms()</code> call.  The entries are built once, in random
+ * order; each measured load starts from a new manager.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class LoadBenchmark {
+    private static final long SPREAD = 30L * 24 * 3600 * 1000;
+
+    @Param({ "100000", "1000000" })
+    public int size;
+
+    @Param({ "treeSet", "timingWheel" })
+    public String queue;
+
+    private List entries;
+    private AlarmManager mgr;
+
+    @Setup(Level.Trial)
+    public void createEntries() throws Exception {
+        long base = System.currentTimeMillis() + 3600000L;
+        Random random = new Random(42);
+
+        entries = new ArrayList(size);
+        for (int i = 0; i < size; i++) {
+            long time = base + (long) (random.nextDouble() * SPREAD);
+            entries.add(new AlarmEntry("load" + i, new Date(time), null));
+        }
+    }
+
+    @Setup(Level.Iteration)
+    public void createManager() {
+        AlarmQueue alarmQueue;
+        if (queue.equals("treeSet"))
+            alarmQueue = new TreeSetAlarmQueue();
+        else if (queue.equals("timingWheel"))
+            alarmQueue = new TimingWheelAlarmQueue();
+        else
+            throw new IllegalArgumentException("unknown queue: " + queue);
+
+        mgr = new AlarmManager(true, "LoadBenchmark", alarmQueue);
+    }
+
+    @TearDown(Level.Iteration)
+    public void stopManager() {
+        mgr.removeAllAlarmsAndStop();
+    }
+
+    @Benchmark
+    public AlarmManager addOneByOne() throws Exception {
+        for (int i = 0; i < entries.size(); i++)
+            mgr.addAlarm((AlarmEntry) entries.get(i));
+        return mgr;
+    }
+
+    @Benchmark
+    public AlarmManager addInBulk() throws Exception {
+        mgr.addAlarms(entries);
+        return mgr;
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ *  com/jtheory/jdring/benchmarks/QueueBenchmark.java
+ *  Copyright (C) 1999 - 2004 jtheory creations, Olivier Dedieu et al.
+ *
+ *  This library is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU Library General Public License as published
+ *  by the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Library General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Library General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+package com.jtheory.jdring.benchmarks;
+
+import java.util.Date;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.jtheory.jdring.AlarmEntry;
+import com.jtheory.jdring.AlarmManager;
+import com.jtheory.jdring.AlarmQueue;
+import com.jtheory.jdring.TimingWheelAlarmQueue;
+import com.jtheory.jdring.TreeSetAlarmQueue;
+
+/**
+ * Cost of <code>AlarmManager.addAlarm()</code> followed by
+ * <code>removeAlarm()</code> on a manager already holding 10^3 to 10^6
+ * alarms, with each queue implementation.  The queued alarms are spread
+ * over the next 30 days, so none rings during the run.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class QueueBenchmark {
+    private static final long SPREAD = 30L * 24 * 3600 * 1000;
+    private static final int SPARES = 1024;
+
+    @Param({ "1000", "10000", "100000", "1000000" })
+    public int size;
+
+    @Param({ "treeSet", "timingWheel" })
+    public String queue;
+
+    private AlarmManager mgr;
+    private AlarmEntry[] spares;
+    private int next;
+
+    @Setup
+    public void setUp() throws Exception {
+        AlarmQueue alarmQueue;
+        if (queue.equals("treeSet"))
+            alarmQueue = new TreeSetAlarmQueue();
+        else if (queue.equals("timingWheel"))
+            alarmQueue = new TimingWheelAlarmQueue();
+        else
+            throw new IllegalArgumentException("unknown queue: " + queue);
+
+        mgr = new AlarmManager(true, "QueueBenchmark", alarmQueue);
+        long base = System.currentTimeMillis() + 3600000L;
+        Random random = new Random(42);
+
+        // queued alarms evenly spread, spares anywhere among them
+        int stride = (int) (SPREAD / 2 / size);
+        for (int i = 0; i < size; i++) {
+            long time = base + 2 * ((long) i * stride + random.nextInt(stride));
+            mgr.addAlarm(new AlarmEntry("queued" + i, new Date(time), null));
+        }
+
+        spares = new AlarmEntry[SPARES];
+        for (int i = 0; i < SPARES; i++) {
+            long time = base + 2 * (long) random.nextInt((int) (SPREAD / 2)) + 1;
+            spares[i] = new AlarmEntry("spare" + i, new Date(time), null);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        mgr.removeAllAlarmsAndStop();
+    }
+
+    @Benchmark
+    public boolean addAndRemove() throws Exception {
+        AlarmEntry entry = spares[next];
+        next = (next + 1) & (SPARES - 1);
+
+        mgr.addAlarm(entry);
+        return mgr.removeAlarm(entry);
+    }
+}
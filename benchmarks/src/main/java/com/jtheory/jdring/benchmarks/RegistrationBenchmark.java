@@ -0,0 +1,164 @@
+/*
+ *  com/jtheory/jdring/benchmarks/RegistrationBenchmark.java
+ *  Copyright (C) 1999 - 2004 jtheory creations, Olivier Dedieu et al.
+ *
+ *  This library is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU Library General Public License as published
+ *  by the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Library General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Library General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+
+package com.jtheory.jdring.benchmarks;
+
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.jtheory.jdring.AlarmEntry;
+import com.jtheory.jdring.AlarmManager;
+
+/**
+ * Contention of the synchronized <code>addAlarm()</code> path against the
+ * lock-free <code>addAlarmAsync()</code> path, with 1, 4, 16 and 64
+ * producer threads.  While producers run, another thread keeps taking the
+ * manager's monitor for a while, as a large pass of due alarms being
+ * rescheduled does.  <code>produce</code> measures until every producer
+ * has returned; <code>queue</code> until every entry is in the queue.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class RegistrationBenchmark {
+    private static final int PER_PRODUCER = 20000;
+
+    @Param({ "1", "4", "16", "64" })
+    public int producers;
+
+    @Param({ "locked", "async" })
+    public String path;
+
+    private AlarmManager mgr;
+    private AlarmEntry[][] entries;
+    private Thread ringer;
+    private volatile boolean done;
+
+    @Setup(Level.Iteration)
+    public void setUp() throws Exception {
+        if (!path.equals("locked") && !path.equals("async"))
+            throw new IllegalArgumentException("unknown path: " + path);
+
+        mgr = new AlarmManager(true, "RegistrationBenchmark");
+
+        // build the entries up front: we only measure registration
+        long base = System.currentTimeMillis() + 3600000L;
+        entries = new AlarmEntry[producers][PER_PRODUCER];
+        for (int p = 0; p < producers; p++) {
+            for (int i = 0; i < PER_PRODUCER; i++) {
+                entries[p][i] = new AlarmEntry("p" + p + "-" + i,
+                    new Date(base + (long) i * producers + p), null);
+            }
+        }
+
+        // keep the monitor busy the way a pass of due alarms does
+        done = false;
+        ringer = new Thread() {
+            public void run() {
+                while (!done) {
+                    synchronized (mgr) {
+                        busyWait(200000);
+                    }
+                    Thread.yield();
+                }
+            }
+        };
+        ringer.setDaemon(true);
+        ringer.start();
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() throws Exception {
+        done = true;
+        ringer.join();
+        mgr.removeAllAlarmsAndStop();
+    }
+
+    @Benchmark
+    public AlarmManager produce() throws Exception {
+        register();
+        return mgr;
+    }
+
+    @Benchmark
+    public AlarmManager queue() throws Exception {
+        register();
+        int total = producers * PER_PRODUCER;
+        while (mgr.getAlarmCount() < total)
+            Thread.yield();
+        return mgr;
+    }
+
+    private void register() throws Exception {
+        final boolean async = path.equals("async");
+        final Exception[] failure = new Exception[1];
+
+        Thread[] threads = new Thread[producers];
+        for (int p = 0; p < producers; p++) {
+            final AlarmEntry[] mine = entries[p];
+            threads[p] = new Thread() {
+                public void run() {
+                    try {
+                        for (int i = 0; i < mine.length; i++) {
+                            if (async)
+                                mgr.addAlarmAsync(mine[i]);
+                            else
+                                mgr.addAlarm(mine[i]);
+                        }
+                    }
+                    catch (Exception e) {
+                        failure[0] = e;
+                    }
+                }
+            };
+        }
+
+        for (int p = 0; p < producers; p++)
+            threads[p].start();
+        for (int p = 0; p < producers; p++)
+            threads[p].join();
+        if (failure[0] != null)
+            throw failure[0];
+    }
+
+    private static void busyWait(long _nanos) {
+        long end = System.nanoTime() + _nanos;
+        while (System.nanoTime() < end) {
+            // spin
+        }
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ *  com/jtheory/jdring/benchmarks/RingBenchmark.java
+ *  Copyright (C) 1999 - 2004 jtheory creations, Olivier Dedieu et al.
+ *
+ *  This library is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU Library General Public License as published
+ *  by the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Library General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Library General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+package com.jtheory.jdring.benchmarks;
+
+import java.util.Date;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.jtheory.jdring.AlarmEntry;
+import com.jtheory.jdring.AlarmListener;
+import com.jtheory.jdring.AlarmManager;
+
+/**
+ * End-to-end cost of ringing: from adding an alarm that is already due to
+ * its listener being notified, through the waiter thread and the ring
+ * mode's dispatch.  <code>latency</code> rings one alarm at a time;
+ * <code>throughput</code> rings batches of alarms that are due together.
+ */
+@State(Scope.Benchmark)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RingBenchmark {
+    private static final int BATCH = 1000;
+
+    @Param({ "inline", "pooled" })
+    public String ringMode;
+
+    private AlarmManager mgr;
+    private AlarmEntry single;
+    private AlarmEntry[] batch;
+    private final Semaphore rung = new Semaphore(0);
+
+    @Setup
+    public void setUp() throws Exception {
+        mgr = new AlarmManager(true, "RingBenchmark");
+
+        AlarmListener listener = new AlarmListener() {
+            public void handleAlarm(AlarmEntry _entry) {
+                rung.release();
+            }
+        };
+        Date later = new Date(System.currentTimeMillis() + 3600000L);
+        single = newEntry("single", later, listener);
+        batch = new AlarmEntry[BATCH];
+        for (int i = 0; i < BATCH; i++)
+            batch[i] = newEntry("batch" + i, later, listener);
+    }
+
+    private AlarmEntry newEntry(String _name, Date _date, AlarmListener _listener)
+            throws Exception {
+        AlarmEntry entry = new AlarmEntry(_name, _date, _listener);
+        if (ringMode.equals("pooled"))
+            entry.setRingMode(AlarmEntry.RING_POOLED);
+        else if (!ringMode.equals("inline"))
+            throw new IllegalArgumentException("unknown ring mode: " + ringMode);
+        return entry;
+    }
+
+    @TearDown
+    public void tearDown() {
+        mgr.removeAllAlarmsAndStop();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SampleTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public void latency() throws Exception {
+        // addAlarm(AlarmEntry) doesn't check the time, so the entry can be
+        // made due right away
+        single.alarmTime = System.currentTimeMillis();
+        mgr.addAlarm(single);
+        rung.acquire();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    @OperationsPerInvocation(BATCH)
+    public void throughput() throws Exception {
+        // all due already, in order
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < BATCH; i++) {
+            batch[i].alarmTime = now - i;
+            mgr.addAlarm(batch[i]);
+        }
+        rung.acquire(BATCH);
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ *  com/jtheory/jdring/benchmarks/UpdateAlarmTimeBenchmark.java
+ *  Copyright (C) 1999 - 2004 jtheory creations, Olivier Dedieu et al.
+ *
+ *  This library is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU Library General Public License as published
+ *  by the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Library General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Library General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+package com.jtheory.jdring.benchmarks;
+
+import java.time.ZoneId;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.jtheory.jdring.AlarmEntry;
+
+/**
+ * Cost of <code>AlarmEntry.updateAlarmTime()</code>, the computation done
+ * every time a cron alarm is rescheduled, for a spread of cron shapes: from
+ * schedules matching within the hour to ones whose next match is years away.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class UpdateAlarmTimeBenchmark {
+
+    @Param({ "everyMinute", "quarterHour", "dailyAt", "weekdays", "monthEnd",
+             "quarterly", "dayOrWeekday", "leapDay" })
+    public String shape;
+
+    @Param({ "UTC", "America/New_York" })
+    public String zone;
+
+    private AlarmEntry entry;
+
+    @Setup
+    public void setUp() throws Exception {
+        int[] all = { -1 };
+        int[] minutes = all, hours = all, daysOfMonth = all, months = all, daysOfWeek = all;
+
+        if (shape.equals("quarterHour")) {
+            minutes = new int[] { 0, 15, 30, 45 };
+        }
+        else if (shape.equals("dailyAt")) {
+            minutes = new int[] { 30 };
+            hours = new int[] { 6 };
+        }
+        else if (shape.equals("weekdays")) {
+            minutes = new int[] { 0 };
+            hours = new int[] { 9, 12, 17 };
+            daysOfWeek = new int[] { 2, 3, 4, 5, 6 };
+        }
+        else if (shape.equals("monthEnd")) {
+            minutes = new int[] { 0 };
+            hours = new int[] { 23 };
+            daysOfMonth = new int[] { 31 };
+        }
+        else if (shape.equals("quarterly")) {
+            minutes = new int[] { 0 };
+            hours = new int[] { 0 };
+            daysOfMonth = new int[] { 1 };
+            months = new int[] { 0, 3, 6, 9 };
+        }
+        else if (shape.equals("dayOrWeekday")) {
+            minutes = new int[] { 0 };
+            hours = new int[] { 8 };
+            daysOfMonth = new int[] { 1, 15 };
+            daysOfWeek = new int[] { 2 };
+        }
+        else if (shape.equals("leapDay")) {
+            minutes = new int[] { 0 };
+            hours = new int[] { 12 };
+            daysOfMonth = new int[] { 29 };
+            months = new int[] { 1 };
+        }
+        else if (!shape.equals("everyMinute")) {
+            throw new IllegalArgumentException("unknown shape: " + shape);
+        }
+
+        entry = new AlarmEntry(shape, minutes, hours, daysOfMonth, months, daysOfWeek,
+                -1, ZoneId.of(zone), null);
+    }
+
+    @Benchmark
+    public long updateAlarmTime() {
+        entry.updateAlarmTime();
+        return entry.alarmTime;
+    }
+}
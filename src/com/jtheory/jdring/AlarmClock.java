@@ -0,0 +1,39 @@
+/*
+ *  com/jtheory/jdring/AlarmClock.java
+ *  Copyright (C) 1999 - 2004 jtheory creations, Olivier Dedieu et al.
+ *
+ *  This library is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU Library General Public License as published
+ *  by the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Library General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Library General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+package com.jtheory.jdring;
+
+/**
+ * The source of the current time for an AlarmManager, its AlarmWaiter and
+ * its AlarmEntries.  Besides the system clock, an <code>OffsetAlarmClock</code>
+ * runs the schedule ahead of or behind real time, and a
+ * <code>VirtualAlarmClock</code> only moves when told to, ringing the alarms
+ * it passes on the way: months of alarms can be simulated in seconds.
+ *
+ * @see AlarmManager#AlarmManager(boolean, String, AlarmQueue, AlarmClock)
+ */
+public interface AlarmClock {
+    /** The system clock. */
+    AlarmClock SYSTEM = new SystemAlarmClock();
+
+    /**
+     * @return the current time, in milliseconds since the epoch.
+     */
+    long currentTimeMillis();
+}
@@ -0,0 +1,396 @@
+/*
+ *  com/jtheory/jdring/AlarmCluster.java
+ *  Copyright (C) 1999 - 2004 jtheory creations, Olivier Dedieu et al.
+ *
+ *  This library is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU Library General Public License as published
+ *  by the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Library General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Library General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+
+package com.jtheory.jdring;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Makes an AlarmManager a member of a cluster of managers holding the same
+ * alarms, e.g. one per node running the same application, so that each
+ * alarm time rings on one member only.<p>
+ *
+ * Alarms are spread over partitions by name, and each member holds leases
+ * on its share of the partitions, in a LeaseStore shared by the members.
+ * Every member keeps and reschedules all its alarms, but only rings those
+ * of its partitions, and only after the store has recorded the alarm time
+ * as rung under a current lease: a member that lost its lease (a long GC
+ * pause, a network split...) can't ring anymore, and no alarm time rings
+ * twice.  Listeners get the lease's fencing token from
+ * <code>AlarmEntry.getFencingToken()</code>, to pass along to the systems
+ * they act on.<p>
+ *
+ * Leases are renewed, and the partitions rebalanced as members come and
+ * go, every third of the lease duration.  When a member stops, its
+ * partitions are released; when it dies, they are taken over once its
+ * leases run out.  Either way, the new owner rings the alarm times the
+ * others skipped while nobody held the partition, once per alarm (as
+ * with <code>MISFIRE_FIRE_ONCE</code>).<p>
+ *
+ * Alarms are told apart across members by their name, so each alarm
+ * should be given one, the same on every member.  With as many
+ * partitions as alarms, each alarm has a lease of its own; with fewer,
+ * leases are held per group of alarms, and cost less to renew.<p>
+ *
+ * Example of use:
+ * <pre>
+ *  LeaseStore leases = ...; // shared by the members
+ *  AlarmManager mgr = new AlarmManager();
+ *  mgr.setCluster(new AlarmCluster(leases, InetAddress.getLocalHost().getHostName()));
+ *  mgr.addAlarm("nightly-report", "0 2 * * *", reportListener);
+ * </pre>
+ *
+ * @see AlarmManager#setCluster(AlarmCluster)
+ */
+public class AlarmCluster {
+    /** The default number of partitions: 64. */
+    public static final int DEFAULT_PARTITIONS = 64;
+    /** The default lease duration: 30 seconds. */
+    public static final long DEFAULT_LEASE_MILLIS = 30000;
+
+    private final LeaseStore store;
+    private final String member;
+    private final int partitions;
+    private final long leaseMillis;
+    private final Lease[] leases; // ours, by partition
+    private final Map /* of String to Missed */ missed = new HashMap();
+    private AlarmManager manager;
+
+    /**
+     * Creates a cluster member with the default number of partitions and
+     * lease duration.
+     *
+     * @param store the leases, shared by all the members.
+     * @param member the name of this member, unique in the cluster.
+     */
+    public AlarmCluster(LeaseStore _store, String _member) {
+        this(_store, _member, DEFAULT_PARTITIONS, DEFAULT_LEASE_MILLIS);
+    }
+
+    /**
+     * Creates a cluster member.  All the members must use the same number
+     * of partitions.
+     *
+     * @param store the leases, shared by all the members.
+     * @param member the name of this member, unique in the cluster.
+     * @param partitions the number of partitions the alarms are spread over.
+     * @param leaseMillis the lease duration: the longest a dead member's
+     * alarms go unrung.
+     */
+    public AlarmCluster(LeaseStore _store, String _member, int _partitions, long _leaseMillis) {
+        if (_store == null)
+            throw new NullPointerException("store");
+        if (_member == null)
+            throw new NullPointerException("member");
+        if (_partitions < 1)
+            throw new IllegalArgumentException("at least one partition needed: " + _partitions);
+        if (_leaseMillis < 3)
+            throw new IllegalArgumentException("lease too short: " + _leaseMillis);
+
+        store = _store;
+        member = _member;
+        partitions = _partitions;
+        leaseMillis = _leaseMillis;
+        leases = new Lease[_partitions];
+    }
+
+    public String getMember() {
+        return member;
+    }
+
+    public int getPartitionCount() {
+        return partitions;
+    }
+
+    /**
+     * @return the partition of the alarm with the given name.
+     */
+    public int getPartition(String _alarmName) {
+        int h = _alarmName.hashCode();
+        h ^= h >>> 16; // the low bits alone are poor for names like "job1", "job2"...
+        return (h & 0x7fffffff) % partitions;
+    }
+
+    /**
+     * @return the partitions this member holds a lease on.
+     */
+    public synchronized int[] getOwnedPartitions() {
+        long now = (manager != null) ? manager.clock.currentTimeMillis() : 0;
+        int count = 0;
+        int[] owned = new int[partitions];
+        for (int p = 0; p < partitions; p++) {
+            if (leases[p] != null && leases[p].isValid(now))
+                owned[count++] = p;
+        }
+        int[] result = new int[count];
+        System.arraycopy(owned, 0, result, 0, count);
+        return result;
+    }
+
+    /**
+     * Starts taking part in the cluster with the given manager: called by
+     * <code>AlarmManager.setCluster()</code>.
+     */
+    void join(AlarmManager _manager) {
+        synchronized (this) {
+            if (manager != null)
+                throw new IllegalStateException(member + " is already part of a manager");
+            manager = _manager;
+        }
+        rebalance();
+
+        AlarmEntry entry;
+        try {
+            entry = new AlarmEntry("cluster-" + member, Duration.ofMillis(leaseMillis / 3), true,
+                    _manager.clock, new AlarmListener() {
+                        public void handleAlarm(AlarmEntry _entry) {
+                            rebalance();
+                        }
+                    });
+        }
+        catch(PastDateException e) {
+            throw new IllegalStateException(e.toString()); // a relative alarm can't be past
+        }
+        entry.isLocal = true;
+        try {
+            _manager.addAlarm(entry);
+        }
+        catch(PastDateException e) {
+            throw new IllegalStateException(e.toString());
+        }
+    }
+
+    /**
+     * Stops taking part in the cluster, releasing this member's leases so
+     * others take its partitions over at once.  Called when the manager
+     * stops.
+     */
+    synchronized void leave() {
+        if (manager == null)
+            return;
+
+        for (int p = 0; p < partitions; p++) {
+            if (leases[p] != null) {
+                store.release(leases[p]);
+                leases[p] = null;
+            }
+        }
+        missed.clear();
+        manager = null;
+    }
+
+    /**
+     * Renews this member's leases, then gives partitions up or takes free
+     * ones so that each member has its share.  Then rings the alarm times
+     * missed in newly taken partitions.
+     */
+    void rebalance() {
+        List catchUp = new ArrayList();
+        AlarmManager mgr;
+        long now;
+        synchronized (this) {
+            mgr = manager;
+            if (mgr == null)
+                return;
+            now = mgr.clock.currentTimeMillis();
+
+            store.heartbeat(member, now, leaseMillis);
+            int members = Math.max(1, store.countMembers(now));
+            int share = (partitions + members - 1) / members;
+
+            int owned = 0;
+            for (int p = 0; p < partitions; p++) {
+                if (leases[p] != null) {
+                    leases[p] = store.acquire(p, member, now, leaseMillis);
+                    if (leases[p] != null)
+                        owned++;
+                }
+            }
+
+            // give extra partitions up for the members which just joined...
+            for (int p = partitions - 1; p >= 0 && owned > share; p--) {
+                if (leases[p] != null) {
+                    store.release(leases[p]);
+                    leases[p] = null;
+                    owned--;
+                }
+            }
+
+            // ... or take free ones, starting from a different place on
+            // each member so they don't all go for the same partitions
+            int start = getPartition(member);
+            for (int i = 0; i < partitions && owned < share; i++) {
+                int p = (start + i) % partitions;
+                if (leases[p] == null) {
+                    leases[p] = store.acquire(p, member, now, leaseMillis);
+                    if (leases[p] != null)
+                        owned++;
+                }
+            }
+
+            for (Iterator it = missed.values().iterator(); it.hasNext(); ) {
+                Missed m = (Missed) it.next();
+                Lease lease = leases[getPartition(m.entry.getName())];
+                if (lease != null) {
+                    m.lease = lease;
+                    catchUp.add(m);
+                    it.remove();
+                }
+                else if (now - m.since > 2 * leaseMillis) {
+                    // a dead owner's leases have run out and its
+                    // partitions been taken by now: if not by us, the new
+                    // owner catches up with its own missed alarm times
+                    it.remove();
+                }
+            }
+        }
+
+        // without our monitor: the manager's is taken
+        for (Iterator it = catchUp.iterator(); it.hasNext(); ) {
+            Missed m = (Missed) it.next();
+            if (m.entry.isRepeating && !mgr.containsAlarm(m.entry))
+                it.remove(); // removed since
+        }
+        if (catchUp.isEmpty())
+            return;
+
+        Lease[] claimLeases = new Lease[catchUp.size()];
+        String[] names = new String[catchUp.size()];
+        long[] alarmTimes = new long[catchUp.size()];
+        for (int i = 0; i < catchUp.size(); i++) {
+            Missed m = (Missed) catchUp.get(i);
+            claimLeases[i] = m.lease;
+            names[i] = m.entry.getName();
+            alarmTimes[i] = m.alarmTime;
+        }
+        boolean[] claimed = store.claimAll(claimLeases, names, alarmTimes, now);
+        for (int i = 0; i < catchUp.size(); i++) {
+            Missed m = (Missed) catchUp.get(i);
+            if (claimed[i]) {
+                m.entry.setFencingToken(m.lease.getToken());
+                mgr.ringNow(m.entry);
+            }
+        }
+    }
+
+    /**
+     * Keeps the due alarms this member should ring: those of the partitions
+     * it holds, once the store has recorded their alarm time as rung.  The
+     * others are remembered, in case this member takes their partition
+     * over before anyone rings them.<p>
+     *
+     * The alarms of a pass are claimed in one call to the store, holding
+     * neither the manager's monitor nor ours, so a slow store never holds
+     * up adding and removing alarms.
+     *
+     * @param due the due alarms, each with its <code>lastAlarmTime</code>
+     * set to the alarm time being rung.
+     * @return the alarms to ring, in the same order.
+     */
+    List claim(List _due) {
+        int count = _due.size();
+        Lease[] claimLeases = new Lease[count];
+        String[] names = new String[count];
+        long[] alarmTimes = new long[count];
+        int claims = 0;
+        long now;
+        synchronized (this) {
+            if (manager == null)
+                return _due;
+
+            now = manager.clock.currentTimeMillis();
+            for (int i = 0; i < count; i++) {
+                AlarmEntry entry = (AlarmEntry) _due.get(i);
+                if (entry.isLocal)
+                    continue;
+                Lease lease = leases[getPartition(entry.getName())];
+                if (lease != null && lease.isValid(now)) {
+                    claimLeases[claims] = lease;
+                    names[claims] = entry.getName();
+                    alarmTimes[claims] = entry.getLastAlarmTime();
+                    claims++;
+                }
+            }
+        }
+
+        boolean[] claimed = new boolean[0];
+        if (claims > 0) {
+            if (claims < count) {
+                claimLeases = Arrays.copyOf(claimLeases, claims);
+                names = Arrays.copyOf(names, claims);
+                alarmTimes = Arrays.copyOf(alarmTimes, claims);
+            }
+            claimed = store.claimAll(claimLeases, names, alarmTimes, now);
+        }
+
+        List result = new ArrayList(count);
+        synchronized (this) {
+            for (int i = 0, c = 0; i < count; i++) {
+                AlarmEntry entry = (AlarmEntry) _due.get(i);
+                if (entry.isLocal) {
+                    result.add(entry);
+                }
+                else if (c < claims && names[c] == entry.getName()) {
+                    if (claimed[c]) {
+                        entry.setFencingToken(claimLeases[c].getToken());
+                        result.add(entry);
+                    }
+                    else {
+                        // rung by another member already
+                        missed.put(entry.getName(), new Missed(entry, alarmTimes[c], now));
+                    }
+                    c++;
+                }
+                else {
+                    // to be rung by whoever takes the partition over
+                    missed.put(entry.getName(), new Missed(entry, entry.getLastAlarmTime(), now));
+                }
+            }
+        }
+        return result;
+    }
+
+    public String toString() {
+        return "AlarmCluster member " + member + " (" + partitions + " partitions)";
+    }
+
+    /**
+     * An alarm time which was due while this member didn't hold the
+     * alarm's partition.
+     */
+    private static class Missed {
+        final AlarmEntry entry;
+        final long alarmTime;
+        final long since; // when it was missed, to forget it in time
+        Lease lease; // once the partition is ours
+
+        Missed(AlarmEntry _entry, long _alarmTime, long _since) {
+            entry = _entry;
+            alarmTime = _alarmTime;
+            since = _since;
+        }
+    }
+}
@@ -20,9 +20,21 @@
 
 package com.jtheory.jdring;
 
-import java.util.Calendar;
-import java.util.Date;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * This class represents the attributes of an alarm.
@@ -30,73 +42,201 @@ import java.util.Arrays;
  * @author  Rob Whelan, Olivier Dedieu, David Sims, Simon Bcot, Jim Lerner
  * @version 1.4.1, 2004/04/02
  */
-public class AlarmEntry implements Comparable, java.io.Serializable {
-    private int[] minutes = {-1};
-    private static int minMinute = 0;
-    private static int maxMinute = 59;
+public class AlarmEntry implements Comparable, Cloneable, java.io.Serializable {
+    private int year = -1; // no support for a list of years -- must be * or specified
+    private long periodMillis; // relative alarms only
+    // relative alarms: what REPEAT_FIXED_RATE counts from, to the nanosecond
+    private long periodNanos;
+    private long firstAlarmTime;
+    private static final long NANOS_PER_MILLI = 1000000;
     
-    private int[] hours = {-1};
-    private static int minHour = 0;
-    private static int maxHour = 23;
+    // cron alarms only: shared by all the entries on the same schedule
+    private CronSchedule schedule;
+    // the zone the fields are read in, on the wall clock
+    private ZoneId zone = ZoneId.systemDefault();
+    private long spreadMillis = 0; // see setSpread()
+    private boolean isFixedDate;
+    private transient AlarmClock clock = AlarmClock.SYSTEM;
     
-    private int[] daysOfMonth = {-1};
-    private static int minDayOfMonth = 1;
-    // maxDayOfMonth varies by month
+    private String name;
+    private boolean isNameGenerated; // from UNIQUE: not the same across runs
+    private static int UNIQUE = 0; // used to generate names if they are null
     
-    private int[] months = {-1};
-    private static int minMonth = 0;
-    private static int maxMonth = 11;
+    // breaks ties between alarms due in the same millisecond
+    private static final AtomicLong SEQUENCE = new AtomicLong();
+    private final long sequence = SEQUENCE.getAndIncrement();
     
-    private int[] daysOfWeek = {-1};
-    private static int minDayOfWeek = 1;
-    private static int maxDayOfWeek = 7;
+    /** Ring the listener in the AlarmManager's waiter thread (the default). */
+    public static final int RING_INLINE = 0;
+    /** Ring the listener on the AlarmManager's ring executor. */
+    public static final int RING_POOLED = 1;
+    /** Ring the listener in a new Thread of its own, every time. */
+    public static final int RING_DEDICATED = 2;
+    /**
+     * Ring the listener in a new virtual thread, for listeners that block on
+     * I/O.  On runtimes without virtual threads this falls back to
+     * <code>RING_POOLED</code>.
+     */
+    public static final int RING_VIRTUAL = 3;
     
-    private int year = -1; // no support for a list of years -- must be * or specified
+    private int ringMode = RING_INLINE;
     
-    private String name;
-    private static int UNIQUE = 0; // used to generate names if they are null
+    /**
+     * If alarm times were missed (e.g. while the application was down),
+     * ring once, then carry on from the current time (the default).
+     */
+    public static final int MISFIRE_FIRE_ONCE = 0;
+    /**
+     * If alarm times were missed, ring once for each of them, in turn,
+     * until the alarm has caught up with the current time.
+     */
+    public static final int MISFIRE_FIRE_ALL = 1;
+    /**
+     * If alarm times were missed, don't ring for them: a repeating alarm
+     * carries on from the current time, a one-shot alarm is dropped.
+     */
+    public static final int MISFIRE_SKIP = 2;
+    
+    private int misfirePolicy = MISFIRE_FIRE_ONCE;
+    private transient volatile long misfires = 0; // see getMisfireCount()
+    
+    /**
+     * If the listener is still running from a previous alarm time, ring it
+     * again anyway, at the same time (the default).  Inline entries ring
+     * in turn in any case.
+     */
+    public static final int OVERLAP_CONCURRENT = 0;
+    /**
+     * If the listener is still running from a previous alarm time, don't
+     * ring it for this one.
+     */
+    public static final int OVERLAP_SKIP = 1;
+    /**
+     * If the listener is still running from a previous alarm time, ring it
+     * once more when it's done, however many alarm times came up meanwhile.
+     */
+    public static final int OVERLAP_COALESCE = 2;
+    /**
+     * If the listener is still running from a previous alarm time, ring it
+     * again when it's done, once per alarm time that came up meanwhile, up
+     * to a limit; alarm times beyond it are skipped.
+     */
+    public static final int OVERLAP_QUEUE = 3;
+    
+    /** The default limit of rings waiting with <code>OVERLAP_QUEUE</code>. */
+    public static final int DEFAULT_MAX_QUEUED_RINGS = 16;
+    
+    private int overlapPolicy = OVERLAP_CONCURRENT;
+    private int maxQueuedRings = 0; // rings allowed to wait for the running one
+    
+    // what admitRing() tells the manager
+    static final int ADMIT_RUN = 0;
+    static final int ADMIT_RUN_OVERLAPPING = 1;
+    static final int ADMIT_QUEUED = 2;
+    static final int ADMIT_REFUSED = 3;
+    
+    /**
+     * Count the next alarm time of a repeating alarm from when it rings
+     * (the default).  A relative alarm drifts by however late it rings
+     * each time.
+     */
+    public static final int REPEAT_FROM_RING = 0;
+    /**
+     * Count the next alarm time of a repeating alarm from when its listener
+     * is done, i.e. when an AsyncAlarmListener's stage completes: runs never
+     * overlap, and there's always that delay between them.  While the
+     * listener runs, <code>alarmTime</code> is the soonest the alarm could
+     * ring next, and that's what an AlarmStore keeps.
+     */
+    public static final int REPEAT_FIXED_DELAY = 1;
+    /**
+     * Ring a relative alarm at its first alarm time plus a whole number of
+     * periods, computed to the nanosecond, so it never drifts however late
+     * it rings.  Alarm times missed are skipped (or rung in turn, with
+     * <code>MISFIRE_FIRE_ALL</code>).  Cron alarms are on such a fixed
+     * schedule already.
+     */
+    public static final int REPEAT_FIXED_RATE = 2;
     
-    private boolean ringInNewThread = false;  // default: false
+    private int repeatMode = REPEAT_FROM_RING;
+    private long listenerTimeout = 0; // see setListenerTimeout()
     
     private boolean isRelative;
     public boolean isRepeating;
     public long alarmTime;
+    long lastAlarmTime = -1; // set by the AlarmManager when it rings
     private long lastUpdateTime;
     private transient AlarmListener listener;
-    private transient boolean debug = false;
     
-    private void debug(String s) {
-        if (debug)
-            System.out.println("[" + Thread.currentThread().getName() + "] AlarmEntry "+name+": " + s);
-    }
+    // the id of this entry in the manager's AlarmStore, or -1
+    transient long storeId = -1;
+    
+    // the number of rings of this entry under way or waiting: see admitRing()
+    private transient volatile int ringing = 0;
+    private static final AtomicIntegerFieldUpdater RINGING =
+        AtomicIntegerFieldUpdater.newUpdater(AlarmEntry.class, "ringing");
+    
+    // cluster mode: see AlarmCluster
+    transient boolean isLocal = false; // kept out of the store and the cluster
+    private transient volatile long fencingToken = -1;
+    
+    private static final String[] NO_TAGS = new String[0];
+    private String[] tags = NO_TAGS;
     
+    // bookkeeping for the manager's AlarmIndex
+    transient AlarmIndex index;
+    transient AlarmEntry nameNext;
+
+    // slot bookkeeping for TimingWheelAlarmQueue, which links entries directly
+    transient TimingWheelAlarmQueue wheel;
+    transient int wheelLevel;
+    transient int wheelSlot;
+    transient AlarmEntry wheelPrev;
+    transient AlarmEntry wheelNext;
+
     /**
      * Creates a new AlarmEntry.  Fixed date format: this alarm will happen once, at
      * the timestamp given.
      *
      * @param date the alarm date to be added.
      * @param listener the alarm listener.
-     * @exception PastDateException if the alarm date is in the past
-     * (or less than 1 second away from the current date).
+     * @exception PastDateException if the alarm date is in the past.
      */
     public AlarmEntry(String _name, Date _date, AlarmListener _listener)
+    throws PastDateException {
+        this(_name, _date, AlarmClock.SYSTEM, _listener);
+    }
+    
+    /**
+     * Creates a new AlarmEntry.  Fixed date format, checked against the given
+     * clock (that of the AlarmManager it will be added to).
+     *
+     * @param date the alarm date to be added.
+     * @param clock the clock giving the current time.
+     * @param listener the alarm listener.
+     * @exception PastDateException if the alarm date is in the past.
+     */
+    public AlarmEntry(String _name, Date _date, AlarmClock _clock, AlarmListener _listener)
     throws PastDateException {
         
         setName(_name);
+        setClock(_clock);
         listener = _listener;
-        Calendar alarm = Calendar.getInstance();
-        alarm.setTime(_date);
-        minutes = new int[] { alarm.get(Calendar.MINUTE) };
-        hours = new int[] { alarm.get(Calendar.HOUR_OF_DAY) };
-        daysOfMonth = new int[] { alarm.get(Calendar.DAY_OF_MONTH) };
-        months = new int[] { alarm.get(Calendar.MONTH) };
-        year = alarm.get( Calendar.YEAR );
+        alarmTime = _date.getTime();
+        setFixedDateFields();
         
         isRepeating = false;
         isRelative = false;
-        alarmTime = _date.getTime();
+        isFixedDate = true;
         checkAlarmTime();
     }
+    
+    /**
+     * Sets the year of a fixed date entry from its alarm time, in its zone.
+     */
+    private void setFixedDateFields() {
+        year = Instant.ofEpochMilli(alarmTime).atZone(zone).getYear();
+    }
     /** @deprecated for backwards compatibility, w/o name param: */
     public AlarmEntry(Date _date, AlarmListener _listener)
     throws PastDateException {
@@ -112,22 +252,138 @@ public class AlarmEntry implements Comparable, java.io.Serializable {
      * @param isRepetitive <code>true</code> if the alarm must be
      * reactivated, <code>false</code> otherwise.
      * @param listener the alarm listener.
-     * @exception PastDateException if the alarm date is in the past
-     * (or less than 1 second closed to the current date).
+     * @exception PastDateException if the alarm date is in the past.
      */
     public AlarmEntry(String _name, int _delayMinutes, boolean _isRepeating, AlarmListener _listener)
     throws PastDateException {
+        this(_name, _delayMinutes, _isRepeating, AlarmClock.SYSTEM, _listener);
+    }
+    
+    /**
+     * Creates a new AlarmEntry.  Delay format, relative to the given clock
+     * (that of the AlarmManager it will be added to).
+     *
+     * @param delayMinutes the alarm delay in minutes (relative to now).
+     * @param isRepetitive <code>true</code> if the alarm must be
+     * reactivated, <code>false</code> otherwise.
+     * @param clock the clock giving the current time.
+     * @param listener the alarm listener.
+     * @exception PastDateException if the delay is less than a minute.
+     */
+    public AlarmEntry(String _name, int _delayMinutes, boolean _isRepeating, AlarmClock _clock,
+            AlarmListener _listener)
+    throws PastDateException {
+        this(_name, checkDelayMinutes(_delayMinutes), _isRepeating, _clock, _listener);
+    }
+    
+    private static Duration checkDelayMinutes(int _delayMinutes) throws PastDateException {
         if (_delayMinutes < 1) {
             throw new PastDateException();
         }
+        return Duration.ofMinutes(_delayMinutes);
+    }
+    
+    /**
+     * Creates a new AlarmEntry.  Delay format, to the millisecond: this alarm
+     * will happen once or repeatedly, at increments of the delay given.
+     *
+     * @param delay the alarm delay (relative to now), e.g.
+     * <code>Duration.ofMillis(250)</code>.
+     * @param isRepetitive <code>true</code> if the alarm must be
+     * reactivated, <code>false</code> otherwise.
+     * @param listener the alarm listener.
+     * @exception PastDateException if the delay is not positive.
+     */
+    public AlarmEntry(String _name, Duration _delay, boolean _isRepeating, AlarmListener _listener)
+    throws PastDateException {
+        this(_name, _delay, _isRepeating, AlarmClock.SYSTEM, _listener);
+    }
+    
+    /**
+     * Creates a new AlarmEntry.  Delay format, to the millisecond, relative
+     * to the given clock (that of the AlarmManager it will be added to).
+     *
+     * @param delay the alarm delay (relative to now).
+     * @param isRepetitive <code>true</code> if the alarm must be
+     * reactivated, <code>false</code> otherwise.
+     * @param clock the clock giving the current time.
+     * @param listener the alarm listener.
+     * @exception PastDateException if the delay is not positive.
+     */
+    public AlarmEntry(String _name, Duration _delay, boolean _isRepeating, AlarmClock _clock,
+            AlarmListener _listener)
+    throws PastDateException {
+        if (_delay.toMillis() < 1) {
+            throw new PastDateException();
+        }
         
         setName(_name);
-        minutes = new int[] { _delayMinutes };
+        setClock(_clock);
+        periodMillis = _delay.toMillis();
+        periodNanos = _delay.toNanos();
         listener = _listener;
         isRepeating = _isRepeating;
         
         isRelative = true;
         updateAlarmTime();
+        firstAlarmTime = alarmTime;
+    }
+    
+    /**
+     * Creates a new AlarmEntry.  Periodic format: this alarm will happen
+     * after the initial delay, then repeatedly, once per period.
+     *
+     * @param initialDelay the delay before the first alarm (relative to
+     * now); it may be zero.
+     * @param period the time between alarms, e.g.
+     * <code>Duration.ofSeconds(1)</code>.
+     * @param repeatMode <code>REPEAT_FIXED_RATE</code> to ring at the
+     * first alarm time plus whole periods, <code>REPEAT_FIXED_DELAY</code>
+     * to ring a period after the listener is done, or
+     * <code>REPEAT_FROM_RING</code>.
+     * @param listener the alarm listener.
+     * @exception PastDateException if the initial delay is negative.
+     */
+    public AlarmEntry(String _name, Duration _initialDelay, Duration _period, int _repeatMode,
+            AlarmListener _listener)
+    throws PastDateException {
+        this(_name, _initialDelay, _period, _repeatMode, AlarmClock.SYSTEM, _listener);
+    }
+    
+    /**
+     * Creates a new AlarmEntry.  Periodic format, relative to the given
+     * clock (that of the AlarmManager it will be added to).
+     *
+     * @param initialDelay the delay before the first alarm (relative to
+     * now); it may be zero.
+     * @param period the time between alarms, at least a millisecond.
+     * @param repeatMode <code>REPEAT_FIXED_RATE</code>,
+     * <code>REPEAT_FIXED_DELAY</code> or <code>REPEAT_FROM_RING</code>.
+     * @param clock the clock giving the current time.
+     * @param listener the alarm listener.
+     * @exception PastDateException if the initial delay is negative.
+     */
+    public AlarmEntry(String _name, Duration _initialDelay, Duration _period, int _repeatMode,
+            AlarmClock _clock, AlarmListener _listener)
+    throws PastDateException {
+        if (_initialDelay.isNegative()) {
+            throw new PastDateException();
+        }
+        if (_period.toMillis() < 1) {
+            throw new IllegalArgumentException("period under a millisecond: " + _period);
+        }
+        
+        setName(_name);
+        setClock(_clock);
+        setRepeatMode(_repeatMode);
+        periodMillis = _period.toMillis();
+        periodNanos = _period.toNanos();
+        listener = _listener;
+        isRepeating = true;
+        
+        isRelative = true;
+        alarmTime = getClock().currentTimeMillis() + _initialDelay.toMillis();
+        firstAlarmTime = alarmTime;
     }
     /** @deprecated for backwards compatibility, w/o name param: */
     public AlarmEntry(int _delayMinutes, boolean _isRepeating, AlarmListener _listener)
@@ -162,8 +418,7 @@ public class AlarmEntry implements Comparable, java.io.Serializable {
      * the alarm is repetitive (i.e. it is rescheduled when reached).
      * @param listener the alarm listener.
      * @return the AlarmEntry.
-     * @exception PastDateException if the alarm date is in the past
-     * (or less than 1 second away from the current date).
+     * @exception PastDateException if the alarm date is in the past.
      */
     public AlarmEntry(String _name, int _minute, int _hour, int _dayOfMonth, int _month,
             int _dayOfWeek, int _year, AlarmListener _listener)
@@ -207,27 +462,135 @@ public class AlarmEntry implements Comparable, java.io.Serializable {
      * the alarm is repetitive (i.e. it is rescheduled when reached).
      * @param listener the alarm listener.
      * @return the AlarmEntry.
-     * @exception PastDateException if the alarm date is in the past
-     * (or less than 1 second away from the current date).
+     * @exception PastDateException if the alarm date is in the past.
      */
     public AlarmEntry(String _name, int[] _minutes, int[] _hours, int[] _daysOfMonth, int[] _months,
             int[] _daysOfWeek, int _year, AlarmListener _listener)
     throws PastDateException {
+        this(_name, _minutes, _hours, _daysOfMonth, _months, _daysOfWeek, _year,
+                ZoneId.systemDefault(), _listener);
+    }
+    
+    /**
+     * Creates a new AlarmEntry.  Advanced cron format, read on the wall
+     * clock of the given zone instead of the JVM's default zone.  See
+     * {@link CronSchedule#nextAlarmTime(long, ZoneId)} for the handling of
+     * the hours skipped or repeated by daylight saving time.
+     *
+     * @param zone the time zone the fields are expressed in.
+     * @exception PastDateException if the alarm date is in the past.
+     */
+    public AlarmEntry(String _name, int[] _minutes, int[] _hours, int[] _daysOfMonth, int[] _months,
+            int[] _daysOfWeek, int _year, ZoneId _zone, AlarmListener _listener)
+    throws PastDateException {
+        this(_name, _minutes, _hours, _daysOfMonth, _months, _daysOfWeek, _year,
+                _zone, AlarmClock.SYSTEM, _listener);
+    }
+    
+    /**
+     * Creates a new AlarmEntry.  Advanced cron format, in the given zone,
+     * scheduled from the given clock (that of the AlarmManager it will be
+     * added to).
+     *
+     * @param zone the time zone the fields are expressed in.
+     * @param clock the clock giving the current time.
+     * @exception PastDateException if the alarm date is in the past.
+     */
+    public AlarmEntry(String _name, int[] _minutes, int[] _hours, int[] _daysOfMonth, int[] _months,
+            int[] _daysOfWeek, int _year, ZoneId _zone, AlarmClock _clock, AlarmListener _listener)
+    throws PastDateException {
+        this(_name, new int[] { 0 }, _minutes, _hours, _daysOfMonth, _months, _daysOfWeek, _year,
+                _zone, _clock, _listener);
+    }
+    
+    /**
+     * Creates a new AlarmEntry.  Advanced cron format with seconds: the
+     * other constructors ring on second 0 of each matching minute.
+     *
+     * @param seconds valid seconds of the alarm. Allowed values 0-59, or
+     * {-1} for all.
+     * @param zone the time zone the fields are expressed in.
+     * @param clock the clock giving the current time.
+     * @exception PastDateException if the alarm date is in the past.
+     */
+    public AlarmEntry(String _name, int[] _seconds, int[] _minutes, int[] _hours, int[] _daysOfMonth,
+            int[] _months, int[] _daysOfWeek, int _year, ZoneId _zone, AlarmClock _clock,
+            AlarmListener _listener)
+    throws PastDateException {
+        
+        if (_zone == null)
+            throw new NullPointerException("zone");
         
         setName(_name);
-        minutes = _minutes;
-        hours = _hours;
-        daysOfMonth = _daysOfMonth;
-        months = _months;
-        daysOfWeek = _daysOfWeek;
+        setClock(_clock);
+        zone = _zone;
         year = _year;
         listener = _listener;
         isRepeating = (_year == -1);
         isRelative = false;
+        schedule = CronSchedule.of(_seconds, _minutes, _hours, _daysOfMonth, _months, _daysOfWeek);
         
         updateAlarmTime();
         checkAlarmTime();
     }
+    
+    /**
+     * Creates a new AlarmEntry.  Cron expression format, e.g.
+     * <code>"30 9 * * MON-FRI"</code>, in the default time zone: this alarm
+     * will happen repeatedly, on every match.
+     *
+     * @param cronExpression the schedule; see CronSchedule for the syntax.
+     * @param listener the alarm listener.
+     * @exception IllegalArgumentException if the expression is not valid.
+     */
+    public AlarmEntry(String _name, String _cronExpression, AlarmListener _listener) {
+        this(_name, CronSchedule.parse(_cronExpression), ZoneId.systemDefault(),
+                AlarmClock.SYSTEM, _listener);
+    }
+    
+    /**
+     * Creates a new AlarmEntry.  Cron expression format, in the given zone,
+     * scheduled from the given clock.
+     *
+     * @param cronExpression the schedule; see CronSchedule for the syntax.
+     * @param zone the time zone the expression is read in.
+     * @param clock the clock giving the current time.
+     * @param listener the alarm listener.
+     * @exception IllegalArgumentException if the expression is not valid.
+     */
+    public AlarmEntry(String _name, String _cronExpression, ZoneId _zone, AlarmClock _clock,
+            AlarmListener _listener) {
+        this(_name, CronSchedule.parse(_cronExpression), _zone, _clock, _listener);
+    }
+    
+    /**
+     * Creates a new AlarmEntry on a compiled schedule, which may be shared
+     * by any number of entries.  The alarm will happen repeatedly, on every
+     * match.
+     *
+     * @param schedule the schedule, from <code>CronSchedule.parse()</code>.
+     * @param zone the time zone the schedule is read in.
+     * @param clock the clock giving the current time.
+     * @param listener the alarm listener.
+     */
+    public AlarmEntry(String _name, CronSchedule _schedule, ZoneId _zone, AlarmClock _clock,
+            AlarmListener _listener) {
+        if (_schedule == null)
+            throw new NullPointerException("schedule");
+        if (_zone == null)
+            throw new NullPointerException("zone");
+        
+        setName(_name);
+        setClock(_clock);
+        zone = _zone;
+        listener = _listener;
+        isRepeating = true;
+        isRelative = false;
+        schedule = _schedule;
+        
+        // the next match is always in the future: nothing to check
+        updateAlarmTime();
+    }
     /** @deprecated for backwards compatibility, w/o name param: */
     public AlarmEntry( int[] _minutes, int[] _hours, int[] _daysOfMonth, int[] _months,
             int[] _daysOfWeek, int _year, AlarmListener _listener)
@@ -243,6 +606,7 @@ public class AlarmEntry implements Comparable, java.io.Serializable {
     private void setName(String _name)
     {
         name = _name;
+        isNameGenerated = (name == null);
         if( name == null )
             name = "alarm" + (UNIQUE++);
     }
@@ -251,346 +615,600 @@ public class AlarmEntry implements Comparable, java.io.Serializable {
         return name;
     }
     
+    private void setClock(AlarmClock _clock) {
+        if (_clock == null)
+            throw new NullPointerException("clock");
+        clock = _clock;
+    }
+    
     /**
-     * By default, the AlarmListeners for all alarms will be notified
-     * in the same thread (so a long-running handleAlarm() implementation
-     * will cause other alarms to wait until it completes).  Call this method
-     * to notify the listener to this alarm in a new Thread, so other
-     * alarms won't be delayed.
+     * @return the clock this alarm is scheduled from.
      */
-    public void setRingInNewThead()
-    {
-        ringInNewThread = true;
-    }
-    public boolean isRingInNewThread()
-    {
-        return ringInNewThread;
+    public AlarmClock getClock() {
+        // not serialized: a deserialized entry follows the system clock
+        return (clock != null) ? clock : AlarmClock.SYSTEM;
     }
     
-    
     /**
-     * Checks that alarm is not in the past, or less than 1 second
-     * away.
+     * Tags this alarm, e.g. with the tenant or job it belongs to, so all
+     * the alarms with a tag can be found or removed at once.  Tag an entry
+     * before adding it to an AlarmManager.
      *
-     * @exception PastDateException if the alarm date is in the past
-     * (or less than 1 second in the future).
+     * @exception IllegalStateException if the entry is in an AlarmManager,
+     * which would not find it by the new tag.
+     * @see AlarmManager#removeAlarmsByTag(String)
      */
-    void checkAlarmTime() throws PastDateException {
-        long delay = alarmTime - System.currentTimeMillis();
+    public void addTag(String _tag) {
+        if (_tag == null)
+            throw new NullPointerException("tag");
+        if (hasTag(_tag))
+            return;
+        if (index != null)
+            throw new IllegalStateException("alarm " + name + " is already added to a manager");
         
-        if (delay <= 1000) {
-            throw new PastDateException();
+        String[] newTags = new String[tags.length + 1];
+        System.arraycopy(tags, 0, newTags, 0, tags.length);
+        newTags[tags.length] = _tag;
+        tags = newTags;
+    }
+    
+    public boolean hasTag(String _tag) {
+        for (int i = 0; i < tags.length; i++) {
+            if (tags[i].equals(_tag))
+                return true;
         }
+        return false;
+    }
+    
+    /**
+     * @return the tags of this alarm.
+     */
+    public List getTags() {
+        return Collections.unmodifiableList(Arrays.asList(tags));
     }
     
+    String[] getTagArray() {
+        return tags;
+    }
     
     /**
-     * Notifies the listener.
+     * @return the schedule of a cron alarm, or <code>null</code> for fixed
+     * date and relative alarms.
      */
-    public void ringAlarm()
-    {
-        listener.handleAlarm(this);
+    public CronSchedule getSchedule() {
+        return schedule;
     }
     
     /**
-     * Updates this alarm entry to the next valid alarm time, AFTER the current time.
+     * @return a copy of this entry as it is now, outside any manager, e.g.
+     * to hand a ring to an AlarmPublisher's subscribers while the entry
+     * moves on.
      */
-    public void updateAlarmTime() {
-        Calendar now = Calendar.getInstance();
-        
-        if (isRelative) {
-            // relative only uses minutes field, with only a single value (NOT -1)
-            alarmTime = now.getTime().getTime() + (minutes[0] * 60000);
-            return;
-        }
-        
-        Calendar alarm = (Calendar)now.clone();
-        alarm.set( Calendar.SECOND, 0 );
-        
-        debug("now: " + now.getTime());
-        
-        //
-        // the updates work in a cascade -- if next minute value is in the
-        // following hour, hour is incremented.  If next valid hour value is
-        // in the following day, day is incremented, and so on.
-        //
-        
-        // increase alarm minutes
-        int current = alarm.get( Calendar.MINUTE );
-        int offset = 0;
-        // force increment at least to next minute
-        offset = getOffsetToNext( current, minMinute, maxMinute, minutes );
-        alarm.add( Calendar.MINUTE, offset );
-        debug( "after min: " + alarm.getTime() );
-        
-        // update alarm hours if necessary
-        current = alarm.get( Calendar.HOUR_OF_DAY );  // (as updated by minute shift)
-        offset = getOffsetToNextOrEqual( current, minHour, maxHour, hours );
-        alarm.add( Calendar.HOUR_OF_DAY, offset );
-        debug( "after hour (current:"+current+"): " + alarm.getTime() );
-        
-        //
-        // If days of month AND days of week are restricted, we take whichever match
-        // comes sooner.
-        // If only one is restricted, take the first match for that one.
-        // If neither is restricted, don't do anything.
-        //
-        if( daysOfMonth[0] != -1 && daysOfWeek[0] != -1 )
-        {
-            // BOTH are restricted - take earlier match
-            Calendar dayOfWeekAlarm = (Calendar)alarm.clone();
-            updateDayOfWeekAndMonth( dayOfWeekAlarm );
-            
-            Calendar dayOfMonthAlarm = (Calendar)alarm.clone();
-            updateDayOfMonthAndMonth( dayOfMonthAlarm );
-            
-            // take the earlier one
-            if( dayOfMonthAlarm.getTime().getTime() < dayOfWeekAlarm.getTime().getTime() )
-            {
-                alarm = dayOfMonthAlarm;
-                debug( "after dayOfMonth CLOSER: " + alarm.getTime() );
-            }
-            else
-            {
-                alarm = dayOfWeekAlarm;
-                debug( "after dayOfWeek CLOSER: " + alarm.getTime() );
-            }
-        }
-        else if( daysOfWeek[0] != -1 ) // only dayOfWeek is restricted
-        {
-            // update dayInWeek and month if necessary
-            updateDayOfWeekAndMonth( alarm );
-            debug( "after dayOfWeek: " + alarm.getTime() );
+    AlarmEntry snapshot() {
+        AlarmEntry copy;
+        try {
+            copy = (AlarmEntry) clone();
         }
-        else if( daysOfMonth[0] != -1 ) // only dayOfMonth is restricted
-        {
-            // update dayInMonth and month if necessary
-            updateDayOfMonthAndMonth( alarm );
-            debug( "after dayOfMonth: " + alarm.getTime() );
+        catch(CloneNotSupportedException e) {
+            throw new IllegalStateException(e.toString()); // we are Cloneable
         }
-        // else if neither is restricted (both[0] == -1), we don't need to do anything.
-        
-        
-        debug("alarm: " + alarm.getTime());
-        
-        alarmTime = alarm.getTime().getTime();
-        lastUpdateTime = System.currentTimeMillis();
+        copy.storeId = -1;
+        copy.index = null;
+        copy.nameNext = null;
+        copy.wheel = null;
+        copy.wheelPrev = null;
+        copy.wheelNext = null;
+        copy.ringing = 0;
+        return copy;
     }
     
     /**
-     * daysInMonth can't use simple offsets like the other fields, because the
-     * number of days varies per month (think of an alarm that executes on every
-     * 31st).  Instead we advance month and dayInMonth together until we're on a
-     * matching value pair.
+     * Lists the next alarm times of this entry, e.g. to preview them,
+     * without changing it.  A relative repeating alarm is taken to ring
+     * every period from its next alarm time.
+     *
+     * @param from the time to start after, in milliseconds.
+     * @param count the largest number of alarm times wanted.
+     * @return up to <code>count</code> alarm times following
+     * <code>from</code>, in order: fewer for an alarm that rings once.
      */
-    void updateDayOfMonthAndMonth( Calendar alarm )
-    {
-        int currentMonth = alarm.get( Calendar.MONTH );
-        int currentDayOfMonth = alarm.get( Calendar.DAY_OF_MONTH );
-        int offset = 0;
+    public long[] nextOccurrences(long _from, int _count) {
+        if (_count < 0)
+            throw new IllegalArgumentException("negative count: " + _count);
         
-        // loop until we have a valid day AND month (if current is invalid)
-        while( !isIn(currentMonth, months) || !isIn(currentDayOfMonth, daysOfMonth) )
-        {
-            // if current month is invalid, advance to 1st day of next valid month
-            if( !isIn(currentMonth, months) )
-            {
-                offset = getOffsetToNextOrEqual( currentMonth, minMonth, maxMonth, months );
-                alarm.add( Calendar.MONTH, offset );
-                alarm.set( Calendar.DAY_OF_MONTH, 1 );
-                currentDayOfMonth = 1;
-            }
-            
-            // advance to the next valid day of month, if necessary
-            if( !isIn(currentDayOfMonth, daysOfMonth) )
-            {
-                int maxDayOfMonth = alarm.getActualMaximum( Calendar.DAY_OF_MONTH );
-                offset = getOffsetToNextOrEqual( currentDayOfMonth, minDayOfMonth, maxDayOfMonth, daysOfMonth );
-                alarm.add( Calendar.DAY_OF_MONTH, offset );
-            }
-            
-            currentMonth = alarm.get( Calendar.MONTH );
-            currentDayOfMonth = alarm.get( Calendar.DAY_OF_MONTH );
+        if (!isRepeating) {
+            return (_count > 0 && alarmTime > _from) ? new long[] { alarmTime } : new long[0];
         }
+        if (schedule != null) {
+            long offset = getSpreadOffset();
+            long[] times = schedule.nextOccurrences(_from - offset, _count, zone);
+            for (int i = 0; i < times.length; i++)
+                times[i] += offset;
+            return times;
+        }
+        
+        long first = alarmTime;
+        if (_from >= first)
+            first += ((_from - first) / periodMillis + 1) * periodMillis;
+        long[] times = new long[_count];
+        for (int i = 0; i < _count; i++)
+            times[i] = first + i * periodMillis;
+        return times;
     }
     
+    /**
+     * @return the time zone the cron fields are expressed in.
+     */
+    public ZoneId getZone() {
+        return zone;
+    }
     
-    void updateDayOfWeekAndMonth( Calendar alarm )
-    {
-        int currentMonth = alarm.get( Calendar.MONTH );
-        int currentDayOfWeek = alarm.get( Calendar.DAY_OF_WEEK );
-        int offset = 0;
+    /**
+     * Changes the time zone the cron fields are expressed in, and
+     * recomputes the alarm time of a cron entry.  A fixed date keeps its
+     * instant; relative alarms don't use a zone.  Call this before adding
+     * the entry to an AlarmManager: the manager keeps entries ordered by
+     * alarm time.
+     *
+     * @param zone the new time zone.
+     */
+    public void setZone(ZoneId _zone) {
+        if (_zone == null)
+            throw new NullPointerException("zone");
         
-        // loop until we have a valid day AND month (if current is invalid)
-        while( !isIn(currentMonth, months) || !isIn(currentDayOfWeek, daysOfWeek) )
-        {
-            // if current month is invalid, advance to 1st day of next valid month
-            if( !isIn(currentMonth, months) )
-            {
-                offset = getOffsetToNextOrEqual( currentMonth, minMonth, maxMonth, months );
-                alarm.add( Calendar.MONTH, offset );
-                alarm.set( Calendar.DAY_OF_MONTH, 1 );
-                currentDayOfWeek = alarm.get( Calendar.DAY_OF_WEEK );
-            }
-            
-            // advance to the next valid day of week, if necessary
-            if( !isIn(currentDayOfWeek, daysOfWeek) )
-            {
-                offset = getOffsetToNextOrEqual( currentDayOfWeek, minDayOfWeek, maxDayOfWeek, daysOfWeek );
-                alarm.add( Calendar.DAY_OF_YEAR, offset );
-            }
-            
-            currentDayOfWeek = alarm.get( Calendar.DAY_OF_WEEK );
-            currentMonth = alarm.get( Calendar.MONTH );
-        }
+        zone = _zone;
+        if (isFixedDate)
+            setFixedDateFields();
+        else if (!isRelative)
+            updateAlarmTime();
     }
     
-    
-    
-    // ----------------------------------------------------------------------
-    //                      General utility methods
-    // ----------------------------------------------------------------------
-    
     /**
-     * if values = {-1}
-     *   offset is 1 (because next value definitely matches)
-     * if current < last(values)
-     *   offset is diff to next valid value
-     * if current >= last(values)
-     *   offset is diff to values[0], wrapping from max to min
+     * Spreads the alarm times of a cron entry over a window following
+     * each time its schedule matches, so that many entries on the same
+     * schedule (e.g. one per tenant, every hour on the hour) don't all
+     * ring at once.  Each entry rings a fixed offset into the window,
+     * derived from its name: the same on every run and every member of a
+     * cluster, so each alarm keeps a steady cadence.  Fixed dates and
+     * relative alarms are not moved.  Like <code>setZone()</code>, call
+     * this before adding the entry to an AlarmManager.<p>
+     *
+     * The entry needs a name of its own: a generated one depends on the
+     * order entries were created in, so its offset would not be steady.
+     *
+     * @param millis the width of the window, in milliseconds, or 0 to ring
+     * right on the schedule (the default).  It should be shorter than the
+     * time between two matches of the schedule.
+     * @exception IllegalStateException if the entry was created without a
+     * name.
+     * @see #getSpreadOffset()
      */
-    static int getOffsetToNext( int current, int min, int max, int[] values )
-    {
-        int offset = 0;
+    public void setSpread(long _millis) {
+        if (_millis < 0)
+            throw new IllegalArgumentException("negative spread: " + _millis);
+        if (_millis > 0 && isNameGenerated)
+            throw new IllegalStateException("spread needs a name of its own, not " + name);
         
-        // find the distance to the closest valid value > current (wrapping if neccessary)
-        
-        // {-1} means *  -- offset is 1 because current++ is valid value
-        if (values[0] == -1 )
-        {
-            offset = 1;
-        }
-        else
-        {
-            // need to wrap
-            if( current >= last(values) )
-            {
-                int next = values[0];
-                offset = (max-current+1) + (next-min);
-            }
-            else // current < max(values) -- find next valid value after current
-            {
-                findvalue:
-                for( int i=0; i<values.length; i++ )
-                {
-                    if( current < values[i] )
-                    {
-                        offset = values[i] - current;
-                        break findvalue;
-                    }
-                }
-            } // end current < max(values)
-        }
+        spreadMillis = _millis;
+        if (!isFixedDate && !isRelative)
+            updateAlarmTime();
+    }
+    public long getSpread() {
+        return spreadMillis;
+    }
+    
+    /**
+     * @return how long after each match of its schedule this entry rings:
+     * a hash of its name, modulo the spread.
+     */
+    public long getSpreadOffset() {
+        if (spreadMillis == 0)
+            return 0;
         
-        return offset;
+        // mixed (as in MurmurHash3), so that names differing only at the
+        // end spread out too
+        long hash = name.hashCode();
+        hash = (hash ^ (hash >>> 33)) * 0xFF51AFD7ED558CCDL;
+        hash = (hash ^ (hash >>> 33)) * 0xC4CEB9FE1A85EC53L;
+        return Math.floorMod(hash ^ (hash >>> 33), spreadMillis);
     }
     
     /**
-     * if values = {-1} or current is valid
-     *   offset is 0.
-     * if current < last(values)
-     *   offset is diff to next valid value
-     * if current >= last(values)
-     *   offset is diff to values[0], wrapping from max to min
+     * By default, the AlarmListeners for all alarms will be notified
+     * in the same thread (so a long-running handleAlarm() implementation
+     * will cause other alarms to wait until it completes).  Call this method
+     * to notify the listener to this alarm in another thread (taken from
+     * the AlarmManager's ring executor), so other alarms won't be delayed.
+     * Same as <code>setRingMode(RING_POOLED)</code>.
      */
-    static int getOffsetToNextOrEqual( int current, int min, int max, int[] values )
+    public void setRingInNewThead()
     {
-        int offset = 0;
-        int[] safeValues = null;
-        
-        // find the distance to the closest valid value >= current (wrapping if necessary)
+        ringMode = RING_POOLED;
+    }
+    public boolean isRingInNewThread()
+    {
+        return ringMode != RING_INLINE;
+    }
+    
+    /**
+     * Chooses how the listener to this alarm is notified: 
+     * <code>RING_INLINE</code> in the waiter thread, <code>RING_POOLED</code>
+     * on the AlarmManager's ring executor, <code>RING_DEDICATED</code>
+     * in a new Thread for each ring, or <code>RING_VIRTUAL</code> in a new
+     * virtual thread for each ring.
+     *
+     * @see AlarmManager#setRingExecutor(java.util.concurrent.Executor)
+     */
+    public void setRingMode(int _ringMode)
+    {
+        if (_ringMode < RING_INLINE || _ringMode > RING_VIRTUAL)
+            throw new IllegalArgumentException("unknown ring mode: " + _ringMode);
+        ringMode = _ringMode;
+    }
+    public int getRingMode()
+    {
+        return ringMode;
+    }
+    
+    /**
+     * Chooses what happens when alarm times of this entry were missed, e.g.
+     * while the application was down and its AlarmStore held the entry, or
+     * while the manager was held up for longer than its misfire threshold:
+     * <code>MISFIRE_FIRE_ONCE</code>, <code>MISFIRE_FIRE_ALL</code> or
+     * <code>MISFIRE_SKIP</code>.
+     *
+     * @see AlarmManager#setStore(AlarmStore)
+     * @see AlarmManager#setMisfireThreshold(long)
+     */
+    public void setMisfirePolicy(int _misfirePolicy)
+    {
+        if (_misfirePolicy < MISFIRE_FIRE_ONCE || _misfirePolicy > MISFIRE_SKIP)
+            throw new IllegalArgumentException("unknown misfire policy: " + _misfirePolicy);
+        misfirePolicy = _misfirePolicy;
+    }
+    public int getMisfirePolicy()
+    {
+        return misfirePolicy;
+    }
+    
+    /**
+     * @return the number of times this entry was due later than its
+     * manager's misfire threshold, since it was created or loaded.
+     * @see AlarmManager#setMisfireThreshold(long)
+     */
+    public long getMisfireCount()
+    {
+        return misfires;
+    }
+    
+    void misfired() {
+        misfires++; // only by the manager, holding its monitor
+    }
+    
+    /**
+     * Chooses what happens when an alarm time comes up while the listener
+     * is still running from a previous one: <code>OVERLAP_CONCURRENT</code>,
+     * <code>OVERLAP_SKIP</code>, <code>OVERLAP_COALESCE</code> or
+     * <code>OVERLAP_QUEUE</code> (with up to
+     * <code>DEFAULT_MAX_QUEUED_RINGS</code> rings waiting).  Alarms of a
+     * BatchAlarmListener follow it too: only those admitted join the
+     * batch, and rings queued meanwhile make another batch after it.
+     */
+    public void setOverlapPolicy(int _overlapPolicy)
+    {
+        setOverlapPolicy(_overlapPolicy, DEFAULT_MAX_QUEUED_RINGS);
+    }
+    
+    /**
+     * Chooses what happens when an alarm time comes up while the listener
+     * is still running from a previous one.
+     *
+     * @param overlapPolicy the policy.
+     * @param maxQueuedRings with <code>OVERLAP_QUEUE</code>, the number of
+     * rings that may wait for the one running.
+     */
+    public void setOverlapPolicy(int _overlapPolicy, int _maxQueuedRings)
+    {
+        if (_overlapPolicy < OVERLAP_CONCURRENT || _overlapPolicy > OVERLAP_QUEUE)
+            throw new IllegalArgumentException("unknown overlap policy: " + _overlapPolicy);
+        if (_overlapPolicy == OVERLAP_QUEUE && _maxQueuedRings < 1)
+            throw new IllegalArgumentException("at least one queued ring needed: " + _maxQueuedRings);
         
-        // {-1} means *  -- offset is 0 if current is valid value
-        if (values[0] == -1 || isIn(current, values) )
-        {
-            offset = 0;
+        overlapPolicy = _overlapPolicy;
+        switch (_overlapPolicy) {
+        case OVERLAP_COALESCE:
+            maxQueuedRings = 1;
+            break;
+        case OVERLAP_QUEUE:
+            maxQueuedRings = _maxQueuedRings;
+            break;
+        default:
+            maxQueuedRings = 0;
         }
-        else
-        {
-            safeValues = discardValuesOverMax( values, max );
-            
-            // need to wrap
-            if( current > last(safeValues) )
-            {
-                int next = safeValues[0];
-                offset = (max-current+1) + (next-min);
-            }
-            else // current <= max(values) -- find next valid value
-            {
-                findvalue:
-                for( int i=0; i<values.length; i++ )
-                {
-                    if( current < safeValues[i] )
-                    {
-                        offset = safeValues[i] - current;
-                        break findvalue;
-                    }
-                }
-            } // end current <= max(values)
-        }
-        
-        return offset;
+    }
+    public int getOverlapPolicy()
+    {
+        return overlapPolicy;
+    }
+    public int getMaxQueuedRings()
+    {
+        return maxQueuedRings;
     }
     
     /**
-     * handles -1 in values as * and returns true
-     * otherwise returns true iff given value is in the array
+     * Chooses when the next alarm time of a repeating alarm is counted
+     * from: <code>REPEAT_FROM_RING</code>, <code>REPEAT_FIXED_DELAY</code>
+     * or <code>REPEAT_FIXED_RATE</code>.  With a fixed delay, the entry is
+     * off the manager's queue while its listener runs
+     * (<code>containsAlarm()</code> still finds it).
      */
-    static boolean isIn( int find, int[] values )
+    public void setRepeatMode(int _repeatMode)
     {
-        if( values[0] == -1 )
-        {
-            return true;
+        if (_repeatMode < REPEAT_FROM_RING || _repeatMode > REPEAT_FIXED_RATE)
+            throw new IllegalArgumentException("unknown repeat mode: " + _repeatMode);
+        repeatMode = _repeatMode;
+    }
+    public int getRepeatMode()
+    {
+        return repeatMode;
+    }
+    
+    /**
+     * Sets how long the stage returned by an AsyncAlarmListener may take
+     * to complete.  When it's late, it's cancelled, the ring ends as
+     * failed with a TimeoutException, and a completion coming later is
+     * ignored.  Listeners which are not asynchronous are never timed out.
+     *
+     * @param millis the timeout, in milliseconds, or 0 for none (the
+     * default).
+     */
+    public void setListenerTimeout(long _millis)
+    {
+        if (_millis < 0)
+            throw new IllegalArgumentException("negative timeout: " + _millis);
+        listenerTimeout = _millis;
+    }
+    public long getListenerTimeout()
+    {
+        return listenerTimeout;
+    }
+    
+    
+    /**
+     * Checks that alarm is not in the past.
+     *
+     * @exception PastDateException if the alarm date is in the past.
+     */
+    void checkAlarmTime() throws PastDateException {
+        long delay = alarmTime - getClock().currentTimeMillis();
+        
+        if (delay < 0) {
+            throw new PastDateException();
         }
-        else
-        {
-            for( int i=0; i<values.length; i++ )
-            {
-                if( find == values[i] )
-                    return true;
-            }
-            return false;
+    }
+    
+    
+    /**
+     * @return the listener to this alarm.
+     */
+    public AlarmListener getListener() {
+        return listener;
+    }
+    
+    /**
+     * Rebinds the listener of an entry read back from an AlarmStore.
+     */
+    void setListener(AlarmListener _listener) {
+        listener = _listener;
+    }
+    
+    /**
+     * @return the alarm time this alarm was last rung for, or -1 if it
+     * hasn't rung yet.  While a repeating alarm rings, <code>alarmTime</code>
+     * is already its next alarm time.
+     */
+    public long getLastAlarmTime() {
+        return lastAlarmTime;
+    }
+    
+    /**
+     * Returns the fencing token this alarm is rung under, when its manager
+     * is part of an AlarmCluster.  A listener acting on shared resources
+     * can pass it along, so they can refuse anything done under an older
+     * token, i.e. by a member which has lost the alarm's partition since.
+     *
+     * @return the token, or -1 outside cluster mode.
+     */
+    public long getFencingToken() {
+        return fencingToken;
+    }
+    
+    void setFencingToken(long _token) {
+        fencingToken = _token;
+    }
+    
+    /**
+     * Decides, according to the overlap policy, whether a ring of this
+     * entry starts now, waits for the one under way, or is skipped.  A ring
+     * started or waiting is counted until <code>endRinging()</code>.
+     *
+     * @return <code>ADMIT_RUN</code>, <code>ADMIT_RUN_OVERLAPPING</code>
+     * (a previous ring is under way), <code>ADMIT_QUEUED</code> (the ring
+     * under way will run it) or <code>ADMIT_REFUSED</code>.
+     */
+    int admitRing() {
+        if (overlapPolicy == OVERLAP_CONCURRENT)
+            return (RINGING.getAndIncrement(this) > 0) ? ADMIT_RUN_OVERLAPPING : ADMIT_RUN;
+        
+        int limit = 1 + maxQueuedRings;
+        while (true) {
+            int count = ringing;
+            if (count >= limit)
+                return ADMIT_REFUSED;
+            if (RINGING.compareAndSet(this, count, count + 1))
+                return (count == 0) ? ADMIT_RUN : ADMIT_QUEUED;
         }
     }
     
     /**
-     * @return the last int in the array
+     * Ends a ring of this entry.
+     *
+     * @return <code>true</code> if a ring queued meanwhile must run now, in
+     * the same thread.
      */
-    static int last( int[] intArray )
-    {
-        return intArray[ intArray.length - 1 ];
+    boolean endRinging() {
+        int left = RINGING.decrementAndGet(this);
+        return left > 0 && overlapPolicy != OVERLAP_CONCURRENT;
     }
     
     /**
-     * Assumes inputted values are not null, have at least one value, and are in
-     * ascending order.
-     * @return  copy of values without any trailing values that exceed the max
+     * Notifies the listener.
      */
-    static int[] discardValuesOverMax( int[] values, int max )
+    public void ringAlarm()
     {
-        int[] safeValues = null;
-        for( int i=0; i<values.length; i++ )
-        {
-            if( values[i] > max )
-            {
-                safeValues = new int[i];
-                System.arraycopy( values, 0, safeValues, 0, i );
-                return safeValues;
-            }
+        if (listener != null) // e.g. an alarm only rung to AlarmPublishers
+            listener.handleAlarm(this);
+    }
+    
+    /**
+     * Updates this alarm entry to the next valid alarm time, AFTER the current time.
+     */
+    public void updateAlarmTime() {
+        updateAlarmTime(getClock().currentTimeMillis());
+    }
+    
+    /**
+     * Updates this alarm entry to the next valid alarm time after the given
+     * time, which may be in the past: that's how <code>MISFIRE_FIRE_ALL</code>
+     * entries catch up.
+     */
+    void updateAlarmTime(long _after) {
+        if (isFixedDate)
+            return; // once only
+        if (isRelative) {
+            alarmTime = (repeatMode == REPEAT_FIXED_RATE)
+                ? nextFixedRateTime(_after) : _after + periodMillis;
+            return;
         }
-        return values;
+        
+        long offset = getSpreadOffset();
+        alarmTime = schedule.nextAlarmTime(_after - offset, zone) + offset;
+        lastUpdateTime = getClock().currentTimeMillis();
+    }
+    
+    /**
+     * @return the first of the alarm times <code>firstAlarmTime + k *
+     * period</code> after the given time, rounded down to the millisecond.
+     */
+    private long nextFixedRateTime(long _after) {
+        long elapsed = _after - firstAlarmTime;
+        if (elapsed < 0)
+            return firstAlarmTime;
+        
+        // the least k with floor(k * period) > elapsed, all in nanoseconds
+        long periods = ((elapsed + 1) * NANOS_PER_MILLI + periodNanos - 1) / periodNanos;
+        return firstAlarmTime + periods * periodNanos / NANOS_PER_MILLI;
+    }
+    
+    // ----------------------------------------------------------------------
+    //                      Storage, for AlarmStore implementations
+    // ----------------------------------------------------------------------
+    
+    private static final int STORAGE_VERSION = 7;
+    
+    /**
+     * For readFrom() only.
+     */
+    private AlarmEntry() {
+    }
+    
+    /**
+     * Writes this entry, without its listener, in a compact binary form.
+     */
+    void writeTo(DataOutput _out) throws IOException {
+        _out.writeByte(STORAGE_VERSION);
+        _out.writeUTF(name);
+        _out.writeBoolean(isRelative);
+        _out.writeBoolean(isFixedDate);
+        _out.writeBoolean(isRepeating);
+        _out.writeLong(periodMillis);
+        _out.writeUTF((schedule != null) ? schedule.toString() : "");
+        _out.writeInt(year);
+        _out.writeUTF(zone.getId());
+        _out.writeByte(ringMode);
+        _out.writeByte(misfirePolicy);
+        _out.writeLong(alarmTime);
+        _out.writeLong(lastAlarmTime);
+        _out.writeLong(lastUpdateTime);
+        _out.writeShort(tags.length);
+        for (int i = 0; i < tags.length; i++)
+            _out.writeUTF(tags[i]);
+        _out.writeByte(overlapPolicy);
+        _out.writeInt(maxQueuedRings);
+        _out.writeByte(repeatMode);
+        _out.writeLong(listenerTimeout);
+        _out.writeLong(periodNanos);
+        _out.writeLong(firstAlarmTime);
+        _out.writeLong(spreadMillis);
+    }
+    
+    /**
+     * Reads an entry written by <code>writeTo()</code>.  It has no listener
+     * yet.
+     *
+     * @param clock the clock of the manager the entry is read for.
+     */
+    static AlarmEntry readFrom(DataInput _in, AlarmClock _clock) throws IOException {
+        int version = _in.readByte();
+        if (version < 2 || version > STORAGE_VERSION)
+            throw new IOException("unknown alarm entry version: " + version);
+        
+        AlarmEntry entry = new AlarmEntry();
+        entry.setName(_in.readUTF());
+        entry.setClock(_clock);
+        entry.isRelative = _in.readBoolean();
+        entry.isFixedDate = _in.readBoolean();
+        entry.isRepeating = _in.readBoolean();
+        entry.periodMillis = _in.readLong();
+        String expression = _in.readUTF();
+        if (expression.length() > 0)
+            entry.schedule = CronSchedule.parse(expression);
+        entry.year = _in.readInt();
+        entry.zone = ZoneId.of(_in.readUTF());
+        entry.ringMode = _in.readByte();
+        entry.misfirePolicy = _in.readByte();
+        entry.alarmTime = _in.readLong();
+        entry.lastAlarmTime = _in.readLong();
+        entry.lastUpdateTime = _in.readLong();
+        if (version >= 3) {
+            int count = _in.readShort();
+            for (int i = 0; i < count; i++)
+                entry.addTag(_in.readUTF());
+        }
+        if (version >= 4) {
+            entry.overlapPolicy = _in.readByte();
+            entry.maxQueuedRings = _in.readInt();
+        }
+        if (version >= 5) {
+            entry.repeatMode = _in.readByte();
+            entry.listenerTimeout = _in.readLong();
+        }
+        if (version >= 6) {
+            entry.periodNanos = _in.readLong();
+            entry.firstAlarmTime = _in.readLong();
+        }
+        else {
+            entry.periodNanos = entry.periodMillis * NANOS_PER_MILLI;
+            entry.firstAlarmTime = entry.alarmTime;
+        }
+        if (version >= 7)
+            entry.spreadMillis = _in.readLong();
+        return entry;
     }
-
+    
+    // ----------------------------------------------------------------------
+    //                      General utility methods
+    // ----------------------------------------------------------------------
     
     private static String arrToString( int[] intArray )
     {
@@ -618,6 +1236,8 @@ public class AlarmEntry implements Comparable, java.io.Serializable {
      * One twist -- if the alarmTime matches, this alarm will STILL place
      * itself before the other based on the lastUpdateTime.  If the other 
      * alarm has been rung more recently, this one should get priority.
+     * Failing that, the alarm created first comes first: two distinct
+     * alarms never compare as equal, or the queue would drop one.
      *
      * @param obj the AlarmEntry with which to compare.
      * @return a negative integer, zero, or a positive integer as this
@@ -638,6 +1258,10 @@ public class AlarmEntry implements Comparable, java.io.Serializable {
                 return -1;
             else if( lastUpdateTime > other.lastUpdateTime)
                 return 1;
+            else if( sequence < other.sequence )
+                return -1;
+            else if( sequence > other.sequence )
+                return 1;
             else
                 return 0;    
         }
@@ -666,11 +1290,8 @@ public class AlarmEntry implements Comparable, java.io.Serializable {
                 && alarmTime == entry.alarmTime
                 && isRelative == entry.isRelative
                 && isRepeating == entry.isRepeating
-                && Arrays.equals(minutes, entry.minutes)
-                && Arrays.equals(hours, entry.hours)
-                && Arrays.equals(daysOfMonth, entry.daysOfMonth)
-                && Arrays.equals(months, entry.months)
-                && Arrays.equals(daysOfWeek, entry.daysOfWeek) );
+                && periodMillis == entry.periodMillis
+                && schedule == entry.schedule ); // interned
     }
     
     
@@ -682,13 +1303,13 @@ public class AlarmEntry implements Comparable, java.io.Serializable {
         if (year != -1) {
             return "Alarm ("+name+") at " + new Date(alarmTime);
         }
-        StringBuffer sb = new StringBuffer("Alarm ("+name+") params");
-        sb.append(" minute="); sb.append( arrToString(minutes) );
-        sb.append(" hour="); sb.append( arrToString(hours) );
-        sb.append(" dayOfMonth="); sb.append( arrToString(daysOfMonth) );
-        sb.append(" month="); sb.append( arrToString(months) );
-        sb.append(" dayOfWeek="); sb.append( arrToString(daysOfWeek) );
-        sb.append(" (next alarm date=" + new Date(alarmTime) + ")");
+        if (isRelative) {
+            return "Alarm ("+name+") " + (isRepeating ? "every " : "in ") + periodMillis
+                + " ms (next alarm date=" + new Date(alarmTime) + ")";
+        }
+        StringBuffer sb = new StringBuffer("Alarm ("+name+") cron \"");
+        sb.append(schedule);
+        sb.append("\" (next alarm date=" + new Date(alarmTime) + ")");
         return sb.toString();
     }
     
@@ -700,46 +1321,608 @@ public class AlarmEntry implements Comparable, java.io.Serializable {
         
         System.out.println( "GETTING OFFSETS" );
         
-        System.out.println( "getOffsetToNext(3, 0, 11, new int[]{3,5,7,9}) = " +
-                getOffsetToNext(3, 0, 11, new int[]{3,5,7,9}) );
-        System.out.println( "getOffsetToNextOrEqual(3, 0, 11, new int[]{3,5,7,9}) = " +
-                getOffsetToNextOrEqual(3, 0, 11, new int[]{3,5,7,9}) );
+        System.out.println( "offsetToNext(3, 0, 11, {3,5,7,9}) = " +
+                CronSchedule.offsetToNext(mask(new int[]{3,5,7,9}), 3, 0, 11) );
+        System.out.println( "offsetToNextOrEqual(3, 0, 11, {3,5,7,9}) = " +
+                CronSchedule.offsetToNextOrEqual(mask(new int[]{3,5,7,9}), 3, 0, 11) );
+        
+        System.out.println();
+        System.out.println( "offsetToNext(9, 0, 11, {3,5,7,9}) = " +
+                CronSchedule.offsetToNext(mask(new int[]{3,5,7,9}), 9, 0, 11) );
+        System.out.println( "offsetToNextOrEqual(9, 0, 11, {3,5,7,9}) = " +
+                CronSchedule.offsetToNextOrEqual(mask(new int[]{3,5,7,9}), 9, 0, 11) );
+        
+        System.out.println();
+        System.out.println( "offsetToNext(0, 0, 11, {0}) = " +
+                CronSchedule.offsetToNext(mask(new int[]{0}), 0, 0, 11) );
+        System.out.println( "offsetToNextOrEqual(0, 0, 11, {0}) = " +
+                CronSchedule.offsetToNextOrEqual(mask(new int[]{0}), 0, 0, 11) );
         
         System.out.println();
-        System.out.println( "getOffsetToNext(9, 0, 11, new int[]{3,5,7,9}) = " +
-                getOffsetToNext(9, 0, 11, new int[]{3,5,7,9}) );
-        System.out.println( "getOffsetToNextOrEqual(9, 0, 11, new int[]{3,5,7,9}) = " +
-                getOffsetToNextOrEqual(9, 0, 11, new int[]{3,5,7,9}) );
+        System.out.println( "offsetToNext(5, 0, 11, {5}) = " +
+                CronSchedule.offsetToNext(mask(new int[]{5}), 5, 0, 11) );
+        System.out.println( "offsetToNextOrEqual(5, 0, 11, {5}) = " +
+                CronSchedule.offsetToNextOrEqual(mask(new int[]{5}), 5, 0, 11) );
         
         System.out.println();
-        System.out.println( "getOffsetToNext(0, 0, 11, new int[]{0}) = " +
-                getOffsetToNext(0, 0, 11, new int[]{0}) );
-        System.out.println( "getOffsetToNextOrEqual(0, 0, 11, new int[]{0}) = " +
-                getOffsetToNextOrEqual(0, 0, 11, new int[]{0}) );
+        System.out.println( "COMPILED SCHEDULES VS CALENDAR" );
+        compareWithCalendar( "UTC", 100000, new Random(8) );
+        compareWithCalendar( "Asia/Kolkata", 100000, new Random(9) );
+        compareWithCalendar( "Asia/Tokyo", 100000, new Random(10) );
         
         System.out.println();
-        System.out.println( "getOffsetToNext(5, 0, 11, new int[]{5}) = " +
-                getOffsetToNext(5, 0, 11, new int[]{5}) );
-        System.out.println( "getOffsetToNextOrEqual(5, 0, 11, new int[]{5}) = " +
-                getOffsetToNextOrEqual(5, 0, 11, new int[]{5}) );
+        System.out.println( "COMPILED SCHEDULES VS BRUTE FORCE" );
+        compareWithBruteForce( ZoneOffset.UTC, 20000, new Random(0) );
+        compareWithBruteForce( ZoneOffset.ofHoursMinutes(5, 30), 20000, new Random(1) );
+        compareWithBruteForce( ZoneOffset.ofHours(-8), 20000, new Random(2) );
         
         System.out.println();
-        System.out.println( "getOffsetToNext(0, 0, 11, new int[]{-1}) = " +
-                getOffsetToNext(0, 0, 11, new int[]{-1}) );
-        System.out.println( "getOffsetToNextOrEqual(0, 0, 11, new int[]{-1}) = " +
-                getOffsetToNextOrEqual(0, 0, 11, new int[]{-1}) );
+        System.out.println( "PARSED EXPRESSIONS VS BRUTE FORCE" );
+        compareParsedWithBruteForce( ZoneOffset.UTC, 20000, new Random(3) );
+        compareParsedWithBruteForce( ZoneOffset.ofHours(9), 20000, new Random(4) );
         
         System.out.println();
+        System.out.println( "DAYLIGHT SAVING TIME VS BRUTE FORCE" );
+        compareAcrossTransitions( ZoneId.of( "America/New_York" ), 2000, new Random(5) );
+        compareAcrossTransitions( ZoneId.of( "Europe/Paris" ), 2000, new Random(6) );
+        compareAcrossTransitions( ZoneId.of( "Australia/Lord_Howe" ), 2000, new Random(7) );
         
         System.out.println();
-        System.out.println( "discardValuesOverMax(new int[]{0,1,2,3,4,5,6}, 4)) = " + 
-                arrToString(discardValuesOverMax(new int[]{0,1,2,3,4,5,6}, 4)) );
-        System.out.println( "discardValuesOverMax(new int[]{0,1,2,3,4,5,6}, 6)) = " + 
-                arrToString(discardValuesOverMax(new int[]{0,1,2,3,4,5,6}, 6)) );
-        System.out.println( "discardValuesOverMax(new int[]{0,1,2,3,4,5,6}, 0)) = " + 
-                arrToString(discardValuesOverMax(new int[]{0,1,2,3,4,5,6}, 0)) );
-        System.out.println( "discardValuesOverMax(new int[]{0,1,2,3,4,5,6}, 7)) = " + 
-                arrToString(discardValuesOverMax(new int[]{0,1,2,3,4,5,6}, 7)) );
+        System.out.println( "DAYLIGHT SAVING TIME, America/New_York" );
+        ZoneId newYork = ZoneId.of( "America/New_York" );
+        showNext( newYork, "2024-03-10T01:45-05:00", new int[]{30}, new int[]{2} );
+        showNext( newYork, "2024-03-10T01:45-05:00", new int[]{0,30}, new int[]{-1} );
+        showNext( newYork, "2024-11-03T01:20-04:00", new int[]{30}, new int[]{1} );
+        showNext( newYork, "2024-11-03T01:30-04:00", new int[]{30}, new int[]{1} );
+        showNext( newYork, "2024-11-03T01:20-04:00", new int[]{0,30}, new int[]{-1} );
+        showNext( newYork, "2024-11-03T01:30-04:00", new int[]{0,30}, new int[]{-1} );
+        showNext( newYork, "2024-11-03T01:30-05:00", new int[]{0,30}, new int[]{-1} );
+    }
+    
+    private static long mask( int[] values )
+    {
+        long mask = 0;
+        for( int i=0; i<values.length; i++ )
+            mask |= 1L << values[i];
+        return mask;
+    }
+    
+    private static void showNext( ZoneId zone, String now, int[] minutes, int[] hours )
+    {
+        long time = ZonedDateTime.parse( now ).toInstant().toEpochMilli();
+        CronSchedule schedule = CronSchedule.of( new int[]{0}, minutes, hours, new int[]{-1},
+                new int[]{-1}, new int[]{-1} );
+        System.out.println( arrToString(minutes) + " " + arrToString(hours) + " after " + now
+                + " = " + Instant.ofEpochMilli(schedule.nextAlarmTime(time, zone)).atZone(zone) );
+    }
+    
+    /**
+     * Differential check against the original Calendar cascade, kept in
+     * CalendarCron: random 5-field schedules from random whole seconds, in
+     * zones without daylight saving time.  The schedules are of the shapes
+     * the cascade got right -- one minute when the hours are restricted,
+     * one hour when the days are, and no months without days -- since it
+     * doesn't start the fields below a moved field over, and only checks
+     * the month along with a day field.
+     */
+    static void compareWithCalendar( String zoneId, int runs, Random random )
+    {
+        ZoneId zone = ZoneId.of( zoneId );
+        java.util.Calendar now = java.util.Calendar.getInstance( java.util.TimeZone.getTimeZone(zoneId) );
+        int checked = 0, skipped = 0, mismatches = 0;
+        
+        for( int run=0; run<runs; run++ )
+        {
+            int[] minutes = randomValues( random, 0, 59 );
+            int[] hours = { -1 };
+            int[] daysOfMonth = { -1 };
+            int[] months = { -1 };
+            int[] daysOfWeek = { -1 };
+            if( random.nextInt(3) != 0 )
+            {
+                minutes = new int[]{ random.nextInt(60) };
+                hours = randomValues( random, 0, 23 );
+                if( random.nextInt(2) == 0 )
+                {
+                    hours = new int[]{ random.nextInt(24) };
+                    daysOfMonth = randomValues( random, 1, 31 );
+                    months = randomValues( random, 0, 11 );
+                    daysOfWeek = randomValues( random, 1, 7 );
+                    if( daysOfMonth[0] == -1 && daysOfWeek[0] == -1 )
+                        months = new int[]{ -1 };
+                }
+            }
+            long time = 946684800000L + (long)(random.nextDouble() * 1000L * 86400L) * 1000;
+            
+            CronSchedule schedule;
+            try {
+                schedule = CronSchedule.of( new int[]{0}, minutes, hours, daysOfMonth, months, daysOfWeek );
+            }
+            catch( IllegalArgumentException e ) {
+                // impossible schedule, on which the cascade never returns
+                skipped++;
+                continue;
+            }
+            
+            long expected;
+            try {
+                now.setTimeInMillis( time );
+                expected = CalendarCron.nextAlarmTime( now, minutes, hours, daysOfMonth, months, daysOfWeek );
+            }
+            catch( ArrayIndexOutOfBoundsException e ) {
+                // the cascade fails on days of month all past the month's end
+                skipped++;
+                continue;
+            }
+            
+            checked++;
+            long actual = schedule.nextAlarmTime( time, zone );
+            if( actual != expected )
+            {
+                if( mismatches++ < 5 )
+                    System.out.println( "  MISMATCH at " + time + ": expected " + expected
+                            + ", got " + actual + " for " + arrToString(minutes) + " "
+                            + arrToString(hours) + " " + arrToString(daysOfMonth) + " "
+                            + arrToString(months) + " " + arrToString(daysOfWeek) );
+            }
+        }
+        System.out.println( zoneId + ": " + checked + " checked, " + skipped
+                + " skipped, " + mismatches + " mismatches" );
+    }
+    
+    /**
+     * Differential check: computes next alarm times for random schedules and
+     * random instants with CronSchedule, and by trying every second of every
+     * day in turn, and reports any difference.
+     */
+    static void compareWithBruteForce( ZoneOffset offset, int runs, Random random )
+    {
+        int checked = 0, skipped = 0, mismatches = 0;
+        
+        for( int run=0; run<runs; run++ )
+        {
+            int[] seconds = (random.nextInt(4) == 0) ? randomValues( random, 0, 59 ) : new int[]{0};
+            int[] minutes = randomValues( random, 0, 59 );
+            int[] hours = randomValues( random, 0, 23 );
+            int[] daysOfMonth = randomValues( random, 1, 31 );
+            int[] months = randomValues( random, 0, 11 );
+            int[] daysOfWeek = randomValues( random, 1, 7 );
+            long time = 946684800000L + (long)(random.nextDouble() * 1000L * 86400000L);
+            
+            CronSchedule schedule;
+            try {
+                schedule = CronSchedule.of( seconds, minutes, hours, daysOfMonth, months, daysOfWeek );
+            }
+            catch( IllegalArgumentException e ) {
+                // impossible schedule
+                skipped++;
+                continue;
+            }
+            
+            checked++;
+            long expected = bruteForceNext( time, offset, seconds, minutes, hours,
+                    daysOfMonth, months, daysOfWeek );
+            long actual = schedule.nextAlarmTime( time, offset );
+            if( actual != expected )
+            {
+                if( mismatches++ < 5 )
+                    System.out.println( "  MISMATCH at " + time + ": expected " + expected
+                            + ", got " + actual + " for " + arrToString(seconds) + " "
+                            + arrToString(minutes) + " " + arrToString(hours) + " "
+                            + arrToString(daysOfMonth) + " " + arrToString(months) + " "
+                            + arrToString(daysOfWeek) );
+            }
+        }
+        System.out.println( offset.getId() + ": " + checked + " checked, " + skipped
+                + " skipped, " + mismatches + " mismatches" );
+    }
+    
+    /**
+     * Differential check in a zone with daylight saving time: random
+     * schedules from random instants near its transitions, against a brute
+     * force trying every wall-clock second and resolving it as documented
+     * in CronSchedule.nextAlarmTime(): a time in a gap rings shifted by the
+     * gap, a repeated time rings at its first pass -- or at both when the
+     * hours are not restricted.
+     */
+    static void compareAcrossTransitions( ZoneId zone, int runs, Random random )
+    {
+        java.time.zone.ZoneRules rules = zone.getRules();
+        int checked = 0, skipped = 0, mismatches = 0;
+        
+        for( int run=0; run<runs; run++ )
+        {
+            int[] seconds = (random.nextInt(4) == 0) ? randomValues( random, 0, 59 ) : new int[]{0};
+            int[] minutes = randomValues( random, 0, 59 );
+            int[] hours = (random.nextInt(3) == 0) ? new int[]{ 0, 1, 2, 3 } : randomValues( random, 0, 23 );
+            int[] daysOfMonth = (random.nextInt(2) == 0) ? new int[]{ -1 } : randomValues( random, 1, 31 );
+            int[] months = (random.nextInt(2) == 0) ? new int[]{ -1 } : randomValues( random, 0, 11 );
+            int[] daysOfWeek = (random.nextInt(2) == 0) ? new int[]{ -1 } : randomValues( random, 1, 7 );
+            
+            // a few hours either side of a transition, 2000-2035
+            Instant from = Instant.ofEpochMilli( 946684800000L + (long)(random.nextDouble() * 35 * 365 * 86400000L) );
+            java.time.zone.ZoneOffsetTransition transition = rules.nextTransition( from );
+            if( transition == null )
+            {
+                // daylight saving time was abolished there
+                skipped++;
+                continue;
+            }
+            long time = transition.toEpochSecond() * 1000
+                + (long)((random.nextDouble() - 0.5) * 6 * 3600000L) + random.nextInt( 1000 );
+            
+            CronSchedule schedule;
+            try {
+                schedule = CronSchedule.of( seconds, minutes, hours, daysOfMonth, months, daysOfWeek );
+            }
+            catch( IllegalArgumentException e ) {
+                // impossible schedule
+                skipped++;
+                continue;
+            }
+            
+            long expected = bruteForceNext( time, rules, seconds, minutes, hours,
+                    daysOfMonth, months, daysOfWeek );
+            if( expected < 0 )
+            {
+                // too rare to find by trying every second
+                skipped++;
+                continue;
+            }
+            checked++;
+            long actual = schedule.nextAlarmTime( time, zone );
+            if( actual != expected )
+            {
+                if( mismatches++ < 5 )
+                    System.out.println( "  MISMATCH at " + Instant.ofEpochMilli(time).atZone(zone)
+                            + ": expected " + Instant.ofEpochMilli(expected).atZone(zone)
+                            + ", got " + Instant.ofEpochMilli(actual).atZone(zone) + " for "
+                            + arrToString(seconds) + " " + arrToString(minutes) + " "
+                            + arrToString(hours) + " " + arrToString(daysOfMonth) + " "
+                            + arrToString(months) + " " + arrToString(daysOfWeek) );
+            }
+        }
+        System.out.println( zone.getId() + ": " + checked + " checked, " + skipped
+                + " skipped, " + mismatches + " mismatches" );
+    }
+    
+    private static long bruteForceNext( long time, java.time.zone.ZoneRules rules, int[] seconds,
+            int[] minutes, int[] hours, int[] daysOfMonth, int[] months, int[] daysOfWeek )
+    {
+        // a repeated hour may ring at a wall-clock time before the current one
+        java.time.LocalDateTime local = java.time.LocalDateTime.ofInstant(
+                Instant.ofEpochSecond( Math.floorDiv(time, 1000L) - 2 * 3600 ), ZoneOffset.UTC )
+                .plusSeconds( rules.getOffset( Instant.ofEpochMilli(time) ).getTotalSeconds() );
+        java.time.LocalDateTime end = local.plusDays( 2 * 366 );
+        boolean hoursRestricted = hours[0] != -1;
+        long best = -1;
+        
+        for( ; local.isBefore(end); local = local.plusSeconds(1) )
+        {
+            if( best >= 0 && local.toEpochSecond( ZoneOffset.UTC ) * 1000
+                    > best + rules.getOffset( Instant.ofEpochMilli(best) ).getTotalSeconds() * 1000L
+                    + 2 * 3600000L )
+                break; // wall-clock times this late can't resolve to a sooner instant
+            if( !allowsDay( local.toLocalDate(), daysOfMonth, months, daysOfWeek ) )
+            {
+                local = local.toLocalDate().plusDays(1).atStartOfDay().minusSeconds(1);
+                continue;
+            }
+            if( !allows( hours, local.getHour() ) )
+            {
+                local = local.withMinute(0).withSecond(0).plusHours(1).minusSeconds(1);
+                continue;
+            }
+            if( !allows( minutes, local.getMinute() ) )
+            {
+                local = local.withSecond(0).plusMinutes(1).minusSeconds(1);
+                continue;
+            }
+            if( !allows( seconds, local.getSecond() ) )
+                continue;
+            
+            java.time.zone.ZoneOffsetTransition transition = rules.getTransition( local );
+            long[] instants;
+            if( transition == null )
+                instants = new long[]{ local.toEpochSecond( rules.getOffset(local) ) * 1000 };
+            else if( transition.isGap() )
+                instants = new long[]{ local.toEpochSecond( transition.getOffsetBefore() ) * 1000 };
+            else if( hoursRestricted )
+                instants = new long[]{ local.toEpochSecond( transition.getOffsetBefore() ) * 1000 };
+            else
+                instants = new long[]{ local.toEpochSecond( transition.getOffsetBefore() ) * 1000,
+                        local.toEpochSecond( transition.getOffsetAfter() ) * 1000 };
+            for( int i=0; i<instants.length; i++ )
+            {
+                if( instants[i] > time && (best < 0 || instants[i] < best) )
+                    best = instants[i];
+            }
+        }
+        return best;
+    }
+    
+    private static boolean allowsDay( java.time.LocalDate date, int[] daysOfMonth, int[] months,
+            int[] daysOfWeek )
+    {
+        if( !allows( months, date.getMonthValue() - 1 ) )
+            return false;
+        boolean byDayOfMonth = allows( daysOfMonth, date.getDayOfMonth() );
+        boolean byDayOfWeek = allows( daysOfWeek, date.getDayOfWeek().getValue() % 7 + 1 );
+        if( daysOfMonth[0] != -1 && daysOfWeek[0] != -1 )
+            return byDayOfMonth || byDayOfWeek;
+        return byDayOfMonth && byDayOfWeek;
+    }
+
+    private static long bruteForceNext( long time, ZoneOffset offset, int[] seconds, int[] minutes,
+            int[] hours, int[] daysOfMonth, int[] months, int[] daysOfWeek )
+    {
+        java.time.LocalDateTime start = java.time.LocalDateTime.ofEpochSecond(
+                Math.floorDiv(time, 1000L) + 1, 0, offset );
+        java.time.LocalDate date = start.toLocalDate();
+        int from = start.toLocalTime().toSecondOfDay();
+        
+        boolean dayRestricted = daysOfMonth[0] != -1 || daysOfWeek[0] != -1;
+        for( int d=0; d<10*366; d++, date = date.plusDays(1), from = 0 )
+        {
+            if( !allows( months, date.getMonthValue() - 1 ) )
+                continue;
+            if( dayRestricted )
+            {
+                boolean byDayOfMonth = allows( daysOfMonth, date.getDayOfMonth() );
+                boolean byDayOfWeek = allows( daysOfWeek, date.getDayOfWeek().getValue() % 7 + 1 );
+                if( daysOfMonth[0] != -1 && daysOfWeek[0] != -1 ? !(byDayOfMonth || byDayOfWeek)
+                        : daysOfMonth[0] != -1 ? !byDayOfMonth : !byDayOfWeek )
+                    continue;
+            }
+            for( int t=from; t<86400; t++ )
+            {
+                if( allows( hours, t / 3600 ) && allows( minutes, t / 60 % 60 )
+                        && allows( seconds, t % 60 ) )
+                    return date.atStartOfDay().plusSeconds( t ).toEpochSecond( offset ) * 1000;
+            }
+        }
+        return -1;
+    }
+    
+    /**
+     * Differential check of the parser: random expressions with steps on
+     * *, ranges and the L, W and # day rules, against a matcher reading the
+     * same text field by field.  A day field starting with * or ? ANDs the
+     * day fields, as in Vixie cron; otherwise they are ORed.
+     */
+    static void compareParsedWithBruteForce( ZoneOffset offset, int runs, Random random )
+    {
+        int checked = 0, skipped = 0, mismatches = 0;
+        
+        for( int run=0; run<runs; run++ )
+        {
+            String[] fields = {
+                (random.nextInt(4) == 0) ? randomItem( random, 0, 59 ) : "0",
+                randomItem( random, 0, 59 ),
+                randomItem( random, 0, 23 ),
+                randomDayOfMonth( random ),
+                randomItem( random, 1, 12 ),
+                randomDayOfWeek( random ),
+            };
+            String expression = fields[0] + " " + fields[1] + " " + fields[2] + " "
+                + fields[3] + " " + fields[4] + " " + fields[5];
+            long time = 946684800000L + (long)(random.nextDouble() * 1000L * 86400000L);
+            
+            CronSchedule schedule;
+            try {
+                schedule = CronSchedule.parse( expression );
+            }
+            catch( IllegalArgumentException e ) {
+                // impossible schedule
+                skipped++;
+                continue;
+            }
+            
+            long expected = bruteForceNext( time, offset, fields );
+            if( expected < 0 )
+            {
+                // too rare to find by trying every day
+                skipped++;
+                continue;
+            }
+            checked++;
+            long actual = schedule.nextAlarmTime( time, offset );
+            if( actual != expected )
+            {
+                if( mismatches++ < 5 )
+                    System.out.println( "  MISMATCH at " + time + ": expected " + expected
+                            + ", got " + actual + " for \"" + expression + "\"" );
+            }
+        }
+        System.out.println( offset.getId() + ": " + checked + " checked, " + skipped
+                + " skipped, " + mismatches + " mismatches" );
+    }
+    
+    private static long bruteForceNext( long time, ZoneOffset offset, String[] fields )
+    {
+        java.time.LocalDateTime start = java.time.LocalDateTime.ofEpochSecond(
+                Math.floorDiv(time, 1000L) + 1, 0, offset );
+        java.time.LocalDate date = start.toLocalDate();
+        int from = start.toLocalTime().toSecondOfDay();
+        
+        boolean anded = fields[3].startsWith( "*" ) || fields[3].startsWith( "?" )
+                || fields[5].startsWith( "*" ) || fields[5].startsWith( "?" );
+        for( int d=0; d<30*366; d++, date = date.plusDays(1), from = 0 )
+        {
+            if( !matches( fields[4], 1, date.getMonthValue() ) )
+                continue;
+            boolean byDayOfMonth = matchesDayOfMonth( fields[3], date );
+            boolean byDayOfWeek = matchesDayOfWeek( fields[5], date );
+            if( anded ? !(byDayOfMonth && byDayOfWeek) : !(byDayOfMonth || byDayOfWeek) )
+                continue;
+            for( int t=from; t<86400; t++ )
+            {
+                if( matches( fields[2], 0, t / 3600 ) && matches( fields[1], 0, t / 60 % 60 )
+                        && matches( fields[0], 0, t % 60 ) )
+                    return date.atStartOfDay().plusSeconds( t ).toEpochSecond( offset ) * 1000;
+            }
+        }
+        return -1;
+    }
+    
+    private static boolean matchesDayOfMonth( String field, java.time.LocalDate date )
+    {
+        int day = date.getDayOfMonth();
+        int length = date.lengthOfMonth();
+        String[] items = field.split( "," );
+        for( int i=0; i<items.length; i++ )
+        {
+            String item = items[i];
+            if( item.equals("?") ? true
+                    : item.equals("L") ? day == length
+                    : item.startsWith("L-") ? day == length - Integer.parseInt( item.substring(2) )
+                    : item.equals("LW") ? day == nearestWeekday( date.withDayOfMonth(length) )
+                    : item.endsWith("W") ? day == nearestWeekdayOf( date, item )
+                    : matches( item, 1, day ) )
+                return true;
+        }
+        return false;
+    }
+    
+    private static int nearestWeekdayOf( java.time.LocalDate date, String item )
+    {
+        int wanted = Integer.parseInt( item.substring(0, item.length() - 1) );
+        if( wanted > date.lengthOfMonth() )
+            return -1;
+        return nearestWeekday( date.withDayOfMonth(wanted) );
+    }
+    
+    /** @return the weekday nearest a date, without leaving its month. */
+    private static int nearestWeekday( java.time.LocalDate date )
+    {
+        int day = date.getDayOfMonth();
+        switch( date.getDayOfWeek() )
+        {
+        case SATURDAY: return (day == 1) ? 3 : day - 1;
+        case SUNDAY:   return (day == date.lengthOfMonth()) ? day - 2 : day + 1;
+        default:       return day;
+        }
+    }
+    
+    private static boolean matchesDayOfWeek( String field, java.time.LocalDate date )
+    {
+        int dayOfWeek = date.getDayOfWeek().getValue() % 7; // 0 = Sunday
+        boolean lastWeek = date.getDayOfMonth() + 7 > date.lengthOfMonth();
+        int nth = (date.getDayOfMonth() - 1) / 7 + 1;
+        String[] items = field.split( "," );
+        for( int i=0; i<items.length; i++ )
+        {
+            String item = items[i];
+            int hash = item.indexOf( '#' );
+            if( item.equals("?") ? true
+                    : item.equals("L") ? dayOfWeek == 6 && lastWeek
+                    : item.endsWith("L") ? lastWeek
+                            && Integer.parseInt( item.substring(0, item.length() - 1) ) % 7 == dayOfWeek
+                    : hash >= 0 ? Integer.parseInt( item.substring(0, hash) ) % 7 == dayOfWeek
+                            && Integer.parseInt( item.substring(hash + 1) ) == nth
+                    : matches( item, 0, dayOfWeek ) || (dayOfWeek == 0 && matches( item, 0, 7 )) )
+                return true;
+        }
+        return false;
+    }
+    
+    /**
+     * @return whether a value matches a list of *, values and ranges, each
+     * with an optional step.
+     */
+    private static boolean matches( String field, int min, int value )
+    {
+        String[] items = field.split( "," );
+        for( int i=0; i<items.length; i++ )
+        {
+            String item = items[i];
+            int step = 1;
+            int slash = item.indexOf( '/' );
+            if( slash >= 0 )
+            {
+                step = Integer.parseInt( item.substring(slash + 1) );
+                item = item.substring( 0, slash );
+            }
+            int dash = item.indexOf( '-' );
+            int from = item.equals("*") ? min
+                    : Integer.parseInt( dash > 0 ? item.substring(0, dash) : item );
+            int to = (item.equals("*") || (dash < 0 && slash >= 0)) ? Integer.MAX_VALUE
+                    : (dash > 0) ? Integer.parseInt( item.substring(dash + 1) ) : from;
+            if( value >= from && value <= to && (value - from) % step == 0 )
+                return true;
+        }
+        return false;
+    }
+    
+    private static String randomItem( Random random, int min, int max )
+    {
+        int from = min + random.nextInt( max - min + 1 );
+        int to = from + random.nextInt( max - from + 1 );
+        int step = 2 + random.nextInt( 4 );
+        switch( random.nextInt(6) )
+        {
+        case 0:  return "*";
+        case 1:  return "*/" + step;
+        case 2:  return from + "-" + to;
+        case 3:  return from + "-" + to + "/" + step;
+        case 4:  return from + "/" + step;
+        default: return from + "," + to;
+        }
+    }
+    
+    private static String randomDayOfMonth( Random random )
+    {
+        switch( random.nextInt(8) )
+        {
+        case 0:  return "?";
+        case 1:  return "L";
+        case 2:  return "L-" + random.nextInt( 5 );
+        case 3:  return "LW";
+        case 4:  return (1 + random.nextInt(31)) + "W";
+        case 5:  return "L," + randomItem( random, 1, 31 );
+        default: return randomItem( random, 1, 31 );
+        }
+    }
+    
+    private static String randomDayOfWeek( Random random )
+    {
+        switch( random.nextInt(7) )
+        {
+        case 0:  return "?";
+        case 1:  return random.nextInt( 8 ) + "L";
+        case 2:  return random.nextInt( 8 ) + "#" + (1 + random.nextInt(5));
+        case 3:  return randomItem( random, 0, 7 ) + "," + random.nextInt( 8 ) + "#" + (1 + random.nextInt(4));
+        default: return randomItem( random, 0, 7 );
+        }
+    }
+
+    private static boolean allows( int[] values, int value )
+    {
+        if( values[0] == -1 )
+            return true;
+        for( int i=0; i<values.length; i++ )
+        {
+            if( values[i] == value )
+                return true;
+        }
+        return false;
+    }
+    
+    private static int[] randomValues( Random random, int min, int max )
+    {
+        if( random.nextInt(3) == 0 )
+            return new int[] { -1 };
+        
+        int count = 1 + random.nextInt( Math.min(4, max - min + 1) );
+        java.util.TreeSet values = new java.util.TreeSet();
+        while( values.size() < count )
+            values.add( Integer.valueOf(min + random.nextInt(max - min + 1)) );
+        
+        int[] result = new int[count];
+        int i = 0;
+        for( java.util.Iterator it = values.iterator(); it.hasNext(); )
+            result[i++] = ((Integer)it.next()).intValue();
+        return result;
     }
 }
 
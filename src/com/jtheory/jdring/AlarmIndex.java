@@ -0,0 +1,173 @@
+/*
+ *  com/jtheory/jdring/AlarmIndex.java
+ *  Copyright (C) 1999 - 2004 jtheory creations, Olivier Dedieu et al.
+ *
+ *  This library is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU Library General Public License as published
+ *  by the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Library General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Library General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+
+package com.jtheory.jdring;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Finds the queued alarms of an AlarmManager by name, name prefix or tag,
+ * without going through the queue.  Entries sharing a name are chained
+ * through <code>AlarmEntry.nameNext</code>, so the common case of unique
+ * names costs one map entry per alarm.  The sorted set of names used for
+ * prefix lookups is only built the first time one is made.<p>
+ *
+ * Not synchronized: the AlarmManager only touches it while holding its
+ * own monitor, alongside the queue.
+ */
+class AlarmIndex {
+    private final Map /* of String to AlarmEntry */ names = new HashMap();
+    private TreeSet /* of String */ sortedNames; // for prefix lookups, once needed
+    private final Map /* of String to Set of AlarmEntry */ tags = new HashMap();
+
+    /**
+     * @return <code>false</code> if the entry was already indexed.
+     * @exception IllegalStateException if another index holds the entry:
+     * its name chain is there.
+     */
+    boolean add(AlarmEntry _entry) {
+        if (_entry.index == this)
+            return false;
+        if (_entry.index != null)
+            throw new IllegalStateException("alarm " + _entry.getName() + " is in another manager");
+        _entry.index = this;
+
+        String name = _entry.getName();
+        AlarmEntry head = (AlarmEntry) names.put(name, _entry);
+        _entry.nameNext = head;
+        if (head == null && sortedNames != null)
+            sortedNames.add(name);
+
+        String[] entryTags = _entry.getTagArray();
+        for (int i = 0; i < entryTags.length; i++) {
+            Set tagged = (Set) tags.get(entryTags[i]);
+            if (tagged == null) {
+                tagged = Collections.newSetFromMap(new IdentityHashMap());
+                tags.put(entryTags[i], tagged);
+            }
+            tagged.add(_entry);
+        }
+        return true;
+    }
+
+    void remove(AlarmEntry _entry) {
+        if (_entry.index != this)
+            return;
+        _entry.index = null;
+
+        String name = _entry.getName();
+        AlarmEntry head = (AlarmEntry) names.get(name);
+        if (head == _entry) {
+            if (_entry.nameNext != null) {
+                names.put(name, _entry.nameNext);
+            }
+            else {
+                names.remove(name);
+                if (sortedNames != null)
+                    sortedNames.remove(name);
+            }
+        }
+        else {
+            for (AlarmEntry e = head; e != null; e = e.nameNext) {
+                if (e.nameNext == _entry) {
+                    e.nameNext = _entry.nameNext;
+                    break;
+                }
+            }
+        }
+        _entry.nameNext = null;
+
+        String[] entryTags = _entry.getTagArray();
+        for (int i = 0; i < entryTags.length; i++) {
+            Set tagged = (Set) tags.get(entryTags[i]);
+            if (tagged != null) {
+                tagged.remove(_entry);
+                if (tagged.isEmpty())
+                    tags.remove(entryTags[i]);
+            }
+        }
+    }
+
+    /**
+     * @return the last alarm added under a name, or <code>null</code>.
+     */
+    AlarmEntry get(String _name) {
+        return (AlarmEntry) names.get(_name);
+    }
+
+    /**
+     * @return every alarm under a name.
+     */
+    List getAll(String _name) {
+        List result = new ArrayList(1);
+        for (AlarmEntry e = (AlarmEntry) names.get(_name); e != null; e = e.nameNext)
+            result.add(e);
+        return result;
+    }
+
+    /**
+     * @return every alarm whose name starts with a prefix.
+     */
+    List getByPrefix(String _prefix) {
+        if (sortedNames == null)
+            sortedNames = new TreeSet(names.keySet());
+
+        List result = new ArrayList();
+        for (Iterator it = sortedNames.tailSet(_prefix).iterator(); it.hasNext(); ) {
+            String name = (String) it.next();
+            if (!name.startsWith(_prefix))
+                break;
+            for (AlarmEntry e = (AlarmEntry) names.get(name); e != null; e = e.nameNext)
+                result.add(e);
+        }
+        return result;
+    }
+
+    /**
+     * @return every alarm with a tag.
+     */
+    List getByTag(String _tag) {
+        Set tagged = (Set) tags.get(_tag);
+        return (tagged == null) ? new ArrayList(0) : new ArrayList(tagged);
+    }
+
+    void clear() {
+        for (Iterator it = names.values().iterator(); it.hasNext(); ) {
+            AlarmEntry e = (AlarmEntry) it.next();
+            while (e != null) {
+                AlarmEntry next = e.nameNext;
+                e.nameNext = null;
+                e.index = null;
+                e = next;
+            }
+        }
+        names.clear();
+        sortedNames = null;
+        tags.clear();
+    }
+}
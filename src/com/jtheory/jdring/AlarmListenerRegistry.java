@@ -0,0 +1,88 @@
+/*
+ *  com/jtheory/jdring/AlarmListenerRegistry.java
+ *  Copyright (C) 1999 - 2004 jtheory creations, Olivier Dedieu et al.
+ *
+ *  This library is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU Library General Public License as published
+ *  by the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Library General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Library General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+
+package com.jtheory.jdring;
+
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Names the listeners of stored alarms.  Listeners are code, so an
+ * AlarmStore only keeps the name a listener was registered under, and binds
+ * the alarms it reads back to the listener registered under that name in
+ * the new process.  Register every listener before alarms using it are
+ * added to (or read back by) a manager with a store.
+ *
+ * @see AlarmStore
+ */
+public class AlarmListenerRegistry {
+    private final Map /* of String to AlarmListener */ listeners = new HashMap();
+    private final Map /* of AlarmListener to String */ names = new IdentityHashMap();
+
+    /**
+     * Registers a listener under a name.
+     *
+     * @exception IllegalArgumentException if another listener is
+     * registered under this name, or this listener under another name.
+     */
+    public synchronized void register(String _name, AlarmListener _listener) {
+        if (_name == null)
+            throw new NullPointerException("name");
+        if (_listener == null)
+            throw new NullPointerException("listener");
+
+        Object registered = listeners.get(_name);
+        if (registered != null && registered != _listener)
+            throw new IllegalArgumentException("another listener is registered as " + _name);
+        Object name = names.get(_listener);
+        if (name != null && !name.equals(_name))
+            throw new IllegalArgumentException("listener already registered as " + name);
+
+        listeners.put(_name, _listener);
+        names.put(_listener, _name);
+    }
+
+    /**
+     * Unregisters the listener registered under a name.
+     *
+     * @return the listener, or <code>null</code> if there was none.
+     */
+    public synchronized AlarmListener unregister(String _name) {
+        AlarmListener listener = (AlarmListener) listeners.remove(_name);
+        if (listener != null)
+            names.remove(listener);
+        return listener;
+    }
+
+    /**
+     * @return the listener registered under a name, or <code>null</code>.
+     */
+    public synchronized AlarmListener getListener(String _name) {
+        return (AlarmListener) listeners.get(_name);
+    }
+
+    /**
+     * @return the name a listener is registered under, or <code>null</code>.
+     */
+    public synchronized String getName(AlarmListener _listener) {
+        return (String) names.get(_listener);
+    }
+}
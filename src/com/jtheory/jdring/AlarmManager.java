@@ -64,24 +64,42 @@
 
 package com.jtheory.jdring;
 
-import java.util.Calendar;
-import java.util.Date;
-
+import java.io.IOException;
+import java.time.Duration;
+import java.time.ZoneId;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
-import java.util.Iterator;
-import java.util.LinkedList;
+import java.util.Date;
+import java.util.IdentityHashMap;
 import java.util.List;
-import java.util.SortedSet;
-import java.util.TreeSet;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
 
 /**
  * This class implements an alarm manager similar to Unix <code>cron</code>
  * and <code>at</code> daemons. It is intended to fire events
  * when alarms' date and time match the current ones. Alarms are
  * added dynamically and can be one-shot or repetitive
- * (i.e. rescheduled when matched). Time unit is seconds. Alarms
- * scheduled less than one second to the current time are rejected (a
+ * (i.e. rescheduled when matched). Time unit is milliseconds. Alarms
+ * scheduled in the past are rejected (a
  * <code>PastDateException</code> is thrown).<p>
  *
  * The alarm scheduler has been designed to
@@ -179,13 +197,40 @@ import java.util.TreeSet;
 public class AlarmManager {
     
     protected AlarmWaiter waiter;
-    protected SortedSet /* of AlarmEntry */ queue;
-    private boolean debug = false;
+    protected AlarmQueue queue;
+    private final AlarmIndex index = new AlarmIndex(); // the queued alarms, by name and tag
+    // REPEAT_FIXED_DELAY alarms off the queue while their listener runs
+    private final Set /* of AlarmEntry */ awaitingRing = Collections.newSetFromMap(new IdentityHashMap());
+    protected final AlarmClock clock;
     
-    private void debug(String s) {
-        if (debug)
-            System.out.println("[" + Thread.currentThread().getName() + "] AlarmManager: " + s);
-    }
+    // lock-free registration path: see addAlarmAsync()
+    private final ConcurrentLinkedQueue /* of Registration */ inbox = new ConcurrentLinkedQueue();
+    private final AtomicBoolean inboxSignalled = new AtomicBoolean(false);
+    
+    // where RING_POOLED entries are rung: see setRingExecutor()
+    private Executor ringExecutor;
+    private boolean ownsRingExecutor = false;
+    private ExecutorService virtualExecutor; // for RING_VIRTUAL entries
+    private ScheduledThreadPoolExecutor timeoutScheduler; // for AsyncAlarmListener timeouts
+    private final AtomicInteger asyncRings = new AtomicInteger(); // see getAsyncRingCount()
+    private final boolean isDaemon;
+    private final String threadName;
+    
+    private AlarmStore store; // see setStore()
+    private AlarmCluster cluster; // see setCluster()
+    private volatile AlarmMetrics metrics; // see enableMetrics()
+    private volatile AlarmTracer tracer; // see setTracer()
+    private volatile long misfireThreshold = DEFAULT_MISFIRE_THRESHOLD;
+    
+    // a token bucket limiting rings per second: see setMaxRingRate()
+    private double maxRingRate = 0;
+    private double ringBurst;
+    private double ringPermits;
+    private long permitTime;
+    private final CopyOnWriteArrayList /* of AlarmPublisher */ publishers = new CopyOnWriteArrayList();
+    
+    /** How late an alarm may ring before it's a misfire, by default: 1 second. */
+    public static final long DEFAULT_MISFIRE_THRESHOLD = 1000;
     
     /**
      * Creates a new AlarmManager. The waiter thread will be started
@@ -195,7 +240,41 @@ public class AlarmManager {
      * @param threadName the name of the waiter thread
      */
     public AlarmManager(boolean isDaemon, String threadName) {
-        queue = new TreeSet();
+        this(isDaemon, threadName, new TreeSetAlarmQueue());
+    }
+    
+    /**
+     * Creates a new AlarmManager with a specific queue implementation, e.g.
+     * a <code>TimingWheelAlarmQueue</code> for very large numbers of alarms.
+     *
+     * @param isDaemon true if the waiter thread should run as a daemon.
+     * @param threadName the name of the waiter thread
+     * @param queue the (empty) queue holding the pending alarms.
+     */
+    public AlarmManager(boolean isDaemon, String threadName, AlarmQueue _queue) {
+        this(isDaemon, threadName, _queue, AlarmClock.SYSTEM);
+    }
+    
+    /**
+     * Creates a new AlarmManager with a specific queue implementation and
+     * clock.  With a <code>VirtualAlarmClock</code> no waiter thread is
+     * started: alarms ring as the clock is moved forward.  A
+     * <code>TimingWheelAlarmQueue</code> should then be created at the
+     * clock's time.
+     *
+     * @param isDaemon true if the waiter thread should run as a daemon.
+     * @param threadName the name of the waiter thread
+     * @param queue the (empty) queue holding the pending alarms.
+     * @param clock the source of the current time.
+     */
+    public AlarmManager(boolean isDaemon, String threadName, AlarmQueue _queue, AlarmClock _clock) {
+        if (_clock == null)
+            throw new NullPointerException("clock");
+        
+        this.isDaemon = isDaemon;
+        this.threadName = threadName;
+        queue = _queue;
+        clock = _clock;
         waiter = new AlarmWaiter(this, isDaemon, threadName);
     }
     
@@ -208,18 +287,379 @@ public class AlarmManager {
         this(false, "AlarmManager");
     }
     
+    /**
+     * @return the clock alarms are scheduled from.
+     */
+    public AlarmClock getClock() {
+        return clock;
+    }
+    
+    String getThreadName() {
+        return threadName;
+    }
+    
+    /**
+     * Starts recording what this manager does: fire lag, listener times,
+     * rings, skipped and overlapping rings...  Until this is called, the
+     * ring path records nothing.
+     *
+     * @return the metrics, the same ones on each call.
+     * @see AlarmMetrics#registerMBean()
+     */
+    public synchronized AlarmMetrics enableMetrics() {
+        if (metrics == null)
+            metrics = new AlarmMetrics(this);
+        return metrics;
+    }
+    
+    /**
+     * @return the metrics of this manager, or <code>null</code> if they were
+     * not enabled.
+     */
+    public AlarmMetrics getMetrics() {
+        return metrics;
+    }
+    
+    /**
+     * Sets the tracer told about alarms being added, removed, rescheduled
+     * and rung.  With none (the default), tracing costs a null check per
+     * event.
+     *
+     * @param tracer the tracer, or <code>null</code> for none.
+     */
+    public void setTracer(AlarmTracer _tracer) {
+        tracer = _tracer;
+    }
+    
+    /**
+     * @return the tracer, or <code>null</code>.
+     */
+    public AlarmTracer getTracer() {
+        return tracer;
+    }
+    
+    /**
+     * Creates a publisher of all the alarms rung from now on.
+     *
+     * @see AlarmPublisher
+     */
+    public AlarmPublisher createPublisher() {
+        return createPublisher(null, null, null, AlarmPublisher.DEFAULT_BUFFER_SIZE);
+    }
+    
+    /**
+     * Creates a publisher of the alarms with the given name rung from now on.
+     */
+    public AlarmPublisher createPublisher(String _alarmName) {
+        if (_alarmName == null)
+            throw new NullPointerException("alarm name");
+        return createPublisher(_alarmName, null, null, AlarmPublisher.DEFAULT_BUFFER_SIZE);
+    }
+    
+    /**
+     * Creates a publisher of the alarms with the given tag rung from now on.
+     */
+    public AlarmPublisher createPublisherForTag(String _tag) {
+        if (_tag == null)
+            throw new NullPointerException("tag");
+        return createPublisher(null, _tag, null, AlarmPublisher.DEFAULT_BUFFER_SIZE);
+    }
+    
+    /**
+     * Creates a publisher of the alarms rung from now on.  It's closed when
+     * the manager stops.
+     *
+     * @param alarmName the name of the alarms published, or <code>null</code>
+     * for any.
+     * @param tag the tag of the alarms published, or <code>null</code> for
+     * any.
+     * @param executor the executor alarms are handed to subscribers on, or
+     * <code>null</code> for the ring executor.
+     * @param bufferSize the number of alarms each subscriber's buffer holds.
+     */
+    public AlarmPublisher createPublisher(String _alarmName, String _tag, Executor _executor,
+            int _bufferSize) {
+        AlarmPublisher publisher = new AlarmPublisher(this, _alarmName, _tag,
+                (_executor != null) ? _executor : getRingExecutor(), _bufferSize);
+        publishers.add(publisher);
+        return publisher;
+    }
+    
+    void removePublisher(AlarmPublisher _publisher) {
+        publishers.remove(_publisher);
+    }
+    
+    /**
+     * Hands rung alarms to the publishers.
+     */
+    private void publish(List _entries) {
+        if (publishers.isEmpty())
+            return;
+        for (int p = 0; p < publishers.size(); p++) {
+            AlarmPublisher publisher = (AlarmPublisher) publishers.get(p);
+            for (int i = 0; i < _entries.size(); i++)
+                publisher.publish((AlarmEntry) _entries.get(i));
+        }
+    }
+    
+    /**
+     * Rings an alarm taken off the queue earlier, e.g. an alarm time an
+     * AlarmCluster member missed.
+     */
+    void ringNow(AlarmEntry _entry) {
+        publish(Collections.singletonList(_entry));
+        dispatch(_entry);
+    }
+    
+    /**
+     * Sets how late, after its alarm time, an alarm may be taken off the
+     * queue before it counts as a misfire, e.g. because inline listeners
+     * held the waiter up, or the JVM paused.  A misfired alarm is handled
+     * according to its misfire policy: with <code>MISFIRE_SKIP</code> it
+     * doesn't ring, and is rescheduled from the current time (if it
+     * repeats).  Misfires are counted by the entry, the metrics and the
+     * tracer.
+     *
+     * @param millis the threshold, in milliseconds.
+     * @see AlarmEntry#setMisfirePolicy(int)
+     */
+    public void setMisfireThreshold(long _millis) {
+        if (_millis < 0)
+            throw new IllegalArgumentException("negative misfire threshold: " + _millis);
+        misfireThreshold = _millis;
+    }
+    
+    public long getMisfireThreshold() {
+        return misfireThreshold;
+    }
+    
+    /**
+     * Limits the rate at which this manager rings alarms, e.g. to spare a
+     * database when thousands of alarms are due on the same minute.  The
+     * alarms due beyond the limit stay queued, in alarm time order, and the
+     * waiter comes back for them as the rate allows; no thread waits
+     * meanwhile.  They ring late, but repeating alarms keep their
+     * schedule, except relative ones rescheduled from when they ring.<p>
+     *
+     * An alarm held back longer than the misfire threshold counts as a
+     * misfire, and is dropped if its misfire policy is
+     * <code>MISFIRE_SKIP</code>: set the threshold above the time a spike
+     * takes to drain.
+     *
+     * @param ringsPerSecond the rate, or 0 for no limit (the default).
+     * @param burst the number of alarms which may ring at once after a
+     * quiet time.
+     * @see AlarmEntry#setSpread(long)
+     */
+    public synchronized void setMaxRingRate(double _ringsPerSecond, int _burst) {
+        if (!(_ringsPerSecond >= 0))
+            throw new IllegalArgumentException("bad ring rate: " + _ringsPerSecond);
+        if (_burst < 1)
+            throw new IllegalArgumentException("burst under 1: " + _burst);
+        
+        maxRingRate = _ringsPerSecond;
+        ringBurst = _burst;
+        ringPermits = _burst;
+        permitTime = clock.currentTimeMillis();
+        if (waiter != null && !queue.isEmpty())
+            waiter.update(queue.first().alarmTime); // in case it waits for permits
+    }
+    
+    /**
+     * Limits the rate at which this manager rings alarms, allowing bursts
+     * of a second's worth of rings.
+     *
+     * @param ringsPerSecond the rate, or 0 for no limit (the default).
+     */
+    public void setMaxRingRate(double _ringsPerSecond) {
+        setMaxRingRate(_ringsPerSecond, Math.max(1, (int) Math.ceil(_ringsPerSecond)));
+    }
+    
+    public synchronized double getMaxRingRate() {
+        return maxRingRate;
+    }
+    
+    /**
+     * Adds the permits earned since they were last counted.
+     *
+     * @return the number of alarms which may ring now.
+     */
+    private int availableRingPermits(long _now) {
+        if (maxRingRate == 0)
+            return Integer.MAX_VALUE;
+        if (_now > permitTime) {
+            ringPermits = Math.min(ringBurst, ringPermits + (_now - permitTime) * maxRingRate / 1000);
+            permitTime = _now;
+        }
+        return (int) ringPermits;
+    }
+    
+    /**
+     * Sets the executor used to ring entries flagged with
+     * <code>AlarmEntry.RING_POOLED</code> (or <code>setRingInNewThead()</code>).
+     * If the executor rejects a ring, the alarm is rung in the waiter thread
+     * instead, which holds back the following alarms until the executor
+     * catches up.<p>
+     *
+     * When no executor is set, a bounded pool is created on first use: two
+     * threads per processor and room for 1024 waiting rings per thread,
+     * after which rings run in the waiter thread.  That pool is shut down
+     * with the manager; an executor set here is left to its owner.
+     *
+     * @param executor the executor, or <code>null</code> for the default pool.
+     */
+    public synchronized void setRingExecutor(Executor _executor) {
+        if (ownsRingExecutor) {
+            ((ExecutorService) ringExecutor).shutdown();
+        }
+        ringExecutor = _executor;
+        ownsRingExecutor = false;
+    }
+    
+    /**
+     * @return the ring executor, without creating the default pool.
+     */
+    synchronized Executor peekRingExecutor() {
+        return ringExecutor;
+    }
+    
+    /**
+     * @return the executor used to ring <code>RING_POOLED</code> entries.
+     */
+    public synchronized Executor getRingExecutor() {
+        if (ringExecutor == null) {
+            ringExecutor = newRingPool(threadName, isDaemon);
+            ownsRingExecutor = true;
+        }
+        return ringExecutor;
+    }
+    
+    /**
+     * Creates the default ring pool: two threads per processor, started
+     * as needed, and room for 1024 waiting rings per thread.
+     */
+    static ExecutorService newRingPool(String _threadName, boolean _isDaemon) {
+        int threads = 2 * Runtime.getRuntime().availableProcessors();
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads,
+                60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue(threads * 1024),
+                new RingerThreadFactory(_threadName + "-ringer-", _isDaemon),
+                new ThreadPoolExecutor.CallerRunsPolicy());
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+    }
+    
+    /**
+     * Tells whether <code>AlarmEntry.RING_VIRTUAL</code> entries really ring
+     * in virtual threads.  This is checked once, at startup; when it's
+     * <code>false</code> they ring on the ring executor instead.
+     *
+     * @return <code>true</code> if the runtime supports virtual threads.
+     */
+    public static boolean isVirtualThreadSupported() {
+        return VirtualThreads.isSupported();
+    }
+    
+    /**
+     * @return the executor used to ring <code>RING_VIRTUAL</code> entries:
+     * one virtual thread per ring, or the ring executor on older runtimes.
+     */
+    protected synchronized Executor getVirtualExecutor() {
+        if (virtualExecutor == null) {
+            virtualExecutor = VirtualThreads.newExecutor(threadName + "-virtual-");
+            if (virtualExecutor == null)
+                return getRingExecutor();
+        }
+        return virtualExecutor;
+    }
+    
+    /**
+     * Makes the alarms of this manager outlive it.  The alarms kept by the
+     * store are added back first; from then on, every alarm added, removed
+     * or rung is written to the store.  Call it once, right after creating
+     * the manager.<p>
+     *
+     * Alarm times that passed while the alarms were not running are handled
+     * according to each entry's misfire policy: with
+     * <code>MISFIRE_FIRE_ONCE</code> the alarm rings once right away, with
+     * <code>MISFIRE_FIRE_ALL</code> once for each missed alarm time, and with
+     * <code>MISFIRE_SKIP</code> not at all.
+     *
+     * @param store the store, not yet loaded.
+     * @exception IOException if the store can't be read.
+     * @see AlarmEntry#setMisfirePolicy(int)
+     */
+    public synchronized void setStore(AlarmStore _store) throws IOException {
+        if (store != null)
+            throw new IllegalStateException("the store is already set");
+        
+        List entries = _store.load(clock);
+        store = _store;
+        long now = clock.currentTimeMillis();
+        for (int i = 0; i < entries.size(); i++) {
+            AlarmEntry entry = (AlarmEntry) entries.get(i);
+            if (entry.alarmTime < now && entry.getMisfirePolicy() == AlarmEntry.MISFIRE_SKIP) {
+                if (metrics != null)
+                    metrics.recordSkipped(1);
+                if (!entry.isRepeating) {
+                    store.removed(entry);
+                    continue;
+                }
+                entry.updateAlarmTime();
+                store.fired(entry);
+            }
+            index.add(entry);
+            queue.add(entry);
+        }
+        
+        if (!queue.isEmpty() && waiter != null)
+            waiter.update(queue.first().alarmTime);
+    }
+    
+    /**
+     * @return the store alarms are kept in, or <code>null</code>.
+     */
+    public synchronized AlarmStore getStore() {
+        return store;
+    }
+    
+    /**
+     * Makes this manager a member of a cluster of managers holding the same
+     * alarms, so that each alarm time rings on one of them only.  Call it
+     * once, right after creating the manager.  The member renews its leases
+     * with an alarm of its own, named <code>cluster-</code><i>member</i>.
+     *
+     * @param cluster this manager's membership.
+     * @see AlarmCluster
+     */
+    public void setCluster(AlarmCluster _cluster) {
+        synchronized (this) {
+            if (cluster != null)
+                throw new IllegalStateException("the cluster is already set");
+            cluster = _cluster;
+        }
+        // without our monitor: the cluster takes its own, then ours
+        _cluster.join(this);
+    }
+    
+    /**
+     * @return this manager's cluster membership, or <code>null</code>.
+     */
+    public synchronized AlarmCluster getCluster() {
+        return cluster;
+    }
+    
     /**
      * Adds an alarm for a specified date.
      *
      * @param date the alarm date to be added.
      * @param listener the alarm listener.
      * @return the AlarmEntry.
-     * @exception PastDateException if the alarm date is in the past
-     * or less than 1 second closed to the current date).
+     * @exception PastDateException if the alarm date is in the past.
      */
-    public synchronized AlarmEntry addAlarm(String _name, Date _date,
+    public AlarmEntry addAlarm(String _name, Date _date,
             AlarmListener _listener) throws PastDateException {
-        AlarmEntry entry = new AlarmEntry(_name, _date, _listener);
+        AlarmEntry entry = new AlarmEntry(_name, _date, clock, _listener);
         addAlarm(entry);
         return entry;
     }
@@ -229,6 +669,63 @@ public class AlarmManager {
         return addAlarm(null, _date, _listener);
     }
     
+    /**
+     * Adds an alarm for a specified delay, to the millisecond.
+     *
+     * @param delay the alarm delay (relative to now), e.g.
+     * <code>Duration.ofMillis(250)</code>.
+     * @param isRepeating <code>true</code> if the alarm must be
+     * reactivated, <code>false</code> otherwise.
+     * @param listener the alarm listener.
+     * @return the AlarmEntry.
+     * @exception PastDateException if the delay is not positive.
+     */
+    public AlarmEntry addAlarm(String _name, Duration _delay, boolean _isRepeating,
+            AlarmListener _listener) throws PastDateException {
+        AlarmEntry entry = new AlarmEntry(_name, _delay, _isRepeating, clock, _listener);
+        addAlarm(entry);
+        return entry;
+    }
+    
+    /**
+     * Adds an alarm ringing at a fixed rate: after the initial delay, then
+     * at that time plus every whole period, however late each ring is.
+     *
+     * @param initialDelay the delay before the first alarm; it may be zero.
+     * @param period the time between alarms, at least a millisecond.
+     * @param listener the alarm listener.
+     * @return the AlarmEntry.
+     * @exception PastDateException if the initial delay is negative.
+     * @see AlarmEntry#REPEAT_FIXED_RATE
+     */
+    public AlarmEntry addFixedRateAlarm(String _name, Duration _initialDelay, Duration _period,
+            AlarmListener _listener) throws PastDateException {
+        AlarmEntry entry = new AlarmEntry(_name, _initialDelay, _period,
+                AlarmEntry.REPEAT_FIXED_RATE, clock, _listener);
+        addAlarm(entry);
+        return entry;
+    }
+    
+    /**
+     * Adds an alarm ringing with a fixed delay: after the initial delay,
+     * then a period after its listener is done each time.
+     *
+     * @param initialDelay the delay before the first alarm; it may be zero.
+     * @param period the time from the end of a run to the next alarm, at
+     * least a millisecond.
+     * @param listener the alarm listener.
+     * @return the AlarmEntry.
+     * @exception PastDateException if the initial delay is negative.
+     * @see AlarmEntry#REPEAT_FIXED_DELAY
+     */
+    public AlarmEntry addFixedDelayAlarm(String _name, Duration _initialDelay, Duration _period,
+            AlarmListener _listener) throws PastDateException {
+        AlarmEntry entry = new AlarmEntry(_name, _initialDelay, _period,
+                AlarmEntry.REPEAT_FIXED_DELAY, clock, _listener);
+        addAlarm(entry);
+        return entry;
+    }
+    
     /**
      * Adds an alarm for a specified delay.
      *
@@ -237,12 +734,11 @@ public class AlarmManager {
      * reactivated, <code>false</code> otherwise.
      * @param listener the alarm listener.
      * @return the AlarmEntry.
-     * @exception PastDateException if the alarm date is in the past
-     * (or less than 1 second closed to the current date).
+     * @exception PastDateException if the alarm date is in the past.
      */
-    public synchronized AlarmEntry addAlarm(String _name, int _delay, boolean _isRepeating,
+    public AlarmEntry addAlarm(String _name, int _delay, boolean _isRepeating,
             AlarmListener _listener) throws PastDateException {
-        AlarmEntry entry = new AlarmEntry(_name, _delay, _isRepeating, _listener);
+        AlarmEntry entry = new AlarmEntry(_name, _delay, _isRepeating, clock, _listener);
         addAlarm(entry);
         return entry;
     }
@@ -270,20 +766,20 @@ public class AlarmManager {
      *  reached).
      * @param listener the alarm listener.
      * @return the AlarmEntry.
-     * @exception PastDateException if the alarm date is in the past
-     * (or less than 1 second away from the current date).
+     * @exception PastDateException if the alarm date is in the past.
      */
-    public synchronized AlarmEntry addAlarm(String _name, int _minute, int _hour,
+    public AlarmEntry addAlarm(String _name, int _minute, int _hour,
             int _dayOfMonth, int _month,
             int _dayOfWeek,
             int _year,
             AlarmListener _listener)
     throws PastDateException {
         
-        AlarmEntry entry = new AlarmEntry(_name, _minute, _hour,
-                _dayOfMonth, _month,
-                _dayOfWeek,
+        AlarmEntry entry = new AlarmEntry(_name, new int[]{_minute}, new int[]{_hour},
+                new int[]{_dayOfMonth}, new int[]{_month},
+                new int[]{_dayOfWeek},
                 _year,
+                ZoneId.systemDefault(), clock,
                 _listener);
         addAlarm(entry);
         return entry;
@@ -293,7 +789,28 @@ public class AlarmManager {
             int _dayOfMonth, int _month, int _dayOfWeek, int _year,
             AlarmListener _listener)
     throws PastDateException {
-        return addAlarm(_minute, _hour, _dayOfMonth, _month, _dayOfWeek, _year,_listener);
+        return addAlarm(null, _minute, _hour, _dayOfMonth, _month, _dayOfWeek, _year,_listener);
+    }
+    
+    /**
+     * Adds a repeating alarm on a cron expression, e.g.
+     * <code>"*&#47;5 9-17 * * MON-FRI"</code>, in the default time zone.
+     *
+     * @param cronExpression the schedule; see CronSchedule for the syntax.
+     * @param listener the alarm listener.
+     * @return the AlarmEntry.
+     * @exception IllegalArgumentException if the expression is not valid.
+     */
+    public AlarmEntry addAlarm(String _name, String _cronExpression, AlarmListener _listener) {
+        AlarmEntry entry = new AlarmEntry(_name, CronSchedule.parse(_cronExpression),
+                ZoneId.systemDefault(), clock, _listener);
+        try {
+            addAlarm(entry);
+        }
+        catch(PastDateException e) {
+            // not thrown: addAlarm(AlarmEntry) doesn't check the time
+        }
+        return entry;
     }
     
     /**
@@ -315,10 +832,9 @@ public class AlarmManager {
      *  reached).
      * @param listener the alarm listener.
      * @return the AlarmEntry.
-     * @exception PastDateException if the alarm date is in the past
-     * (or less than 1 second away from the current date).
+     * @exception PastDateException if the alarm date is in the past.
      */
-    public synchronized AlarmEntry addAlarm(String _name, int[] _minutes, int[] _hours,
+    public AlarmEntry addAlarm(String _name, int[] _minutes, int[] _hours,
             int[] _daysOfMonth, int[] _months,
             int[] _daysOfWeek,
             int _year,
@@ -329,6 +845,7 @@ public class AlarmManager {
                 _daysOfMonth, _months,
                 _daysOfWeek,
                 _year,
+                ZoneId.systemDefault(), clock,
                 _listener);
         addAlarm(entry);
         return entry;
@@ -345,20 +862,171 @@ public class AlarmManager {
      * Adds an alarm for a specified AlarmEntry
      *
      * @param entry the AlarmEntry.
-     * @exception PastDateException if the alarm date is in the past
-     * (or less than one second away from the current date).
+     * @exception PastDateException if the alarm date is in the past.
+     * @exception IllegalArgumentException if the manager has a store, and
+     * the entry's listener is not registered with it.
+     * @exception IllegalStateException if the entry is in another manager,
+     * or is a <code>REPEAT_FIXED_DELAY</code> alarm whose listener is running.
      */
     public synchronized void addAlarm(AlarmEntry _entry) throws PastDateException {
-        debug("Add a new alarm entry : " + _entry);
-        
+        checkAddable(_entry);
+        if (_entry.index != index) {
+            if (store != null && !_entry.isLocal)
+                store.added(_entry);
+            index.add(_entry);
+        }
         queue.add(_entry);
+        AlarmTracer t = tracer;
+        if (t != null)
+            t.alarmAdded(this, _entry);
         if (queue.first().equals(_entry)) {
-            debug("This new alarm is the top one, update the waiter thread");
+            // the new alarm is the top one: update the waiter thread
             waiter.update(_entry.alarmTime);
         }
     }
     
     
+    /**
+     * Adds many alarms at once, e.g. to load a manager at startup.  The
+     * entries are checked and sorted before taking the manager's monitor,
+     * then added in one go, and the waiter is woken up at most once.  With
+     * the default queue, loading an empty manager this way takes linear
+     * time.
+     *
+     * @param entries the AlarmEntries.
+     * @exception PastDateException if an alarm date is in the past; no
+     * alarm is added then.
+     * @exception IllegalStateException if an entry is in another manager,
+     * or is a <code>REPEAT_FIXED_DELAY</code> alarm whose listener is
+     * running; no alarm is added then.
+     */
+    public void addAlarms(Collection /* of AlarmEntry */ _entries) throws PastDateException {
+        AlarmEntry[] entries = (AlarmEntry[]) _entries.toArray(new AlarmEntry[_entries.size()]);
+        for (int i = 0; i < entries.length; i++) {
+            if (entries[i] == null)
+                throw new NullPointerException("entry " + i);
+            entries[i].checkAlarmTime();
+        }
+        Arrays.parallelSort(entries); // in parallel for large loads
+        List sorted = new ArrayList(entries.length);
+        for (int i = 0; i < entries.length; i++) {
+            if (i == 0 || entries[i] != entries[i - 1])
+                sorted.add(entries[i]);
+        }
+        synchronized (this) {
+            for (int i = 0; i < sorted.size(); i++)
+                checkAddable((AlarmEntry) sorted.get(i));
+            for (int i = 0; i < sorted.size(); i++) {
+                AlarmEntry entry = (AlarmEntry) sorted.get(i);
+                if (entry.index != index) {
+                    if (store != null && !entry.isLocal)
+                        store.added(entry);
+                    index.add(entry);
+                }
+            }
+            
+            AlarmEntry wasFirst = queue.first();
+            queue.addAll(sorted);
+            AlarmTracer t = tracer;
+            if (t != null) {
+                for (int i = 0; i < sorted.size(); i++)
+                    t.alarmAdded(this, (AlarmEntry) sorted.get(i));
+            }
+            AlarmEntry first = queue.first();
+            if (first != null && first != wasFirst) {
+                // a new alarm is the top one: update the waiter thread
+                waiter.update(first.alarmTime);
+            }
+        }
+    }
+    
+    /**
+     * @exception IllegalStateException if the entry is in another manager,
+     * or is a <code>REPEAT_FIXED_DELAY</code> alarm whose listener is
+     * running: it is queued again when the listener returns, and its alarm
+     * time must not change while it is in the queue.
+     */
+    private void checkAddable(AlarmEntry _entry) {
+        if (_entry.index != null && _entry.index != index)
+            throw new IllegalStateException("alarm " + _entry.getName() + " is in another manager");
+        if (awaitingRing.contains(_entry))
+            throw new IllegalStateException("alarm " + _entry.getName() + " is ringing");
+    }
+    
+    /**
+     * Adds an AlarmEntry without waiting for the manager's monitor.  The entry
+     * is handed to a lock-free inbox and queued by the waiter thread shortly
+     * after, so producers never contend with each other or with alarms being
+     * rung.  Use this when many threads schedule alarms concurrently.<p>
+     *
+     * The alarm time is checked here, but the entry only shows up in
+     * <code>containsAlarm()</code> and <code>getAllAlarms()</code> once the
+     * waiter has picked it up.  An entry <code>addAlarm()</code> would
+     * refuse then, as in another manager or ringing, is dropped.
+     *
+     * @param entry the AlarmEntry.
+     * @exception PastDateException if the alarm date is in the past.
+     */
+    public void addAlarmAsync(AlarmEntry _entry) throws PastDateException {
+        _entry.checkAlarmTime();
+        post(new Registration(_entry, true));
+    }
+    
+    /**
+     * Removes an AlarmEntry through the lock-free inbox; the counterpart
+     * of <code>addAlarmAsync()</code>.  Registrations posted by one thread
+     * are applied in the order they were posted.
+     *
+     * @param entry the AlarmEntry that needs to be removed.
+     */
+    public void removeAlarmAsync(AlarmEntry _entry) {
+        post(new Registration(_entry, false));
+    }
+    
+    private void post(Registration _registration) {
+        inbox.offer(_registration);
+        
+        // only the first producer since the last drain pays for the wake-up
+        if (inboxSignalled.compareAndSet(false, true)) {
+            AlarmWaiter w = waiter;
+            if (w != null)
+                w.wakeUp();
+        }
+    }
+    
+    /**
+     * Applies the registrations posted through the lock-free inbox.  Only
+     * called by the AlarmWaiter thread.
+     */
+    protected void drainInbox() {
+        // clear the flag first, so a registration posted while we drain
+        // signals the waiter again
+        inboxSignalled.set(false);
+        if (inbox.isEmpty())
+            return;
+        
+        synchronized (this) {
+            Registration registration;
+            while ((registration = (Registration) inbox.poll()) != null) {
+                if (registration.isAdd) {
+                    try {
+                        addAlarm(registration.entry);
+                    }
+                    catch(PastDateException e) {
+                        // not thrown: addAlarm(AlarmEntry) doesn't check the time
+                    }
+                    catch(IllegalStateException e) {
+                        // in another manager, or ringing: refused, as
+                        // addAlarm() would have
+                    }
+                }
+                else {
+                    removeAlarm(registration.entry);
+                }
+            }
+        }
+    }
+    
     /**
      * Removes the specified AlarmEntry.
      *
@@ -368,28 +1036,139 @@ public class AlarmManager {
      */
     public synchronized boolean removeAlarm(AlarmEntry _entry) {
         
-        boolean found = false;
-        
-        if( ! queue.isEmpty() ) {
-            AlarmEntry was_first = (AlarmEntry)queue.first();
+        boolean found = awaitingRing.remove(_entry); // its listener is running
+        if (found) {
+            index.remove(_entry);
+            if (store != null)
+                store.removed(_entry);
+            AlarmTracer t = tracer;
+            if (t != null)
+                t.alarmRemoved(this, _entry);
+        }
+        else if( ! queue.isEmpty() ) {
+            AlarmEntry was_first = queue.first();
             found = queue.remove(_entry);
+            if (found) {
+                index.remove(_entry);
+                if (store != null)
+                    store.removed(_entry);
+                AlarmTracer t = tracer;
+                if (t != null)
+                    t.alarmRemoved(this, _entry);
+            }
             
             // update the queue if it's not now empty, and the first alarm has changed
             if ( !queue.isEmpty() && _entry.equals(was_first) )
             {
-                waiter.update( ((AlarmEntry) queue.first()).alarmTime );
+                waiter.update( queue.first().alarmTime );
             }
         }
         
         return found;
     } // removeAlarm()
     
+    /**
+     * Removes every alarm with the given name.
+     *
+     * @param name the name of the alarms.
+     * @return <code>true</code> if there was such an alarm.
+     */
+    public synchronized boolean removeAlarm(String _name) {
+        return removeAlarms(index.getAll(_name)) > 0;
+    }
+    
+    /**
+     * Removes every alarm whose name starts with the given prefix, e.g. all
+     * the alarms named "report:..." with the prefix "report:".
+     *
+     * @return the number of alarms removed.
+     */
+    public synchronized int removeAlarmsByPrefix(String _prefix) {
+        return removeAlarms(index.getByPrefix(_prefix));
+    }
+    
+    /**
+     * Removes every alarm with the given tag.
+     *
+     * @return the number of alarms removed.
+     * @see AlarmEntry#addTag(String)
+     */
+    public synchronized int removeAlarmsByTag(String _tag) {
+        return removeAlarms(index.getByTag(_tag));
+    }
+    
+    private int removeAlarms(List _entries) {
+        if (_entries.isEmpty())
+            return 0;
+        
+        AlarmEntry wasFirst = queue.first();
+        int removed = 0;
+        for (int i = 0; i < _entries.size(); i++) {
+            AlarmEntry entry = (AlarmEntry) _entries.get(i);
+            if (queue.remove(entry) || awaitingRing.remove(entry)) {
+                removed++;
+                index.remove(entry);
+                if (store != null)
+                    store.removed(entry);
+                AlarmTracer t = tracer;
+                if (t != null)
+                    t.alarmRemoved(this, entry);
+            }
+        }
+        
+        AlarmEntry first = queue.first();
+        if (first != null && first != wasFirst && waiter != null)
+            waiter.update(first.alarmTime);
+        return removed;
+    }
+    
+    /**
+     * Moves the next alarm time of the alarm with the given name (the last
+     * one added, if several have this name).  A repeating alarm carries on
+     * from its schedule after ringing at that time.
+     *
+     * @param name the name of the alarm.
+     * @param date the new alarm date.
+     * @return <code>false</code> if there is no alarm with this name.
+     * @exception PastDateException if the date is in the past.
+     */
+    public synchronized boolean reschedule(String _name, Date _date) throws PastDateException {
+        AlarmEntry entry = index.get(_name);
+        if (entry == null)
+            return false;
+        if (_date.getTime() < clock.currentTimeMillis())
+            throw new PastDateException();
+        
+        AlarmEntry wasFirst = queue.first();
+        if (!queue.remove(entry))
+            awaitingRing.remove(entry); // not rescheduled again when its listener is done
+        long previous = entry.alarmTime;
+        entry.alarmTime = _date.getTime();
+        queue.add(entry);
+        AlarmTracer t = tracer;
+        if (t != null)
+            t.alarmRescheduled(this, entry, previous);
+        if (store != null && !entry.isLocal) {
+            store.removed(entry);
+            store.added(entry);
+        }
+        
+        AlarmEntry first = queue.first();
+        if ((first == entry || wasFirst == entry) && waiter != null)
+            waiter.update(first.alarmTime);
+        return true;
+    }
+    
     /**
      * Removes all the alarms. No more alarms, even newly added ones, will
      * be fired.
      */
     public synchronized void removeAllAlarms() {
         queue.clear();
+        awaitingRing.clear();
+        index.clear();
+        if (store != null)
+            store.cleared();
     }
     
     /**
@@ -397,9 +1176,48 @@ public class AlarmManager {
      * be fired.
      */
     public synchronized void removeAllAlarmsAndStop() {
+        removeAllAlarms();
+        stop();
+    }
+    
+    /**
+     * Stops the manager, leaving its alarms in its store (if it has one)
+     * for the next run.  No more alarms, even newly added ones, will be
+     * fired.
+     */
+    public synchronized void stop() {
+        if (waiter == null)
+            return;
+        
         waiter.stop();
         waiter = null;
         queue.clear();
+        awaitingRing.clear();
+        index.clear();
+        if (cluster != null)
+            cluster.leave();
+        if (metrics != null)
+            metrics.unregisterMBean();
+        for (int i = publishers.size() - 1; i >= 0; i--)
+            ((AlarmPublisher) publishers.get(i)).close();
+        if (store != null) {
+            try {
+                store.close();
+            }
+            catch(IOException e) {
+                e.printStackTrace();
+            }
+            store = null;
+        }
+        setRingExecutor(null);
+        if (virtualExecutor != null) {
+            virtualExecutor.shutdown();
+            virtualExecutor = null;
+        }
+        if (timeoutScheduler != null) {
+            timeoutScheduler.shutdownNow();
+            timeoutScheduler = null;
+        }
     }
     
     public boolean isStopped() {
@@ -413,77 +1231,352 @@ public class AlarmManager {
      @return boolean whether AlarmEntry is contained within the manager
      */
     public synchronized boolean containsAlarm(AlarmEntry _alarmEntry) {
-        return queue.contains(_alarmEntry);
+        return queue.contains(_alarmEntry) || awaitingRing.contains(_alarmEntry);
+    }
+    
+    /**
+     * @return the alarm with the given name (the last one added, if several
+     * have this name), or <code>null</code>.
+     */
+    public synchronized AlarmEntry getAlarm(String _name) {
+        return index.get(_name);
+    }
+    
+    /**
+     * @return the alarms whose name starts with the given prefix.
+     */
+    public synchronized List getAlarmsByPrefix(String _prefix) {
+        return index.getByPrefix(_prefix);
+    }
+    
+    /**
+     * @return the alarms with the given tag.
+     */
+    public synchronized List getAlarmsByTag(String _tag) {
+        return index.getByTag(_tag);
+    }
+    
+    /**
+     * @return the number of alarms in the manager, without copying them.
+     */
+    public synchronized int getAlarmCount() {
+        return queue.size();
     }
     
     /**
      * Returns a copy of all alarms in the manager.
      */
     public synchronized List getAllAlarms() {
-        List result = new ArrayList();
-        
-        Iterator iterator = queue.iterator();
-        while (iterator.hasNext()) {
-            result.add(iterator.next());
+        return queue.toList();
+    }
+    
+    /**
+     * @deprecated replaced by <code>ringDueAlarms()</code>, which rings every
+     * due alarm, not just the next one.
+     */
+    @Deprecated
+    protected void ringNextAlarm() {
+        ringDueAlarms();
+    }
+    
+    /**
+     * This is method is called when an alarm date is reached.  It is only
+     * called by the AlarmWaiter (or the VirtualAlarmClock).<p>
+     *
+     * Each pass takes every due alarm off the queue and reschedules the
+     * repeating ones, holding the manager's monitor once; then it rings them,
+     * without the monitor, so listeners never hold up threads adding alarms.
+     * Passes repeat until nothing is due, and the waiter is set for the next
+     * alarm.  Repeating alarms are already rescheduled when their listener
+     * runs: <code>alarmTime</code> is the next alarm time, and
+     * <code>getLastAlarmTime()</code> the one being rung.
+     */
+    protected void ringDueAlarms() {
+        while (true) {
+            List due = pollDueAlarms();
+            if (due.isEmpty())
+                return;
+            AlarmTracer t = tracer;
+            if (t != null)
+                t.waiterWoke(this, due.size());
+            AlarmCluster cluster = getCluster();
+            if (cluster != null) {
+                List polled = due;
+                due = cluster.claim(polled); // those rung on this member
+                if (due.size() < polled.size()) {
+                    AlarmMetrics m = metrics;
+                    if (m != null)
+                        m.recordSkipped(polled.size() - due.size());
+                    
+                    // the claimed ones are in the same order
+                    for (int i = 0, c = 0; i < polled.size(); i++) {
+                        AlarmEntry entry = (AlarmEntry) polled.get(i);
+                        if (c < due.size() && due.get(c) == entry)
+                            c++;
+                        else if (entry.getRepeatMode() == AlarmEntry.REPEAT_FIXED_DELAY)
+                            rescheduleAfterRing(entry); // not run here
+                    }
+                }
+            }
+            
+            publish(due);
+            
+            // an entry still running when its next alarm time comes up is
+            // rung again, skipped or queued, as its overlap policy says
+            dispatchAll(due);
         }
-        
-        return result;
     }
     
     /**
-     * This is method is called when an alarm date is reached. It
-     * is only be called by the the AlarmWaiter or by itself (if
-     * the next alarm is less than 1 second away).
+     * Takes the due alarms off the queue and reschedules the repeating ones.
+     * If none is due, updates the waiter for the next alarm.
+     *
+     * @return the due alarms, in the order they were due.
      */
-    protected synchronized void ringNextAlarm() {
-        debug("ringing next alarm");
-        
-        // if the queue is empty, there's nothing to do
-        if (queue.isEmpty()) {
-            return;
+    private synchronized List pollDueAlarms() {
+        long now = clock.currentTimeMillis();
+        int permits = availableRingPermits(now);
+        List due = new ArrayList();
+        AlarmEntry entry;
+        while (due.size() < permits && (entry = queue.pollDue(now)) != null) {
+            due.add(entry);
         }
         
-        // Removes this alarm and notifies the listener
-        AlarmEntry entry = (AlarmEntry) queue.first();
-        queue.remove(entry);
+        // Reactivates the alarms which are repetitive
+        AlarmTracer t = tracer;
+        AlarmMetrics m = metrics;
+        long threshold = misfireThreshold;
+        int rung = 0;
+        for (int i = 0; i < due.size(); i++) {
+            entry = (AlarmEntry) due.get(i);
+            long late = now - entry.alarmTime;
+            if (late > threshold) {
+                entry.misfired();
+                if (m != null)
+                    m.recordMisfire();
+                if (t != null)
+                    t.alarmMisfired(this, entry, late);
+                
+                if (entry.getMisfirePolicy() == AlarmEntry.MISFIRE_SKIP) {
+                    if (m != null)
+                        m.recordSkipped(1);
+                    if (entry.isRepeating) {
+                        long previous = entry.alarmTime;
+                        entry.updateAlarmTime();
+                        queue.add(entry);
+                        if (t != null)
+                            t.alarmRescheduled(this, entry, previous);
+                    }
+                    else {
+                        index.remove(entry);
+                    }
+                    if (store != null)
+                        store.fired(entry);
+                    continue;
+                }
+            }
+            
+            due.set(rung++, entry);
+            entry.lastAlarmTime = entry.alarmTime;
+            if (entry.isRepeating && entry.getRepeatMode() == AlarmEntry.REPEAT_FIXED_DELAY) {
+                // queued again when its listener is done: see ringEnded().
+                // Until then, the soonest it could ring next is what the
+                // store keeps, so a crash meanwhile doesn't ring it again
+                entry.updateAlarmTime(entry.lastAlarmTime);
+                awaitingRing.add(entry);
+            }
+            else if (entry.isRepeating) {
+                if (entry.getMisfirePolicy() == AlarmEntry.MISFIRE_FIRE_ALL) {
+                    // from the time just rung: if that's far behind, the
+                    // next one is due too, and rings in the next pass
+                    entry.updateAlarmTime(entry.lastAlarmTime);
+                }
+                else {
+                    entry.updateAlarmTime();
+                }
+                queue.add(entry);
+                if (t != null)
+                    t.alarmRescheduled(this, entry, entry.lastAlarmTime);
+            }
+            else {
+                index.remove(entry);
+            }
+            if (store != null)
+                store.fired(entry);
+        }
+        if (rung < due.size())
+            due.subList(rung, due.size()).clear(); // skipped misfires
+        if (maxRingRate > 0)
+            ringPermits -= rung;
         
-        // NOTE: if the entry is still running when its next alarm time comes up,
-        // that execution of the entry will be skipped.
-        if( entry.isRingInNewThread() ) {
-            new Thread( new RunnableRinger(entry) ).start();
+        if (due.isEmpty() && !queue.isEmpty() && waiter != null) {
+            // set the waiter for the next alarm, or the next permit
+            long next = queue.first().alarmTime;
+            if (maxRingRate > 0 && ringPermits < 1)
+                next = Math.max(next, now + (long) Math.ceil((1 - ringPermits) * 1000 / maxRingRate));
+            waiter.restart(next);
         }
-        else {
-            // ring in same thread, sequentially.. can delay other alarms
-            try {
-                entry.ringAlarm();
+        return due;
+    }
+    
+    /**
+     * Rings a pass of due alarms.  Alarms whose listener is a
+     * BatchAlarmListener are rung together, once per listener and ring
+     * mode, where the first of them was due; each is admitted by its
+     * overlap policy first, as when rung alone.
+     */
+    private void dispatchAll(List _due) {
+        List batches = null;
+        for (int i = 0; i < _due.size(); i++) {
+            AlarmEntry entry = (AlarmEntry) _due.get(i);
+            if (!(entry.getListener() instanceof BatchAlarmListener))
+                continue;
+            if (!admit(entry)) {
+                _due.set(i, null); // skipped, or rung by the ring under way
+                continue;
             }
-            catch(Exception e) {
-                e.printStackTrace();
+            
+            if (batches == null)
+                batches = new ArrayList();
+            BatchRinger batch = null;
+            for (int b = 0; b < batches.size() && batch == null; b++) {
+                BatchRinger candidate = (BatchRinger) batches.get(b);
+                if (candidate.listener == entry.getListener()
+                        && candidate.ringMode == entry.getRingMode())
+                    batch = candidate;
+            }
+            if (batch == null) {
+                batch = new BatchRinger((BatchAlarmListener) entry.getListener(), entry.getRingMode());
+                batches.add(batch);
+                _due.set(i, batch); // rung from here
             }
+            else {
+                _due.set(i, null);
+            }
+            batch.entries.add(entry);
         }
         
-        // Reactivates the alarm if it is repetitive
-        if (entry.isRepeating) {
-            entry.updateAlarmTime();
-            queue.add(entry);
+        for (int i = 0; i < _due.size(); i++) {
+            Object next = _due.get(i);
+            if (next instanceof AlarmEntry) {
+                dispatch((AlarmEntry) next);
+            }
+            else if (next != null) {
+                BatchRinger batch = (BatchRinger) next;
+                ring(batch.ringMode, batch);
+            }
         }
+    }
+    
+    /**
+     * Rings an entry according to its ring mode.
+     */
+    protected void dispatch(AlarmEntry _entry) {
+        if (admit(_entry))
+            ring(_entry.getRingMode(), new RunnableRinger(_entry));
+    }
+    
+    /**
+     * Admits a ring of an entry according to its overlap policy.  A ring
+     * admitted is counted until <code>ringEnded()</code>.
+     *
+     * @return <code>true</code> if it rings now; <code>false</code> if it
+     * was skipped, or the ring under way runs it when done.
+     */
+    private boolean admit(AlarmEntry _entry) {
+        int admitted = _entry.admitRing();
+        if (admitted == AlarmEntry.ADMIT_RUN)
+            return true;
         
-        // Notifies the AlarmWaiter thread for the next alarm
-        if (queue.isEmpty()) {
-            debug("no more alarms to handle; queue is empty");
+        AlarmMetrics m = metrics;
+        if (m != null) {
+            m.recordOverlap();
+            if (admitted == AlarmEntry.ADMIT_REFUSED)
+                m.recordSkipped(1);
         }
-        else {
-            long alarmTime = ((AlarmEntry)queue.first()).alarmTime;
-            if (alarmTime - System.currentTimeMillis() < 1000) {
-                debug("next alarm is within 1 sec or already past - ring it without waiting");
-                ringNextAlarm();
+        if (admitted == AlarmEntry.ADMIT_REFUSED
+                && _entry.getRepeatMode() == AlarmEntry.REPEAT_FIXED_DELAY)
+            rescheduleAfterRing(_entry);
+        return admitted == AlarmEntry.ADMIT_RUN_OVERLAPPING;
+    }
+    
+    private void ring(int _ringMode, Runnable _ringer) {
+        switch (_ringMode) {
+        case AlarmEntry.RING_POOLED:
+        case AlarmEntry.RING_VIRTUAL:
+            Executor executor = (_ringMode == AlarmEntry.RING_VIRTUAL)
+                    ? getVirtualExecutor() : getRingExecutor();
+            try {
+                executor.execute(_ringer);
+                return;
             }
-            else {
-                debug("updating the waiter for next alarm: " + queue.first());
-                waiter.restart(alarmTime);
+            catch(RejectedExecutionException e) {
+                // ring in the waiter thread instead
+                AlarmMetrics m = metrics;
+                if (m != null)
+                    m.recordRejected();
             }
+            break;
+        case AlarmEntry.RING_DEDICATED:
+            new Thread(_ringer).start();
+            return;
+        }
+        
+        // ring in same thread, sequentially.. can delay other alarms
+        _ringer.run();
+    }
+    
+    /**
+     * Ends a ring of an entry, once its listener is done.
+     *
+     * @return <code>true</code> if a ring queued meanwhile must run now.
+     */
+    private boolean ringEnded(AlarmEntry _entry) {
+        if (_entry.getRepeatMode() == AlarmEntry.REPEAT_FIXED_DELAY && _entry.isRepeating)
+            rescheduleAfterRing(_entry);
+        return _entry.endRinging();
+    }
+    
+    /**
+     * Queues a <code>REPEAT_FIXED_DELAY</code> alarm again, from the
+     * current time, unless it was removed or rescheduled while its
+     * listener ran.
+     */
+    private synchronized void rescheduleAfterRing(AlarmEntry _entry) {
+        if (!awaitingRing.remove(_entry))
+            return;
+        
+        _entry.updateAlarmTime();
+        queue.add(_entry);
+        AlarmTracer t = tracer;
+        if (t != null)
+            t.alarmRescheduled(this, _entry, _entry.lastAlarmTime);
+        if (store != null)
+            store.fired(_entry); // records the new alarm time
+        if (queue.first() == _entry && waiter != null)
+            waiter.update(_entry.alarmTime);
+    }
+    
+    /**
+     * @return the number of AsyncAlarmListener rings whose stage has not
+     * completed yet.
+     */
+    public int getAsyncRingCount() {
+        return asyncRings.get();
+    }
+    
+    /**
+     * @return the scheduler timing AsyncAlarmListener rings out, created on
+     * first use, or <code>null</code> once the manager is stopped.
+     */
+    private synchronized ScheduledThreadPoolExecutor getTimeoutScheduler() {
+        if (timeoutScheduler == null && waiter != null) {
+            timeoutScheduler = new ScheduledThreadPoolExecutor(1,
+                    new RingerThreadFactory(threadName + "-timeout-", isDaemon));
+            timeoutScheduler.setRemoveOnCancelPolicy(true);
         }
-    } // notifyListeners()
+        return timeoutScheduler;
+    }
     
     /**
      * Stops the waiter thread before ending.
@@ -491,11 +1584,121 @@ public class AlarmManager {
     public void finalize() {
         if (waiter != null)
             waiter.stop();
+        if (ownsRingExecutor)
+            ((ExecutorService) ringExecutor).shutdown();
+        if (virtualExecutor != null)
+            virtualExecutor.shutdown();
+        if (timeoutScheduler != null)
+            timeoutScheduler.shutdownNow();
+    }
+    
+    /**
+     * An add or remove waiting in the lock-free inbox.
+     */
+    private static class Registration {
+        final AlarmEntry entry;
+        final boolean isAdd;
+        
+        Registration(AlarmEntry _entry, boolean _isAdd) {
+            entry = _entry;
+            isAdd = _isAdd;
+        }
+    }
+    
+    /**
+     * Names the threads of the default ring pool (and of the timeout
+     * scheduler) after the waiter thread.
+     */
+    private static class RingerThreadFactory implements ThreadFactory {
+        private final AtomicInteger count = new AtomicInteger(0);
+        private final String prefix;
+        private final boolean isDaemon;
+        
+        RingerThreadFactory(String _prefix, boolean _isDaemon) {
+            prefix = _prefix;
+            isDaemon = _isDaemon;
+        }
+        
+        public Thread newThread(Runnable _runnable) {
+            Thread thread = new Thread(_runnable, prefix + count.incrementAndGet());
+            thread.setDaemon(isDaemon);
+            return thread;
+        }
+    }
+    
+    /**
+     * Rings the alarms of a BatchAlarmListener which are due together.
+     * Rings of them queued by their overlap policy meanwhile are rung
+     * together after.
+     */
+    private class BatchRinger implements Runnable {
+        final BatchAlarmListener listener;
+        final int ringMode;
+        final List /* of AlarmEntry */ entries = new ArrayList();
+        
+        BatchRinger(BatchAlarmListener _listener, int _ringMode) {
+            listener = _listener;
+            ringMode = _ringMode;
+        }
+        
+        public void run() {
+            List ringing = entries;
+            while (!ringing.isEmpty()) {
+                List again = new ArrayList();
+                try {
+                    ringOnce(ringing);
+                }
+                finally {
+                    for (int i = 0; i < ringing.size(); i++) {
+                        AlarmEntry entry = (AlarmEntry) ringing.get(i);
+                        if (ringEnded(entry))
+                            again.add(entry); // a ring queued by the overlap policy
+                    }
+                }
+                ringing = again;
+            }
+        }
+        
+        private void ringOnce(List /* of AlarmEntry */ _entries) {
+            AlarmMetrics m = metrics;
+            AlarmTracer t = tracer;
+            if (t != null) {
+                for (int i = 0; i < _entries.size(); i++)
+                    t.alarmFired(AlarmManager.this, (AlarmEntry) _entries.get(i));
+            }
+            long start = 0;
+            if (m != null) {
+                long now = clock.currentTimeMillis();
+                for (int i = 0; i < _entries.size(); i++)
+                    m.recordFireLag(now - ((AlarmEntry) _entries.get(i)).lastAlarmTime);
+                start = System.nanoTime();
+            }
+            try {
+                listener.handleAlarms(_entries);
+            }
+            catch(Exception e) {
+                listenerFailed((AlarmEntry) _entries.get(0), e);
+            }
+            if (m != null)
+                m.recordRing(null, _entries.size(), System.nanoTime() - start);
+        }
+        
+        public String toString() {
+            return entries.size() + " alarms for " + listener;
+        }
+    }
+    
+    private void listenerFailed(AlarmEntry _entry, Throwable _failure) {
+        AlarmTracer t = tracer;
+        if (t != null)
+            t.listenerFailed(this, _entry, _failure);
+        else
+            _failure.printStackTrace();
     }
     
     /**
-     * Used to ring an AlarmEntry in a new Thread.
-     * @see com.jtheory.jdring.AlarmEntry#setRingInNewThread()
+     * Used to ring an AlarmEntry, in whichever Thread its ring mode calls for.
+     * @see com.jtheory.jdring.AlarmEntry#setRingMode(int)
      */
     private class RunnableRinger implements Runnable {
         AlarmEntry entry = null;
@@ -505,12 +1708,148 @@ public class AlarmManager {
         }
         
         public void run() {
+            boolean again = false;
+            do {
+                boolean pending = false;
+                try {
+                    pending = ringOnce();
+                }
+                finally {
+                    if (!pending)
+                        again = ringEnded(entry); // a ring queued by the overlap policy
+                }
+                if (pending)
+                    return; // ended by its AsyncRing
+            }
+            while (again);
+        }
+        
+        /**
+         * @return <code>true</code> if the ring goes on asynchronously.
+         */
+        private boolean ringOnce() {
+            AlarmMetrics m = metrics;
+            AlarmTracer t = tracer;
+            if (t != null)
+                t.alarmFired(AlarmManager.this, entry);
+            long start = 0;
+            if (m != null) {
+                m.recordFireLag(clock.currentTimeMillis() - entry.lastAlarmTime);
+                start = System.nanoTime();
+            }
             try {
-                entry.ringAlarm();
+                AlarmListener listener = entry.getListener();
+                if (listener instanceof AsyncAlarmListener) {
+                    CompletionStage stage = ((AsyncAlarmListener) listener).handleAlarmAsync(entry);
+                    if (stage != null) {
+                        new AsyncRing(entry, m, start).watch(stage);
+                        return true;
+                    }
+                }
+                else {
+                    entry.ringAlarm();
+                }
             }
             catch(Exception e) {
-                e.printStackTrace();
+                listenerFailed(entry, e);
             }
+            if (m != null)
+                m.recordRing(entry.getName(), 1, System.nanoTime() - start);
+            return false;
+        }
+        
+        public String toString() {
+            return entry.toString();
+        }
+    }
+    
+    /**
+     * A ring of an AsyncAlarmListener, waiting for its stage to complete
+     * or for its timeout, whichever comes first.  No thread waits: the
+     * ring is ended by the thread completing the stage, or by the timeout
+     * scheduler.
+     */
+    private class AsyncRing implements BiConsumer, Runnable {
+        private final AlarmEntry entry;
+        private final AlarmMetrics metrics; // as when the ring started
+        private final long start;
+        private final AtomicBoolean ended = new AtomicBoolean(false);
+        private CompletionStage stage;
+        private volatile ScheduledFuture timeout;
+        
+        AsyncRing(AlarmEntry _entry, AlarmMetrics _metrics, long _start) {
+            entry = _entry;
+            metrics = _metrics;
+            start = _start;
+        }
+        
+        void watch(CompletionStage _stage) {
+            stage = _stage;
+            asyncRings.incrementAndGet();
+            long millis = entry.getListenerTimeout();
+            ScheduledThreadPoolExecutor scheduler = (millis > 0) ? getTimeoutScheduler() : null;
+            if (scheduler != null) {
+                try {
+                    timeout = scheduler.schedule(this, millis, TimeUnit.MILLISECONDS);
+                }
+                catch(RejectedExecutionException e) {
+                    // stopping: no timeout
+                }
+            }
+            _stage.whenComplete(this);
+        }
+        
+        /**
+         * The stage completed.
+         */
+        public void accept(Object _result, Object _failure) {
+            if (!ended.compareAndSet(false, true))
+                return; // timed out already
+            
+            ScheduledFuture t = timeout;
+            if (t != null)
+                t.cancel(false);
+            if (_failure != null) {
+                Throwable failure = (Throwable) _failure;
+                if (failure instanceof CompletionException && failure.getCause() != null)
+                    failure = failure.getCause();
+                listenerFailed(entry, failure);
+            }
+            end();
+        }
+        
+        /**
+         * The timeout went off.
+         */
+        public void run() {
+            if (!ended.compareAndSet(false, true))
+                return; // completed already
+            
+            try {
+                stage.toCompletableFuture().cancel(false);
+            }
+            catch(UnsupportedOperationException e) {
+                // a stage which can't be cancelled: its completion is ignored
+            }
+            if (metrics != null)
+                metrics.recordTimeout();
+            listenerFailed(entry, new TimeoutException("alarm " + entry.getName()
+                    + " not done after " + entry.getListenerTimeout() + " ms"));
+            end();
+        }
+        
+        private void end() {
+            asyncRings.decrementAndGet();
+            if (metrics != null)
+                metrics.recordRing(entry.getName(), 1, System.nanoTime() - start);
+            if (ringEnded(entry)) {
+                // a ring queued by the overlap policy
+                ring(entry.getRingMode(), new RunnableRinger(entry));
+            }
+        }
+        
+        public String toString() {
+            return entry.toString();
         }
     }
 }
@@ -0,0 +1,325 @@
+/*
+ *  com/jtheory/jdring/AlarmMetrics.java
+ *  Copyright (C) 1999 - 2004 jtheory creations, Olivier Dedieu et al.
+ *
+ *  This library is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU Library General Public License as published
+ *  by the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Library General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Library General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+
+package com.jtheory.jdring;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * What an AlarmManager has been doing: how late alarms ring (the fire
+ * lag, from their alarm time to their listener starting), how long their
+ * listeners take, overall and per alarm name, how many ring, and how many
+ * were skipped, overlapped a previous ring or were turned down by the
+ * ring executor.  Recording takes no lock, and costs nothing until
+ * enabled with <code>AlarmManager.enableMetrics()</code>.<p>
+ *
+ * Listener times are kept per alarm name for the first
+ * <code>MAX_TIMED_ALARMS</code> names only, about 2 KB each; the overall
+ * histogram counts every alarm.<p>
+ *
+ * Example of use:
+ * <pre>
+ *  AlarmMetrics metrics = mgr.enableMetrics();
+ *  metrics.registerMBean(); // com.jtheory.jdring:type=AlarmManager,name=...
+ *  ...
+ *  System.out.println("fire lag: " + metrics.getFireLag());
+ * </pre>
+ *
+ * @see AlarmManager#enableMetrics()
+ */
+public class AlarmMetrics implements AlarmMetricsMXBean {
+    /** The number of alarm names listener times are kept for. */
+    public static final int MAX_TIMED_ALARMS = 1000;
+
+    private static final long HOUR_MILLIS = 3600L * 1000;
+    private static final long HOUR_MICROS = HOUR_MILLIS * 1000;
+
+    private final AlarmManager manager;
+    private final LatencyHistogram fireLag = new LatencyHistogram(HOUR_MILLIS, 5);
+    private final LatencyHistogram listenerTime = new LatencyHistogram(HOUR_MICROS, 5);
+    private final ConcurrentHashMap /* of String to LatencyHistogram */ listenerTimes =
+        new ConcurrentHashMap();
+
+    private final AtomicLong rings = new AtomicLong();
+    private final AtomicLong skipped = new AtomicLong();
+    private final AtomicLong overlaps = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong misfires = new AtomicLong();
+    private final AtomicLong timeouts = new AtomicLong();
+
+    // see getRingsPerSecond()
+    private long rateTime = System.nanoTime();
+    private long rateRings = 0;
+    private double rate = 0;
+
+    private ObjectName mbeanName;
+
+    AlarmMetrics(AlarmManager _manager) {
+        manager = _manager;
+    }
+
+    // ----------------------------------------------------------------------
+    //                      Recording, from the manager
+    // ----------------------------------------------------------------------
+
+    void recordFireLag(long _millis) {
+        fireLag.record(_millis);
+    }
+
+    /**
+     * Records a listener run.
+     *
+     * @param alarmName the alarm rung, or <code>null</code> for a batch.
+     * @param count the number of alarms rung.
+     * @param nanos the time the listener took.
+     */
+    void recordRing(String _alarmName, int _count, long _nanos) {
+        rings.addAndGet(_count);
+        long micros = _nanos / 1000;
+        listenerTime.record(micros);
+        if (_alarmName == null)
+            return;
+
+        LatencyHistogram histogram = (LatencyHistogram) listenerTimes.get(_alarmName);
+        if (histogram == null) {
+            if (listenerTimes.size() >= MAX_TIMED_ALARMS)
+                return;
+            histogram = new LatencyHistogram(HOUR_MICROS, 3);
+            LatencyHistogram raced = (LatencyHistogram) listenerTimes.putIfAbsent(_alarmName, histogram);
+            if (raced != null)
+                histogram = raced;
+        }
+        histogram.record(micros);
+    }
+
+    void recordSkipped(int _count) {
+        skipped.addAndGet(_count);
+    }
+
+    void recordOverlap() {
+        overlaps.incrementAndGet();
+    }
+
+    void recordRejected() {
+        rejected.incrementAndGet();
+    }
+
+    void recordMisfire() {
+        misfires.incrementAndGet();
+    }
+
+    void recordTimeout() {
+        timeouts.incrementAndGet();
+    }
+
+    // ----------------------------------------------------------------------
+    //                      Reading
+    // ----------------------------------------------------------------------
+
+    /**
+     * @return the fire lag of the alarms rung, in milliseconds of the
+     * manager's clock.
+     */
+    public LatencyHistogram getFireLag() {
+        return fireLag;
+    }
+
+    /**
+     * @return the time listeners took, in microseconds.
+     */
+    public LatencyHistogram getListenerTime() {
+        return listenerTime;
+    }
+
+    /**
+     * @return the time the listener of the alarms with the given name took,
+     * in microseconds, or <code>null</code> if it wasn't kept.
+     */
+    public LatencyHistogram getListenerTime(String _alarmName) {
+        return (LatencyHistogram) listenerTimes.get(_alarmName);
+    }
+
+    public int getQueueSize() {
+        return manager.getAlarmCount();
+    }
+
+    public long getRingCount() {
+        return rings.get();
+    }
+
+    /**
+     * @return the number of alarms rung per second, over the time since
+     * this was last asked (if that's at least a second).
+     */
+    public synchronized double getRingsPerSecond() {
+        long now = System.nanoTime();
+        if (now - rateTime >= TimeUnit.SECONDS.toNanos(1)) {
+            long count = rings.get();
+            rate = (count - rateRings) * 1e9 / (now - rateTime);
+            rateTime = now;
+            rateRings = count;
+        }
+        return rate;
+    }
+
+    /**
+     * @return the number of alarm times not rung by this manager: those
+     * of alarms another cluster member rings, and those skipped by the
+     * alarm's misfire or overlap policy.
+     */
+    public long getSkippedCount() {
+        return skipped.get();
+    }
+
+    /**
+     * @return the number of alarm times that came up while the listener
+     * was still running from a previous one, whatever the entry's overlap
+     * policy did with them.
+     */
+    public long getOverlapCount() {
+        return overlaps.get();
+    }
+
+    public long getRejectedCount() {
+        return rejected.get();
+    }
+
+    /**
+     * @return the number of alarms due later than the manager's misfire
+     * threshold, whether they rang or were skipped.
+     */
+    public long getMisfireCount() {
+        return misfires.get();
+    }
+
+    /**
+     * @return the number of AsyncAlarmListener rings ended by their
+     * entry's listener timeout.
+     */
+    public long getTimeoutCount() {
+        return timeouts.get();
+    }
+
+    public int getAsyncRingCount() {
+        return manager.getAsyncRingCount();
+    }
+
+    public double getFireLagMeanMillis() {
+        return fireLag.getMean();
+    }
+
+    public long getFireLag99thPercentileMillis() {
+        return fireLag.getValueAtPercentile(99);
+    }
+
+    public long getFireLagMaxMillis() {
+        return fireLag.getMax();
+    }
+
+    public double getListenerTimeMeanMicros() {
+        return listenerTime.getMean();
+    }
+
+    public long getListenerTime99thPercentileMicros() {
+        return listenerTime.getValueAtPercentile(99);
+    }
+
+    public long getListenerTimeMaxMicros() {
+        return listenerTime.getMax();
+    }
+
+    public long getListenerTimePercentileMicros(String _alarmName, double _percentile) {
+        LatencyHistogram histogram = getListenerTime(_alarmName);
+        return (histogram != null) ? histogram.getValueAtPercentile(_percentile) : -1;
+    }
+
+    public String[] getTimedAlarmNames() {
+        return (String[]) listenerTimes.keySet().toArray(new String[0]);
+    }
+
+    public int getRingPoolActiveThreads() {
+        Executor executor = manager.peekRingExecutor();
+        return (executor instanceof ThreadPoolExecutor)
+            ? ((ThreadPoolExecutor) executor).getActiveCount() : 0;
+    }
+
+    public int getRingPoolQueuedRings() {
+        Executor executor = manager.peekRingExecutor();
+        return (executor instanceof ThreadPoolExecutor)
+            ? ((ThreadPoolExecutor) executor).getQueue().size() : 0;
+    }
+
+    // ----------------------------------------------------------------------
+    //                      JMX
+    // ----------------------------------------------------------------------
+
+    /**
+     * Exports these metrics to the platform MBean server, as
+     * <code>com.jtheory.jdring:type=AlarmManager,name=</code><i>the
+     * manager's thread name</i>.  They are unregistered when the manager
+     * stops.
+     *
+     * @return the name of the MBean.
+     * @exception JMException if the MBean can't be registered, e.g. because
+     * another manager has the same name.
+     */
+    public synchronized ObjectName registerMBean() throws JMException {
+        if (mbeanName == null) {
+            ObjectName name = new ObjectName("com.jtheory.jdring:type=AlarmManager,name="
+                    + ObjectName.quote(String.valueOf(manager.getThreadName())));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, name);
+            mbeanName = name;
+        }
+        return mbeanName;
+    }
+
+    /**
+     * Removes these metrics from the platform MBean server, if they were
+     * exported.
+     */
+    public synchronized void unregisterMBean() {
+        if (mbeanName == null)
+            return;
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            if (server.isRegistered(mbeanName))
+                server.unregisterMBean(mbeanName);
+        }
+        catch(JMException e) {
+            e.printStackTrace();
+        }
+        mbeanName = null;
+    }
+
+    public String toString() {
+        return "rings " + getRingCount() + ", skipped " + getSkippedCount() + ", overlaps "
+            + getOverlapCount() + ", rejected " + getRejectedCount() + ", misfires "
+            + getMisfireCount() + ", timeouts " + getTimeoutCount() + "; fire lag (ms) "
+            + fireLag + "; listener time (us) " + listenerTime;
+    }
+}
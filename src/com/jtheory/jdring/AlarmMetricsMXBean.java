@@ -0,0 +1,80 @@
+/*
+ *  com/jtheory/jdring/AlarmMetricsMXBean.java
+ *  Copyright (C) 1999 - 2004 jtheory creations, Olivier Dedieu et al.
+ *
+ *  This library is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU Library General Public License as published
+ *  by the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Library General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Library General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+
+package com.jtheory.jdring;
+
+/**
+ * The management interface of an AlarmManager's metrics, as exported to
+ * JMX by <code>AlarmMetrics.registerMBean()</code>.
+ *
+ * @see AlarmMetrics
+ */
+public interface AlarmMetricsMXBean {
+
+    /** @return the number of alarms in the manager. */
+    public int getQueueSize();
+
+    /** @return the number of alarms rung since metrics were enabled. */
+    public long getRingCount();
+
+    /** @return the number of alarms rung per second, lately. */
+    public double getRingsPerSecond();
+
+    /** @return the number of alarm times not rung by this manager. */
+    public long getSkippedCount();
+
+    /** @return the number of alarms rung while still running from before. */
+    public long getOverlapCount();
+
+    /** @return the number of rings the ring executor turned down. */
+    public long getRejectedCount();
+
+    /** @return the number of alarms due later than the misfire threshold. */
+    public long getMisfireCount();
+
+    /** @return the number of asynchronous listeners timed out. */
+    public long getTimeoutCount();
+
+    /** @return the number of asynchronous listeners not done yet. */
+    public int getAsyncRingCount();
+
+    public double getFireLagMeanMillis();
+    public long getFireLag99thPercentileMillis();
+    public long getFireLagMaxMillis();
+
+    public double getListenerTimeMeanMicros();
+    public long getListenerTime99thPercentileMicros();
+    public long getListenerTimeMaxMicros();
+
+    /**
+     * @return a percentile of the listener time of the alarms with the
+     * given name, or -1 if none was timed.
+     */
+    public long getListenerTimePercentileMicros(String alarmName, double percentile);
+
+    /** @return the names of the alarms whose listener time is kept. */
+    public String[] getTimedAlarmNames();
+
+    /** @return the number of threads ringing alarms in the default ring pool. */
+    public int getRingPoolActiveThreads();
+
+    /** @return the number of rings waiting in the default ring pool. */
+    public int getRingPoolQueuedRings();
+}
@@ -0,0 +1,280 @@
+/*
+ *  com/jtheory/jdring/AlarmPublisher.java
+ *  Copyright (C) 1999 - 2004 jtheory creations, Olivier Dedieu et al.
+ *
+ *  This library is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU Library General Public License as published
+ *  by the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Library General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Library General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+
+package com.jtheory.jdring;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Publishes the alarms rung by an AlarmManager -- all of them, those with
+ * a name, or those with a tag -- to subscribers taking them at their own
+ * pace, in the manner of <code>java.util.concurrent.Flow</code>.<p>
+ *
+ * Each subscriber has a bounded buffer.  A rung alarm is put in the buffer
+ * without waiting, and handed to the subscriber on the publisher's
+ * executor as the subscriber requests alarms: a slow subscriber never
+ * holds up the waiter thread.  When a buffer is full, the alarm is dropped
+ * for that subscriber and counted.  Subscribers get a copy of each entry
+ * as it was rung, so <code>getLastAlarmTime()</code> is the alarm time
+ * rung, even if the entry rang again since.  Alarms still ring their
+ * listener, if they have one.<p>
+ *
+ * Example of use:
+ * <pre>
+ *  AlarmPublisher reports = mgr.createPublisherForTag("reports");
+ *  reports.subscribe(subscriber);
+ *  // or, on Java 9 and above:
+ *  Flow.Publisher&lt;AlarmEntry&gt; flow = (Flow.Publisher&lt;AlarmEntry&gt;) reports.asFlowPublisher();
+ * </pre>
+ *
+ * @see AlarmManager#createPublisher()
+ */
+public class AlarmPublisher {
+    /** The default size of each subscriber's buffer. */
+    public static final int DEFAULT_BUFFER_SIZE = 256;
+
+    private final AlarmManager manager;
+    private final String name; // or null
+    private final String tag;  // or null
+    private final Executor executor;
+    private final int bufferSize;
+    private final CopyOnWriteArrayList /* of Subscription */ subscriptions = new CopyOnWriteArrayList();
+    private volatile boolean closed = false;
+
+    /**
+     * For AlarmManager.createPublisher...() only.
+     */
+    AlarmPublisher(AlarmManager _manager, String _name, String _tag, Executor _executor,
+            int _bufferSize) {
+        if (_bufferSize < 1)
+            throw new IllegalArgumentException("buffer too small: " + _bufferSize);
+        manager = _manager;
+        name = _name;
+        tag = _tag;
+        executor = _executor;
+        bufferSize = _bufferSize;
+    }
+
+    /**
+     * Adds a subscriber.  It gets its subscription first, then the alarms
+     * rung from then on, as it requests them.  A subscriber added to a
+     * closed publisher completes at once.
+     */
+    public void subscribe(AlarmSubscriber _subscriber) {
+        if (_subscriber == null)
+            throw new NullPointerException("subscriber");
+
+        Subscription subscription = new Subscription(_subscriber);
+        subscriptions.add(subscription);
+        if (closed)
+            subscription.complete();
+        subscription.signal();
+    }
+
+    /**
+     * @return the number of alarms dropped so far, because a subscriber's
+     * buffer was full.
+     */
+    public long getDroppedCount() {
+        long dropped = 0;
+        for (int i = 0; i < subscriptions.size(); i++)
+            dropped += ((Subscription) subscriptions.get(i)).dropped.get();
+        return dropped;
+    }
+
+    public int getSubscriberCount() {
+        return subscriptions.size();
+    }
+
+    /**
+     * Stops publishing: subscribers complete once they have received the
+     * alarms already in their buffer.
+     */
+    public void close() {
+        if (closed)
+            return;
+        closed = true;
+        manager.removePublisher(this);
+        for (int i = 0; i < subscriptions.size(); i++) {
+            Subscription subscription = (Subscription) subscriptions.get(i);
+            subscription.complete();
+            subscription.signal();
+        }
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Returns this publisher as a <code>java.util.concurrent.Flow.Publisher</code>
+     * of AlarmEntries.  The library is compiled for runtimes without Flow,
+     * so the result is typed as an Object, to cast.
+     *
+     * @exception UnsupportedOperationException on runtimes without Flow
+     * (before Java 9).
+     */
+    public Object asFlowPublisher() {
+        return FlowAdapter.toFlowPublisher(this);
+    }
+
+    /**
+     * Hands a rung alarm to the subscribers, if it's one of ours.  Called
+     * by the manager, in the waiter thread: never waits.
+     */
+    void publish(AlarmEntry _entry) {
+        if (_entry.isLocal)
+            return; // the manager's own, e.g. AlarmCluster's lease renewal
+        if (name != null && !name.equals(_entry.getName()))
+            return;
+        if (tag != null && !_entry.hasTag(tag))
+            return;
+        if (subscriptions.isEmpty())
+            return;
+
+        AlarmEntry rung = _entry.snapshot();
+        for (int i = 0; i < subscriptions.size(); i++) {
+            Subscription subscription = (Subscription) subscriptions.get(i);
+            if (subscription.buffer.offer(rung))
+                subscription.signal();
+            else
+                subscription.dropped.incrementAndGet();
+        }
+    }
+
+    public String toString() {
+        return "AlarmPublisher for " + ((name != null) ? "alarm " + name
+                : (tag != null) ? "tag " + tag : "all alarms")
+            + " (" + subscriptions.size() + " subscribers)";
+    }
+
+    /**
+     * A subscriber's buffer and demand.  Whatever is to be done for the
+     * subscriber is done by one drain task at a time, on the executor: the
+     * work-in-progress count tells whether one is scheduled already.
+     */
+    private class Subscription implements AlarmSubscription, Runnable {
+        final AlarmSubscriber subscriber;
+        final ArrayBlockingQueue /* of AlarmEntry */ buffer = new ArrayBlockingQueue(bufferSize);
+        final AtomicLong demand = new AtomicLong();
+        final AtomicInteger wip = new AtomicInteger();
+        final AtomicLong dropped = new AtomicLong();
+        final AtomicBoolean completing = new AtomicBoolean();
+        volatile boolean subscribed = false;
+        volatile boolean done = false; // completed, failed or cancelled
+        volatile Throwable failure;
+
+        Subscription(AlarmSubscriber _subscriber) {
+            subscriber = _subscriber;
+        }
+
+        public void request(long _n) {
+            if (_n <= 0) {
+                failure = new IllegalArgumentException("non-positive request: " + _n);
+            }
+            else {
+                long current;
+                long next;
+                do {
+                    current = demand.get();
+                    next = current + _n;
+                    if (next < 0)
+                        next = Long.MAX_VALUE; // no limit
+                }
+                while (!demand.compareAndSet(current, next));
+            }
+            signal();
+        }
+
+        public void cancel() {
+            done = true;
+            subscriptions.remove(this);
+            buffer.clear();
+        }
+
+        void complete() {
+            completing.set(true);
+        }
+
+        /**
+         * Schedules a drain, unless one is under way: it will see what
+         * changed.
+         */
+        void signal() {
+            if (wip.getAndIncrement() != 0)
+                return;
+            try {
+                executor.execute(this);
+            }
+            catch(RejectedExecutionException e) {
+                run(); // the executor was shut down: drain here
+            }
+        }
+
+        public void run() {
+            int missed = 1;
+            do {
+                drain();
+                missed = wip.addAndGet(-missed);
+            }
+            while (missed != 0);
+        }
+
+        private void drain() {
+            if (done)
+                return;
+            try {
+                if (!subscribed) {
+                    subscribed = true;
+                    subscriber.onSubscribe(this);
+                }
+                while (!done && failure == null && demand.get() > 0) {
+                    AlarmEntry entry = (AlarmEntry) buffer.poll();
+                    if (entry == null)
+                        break;
+                    if (demand.get() != Long.MAX_VALUE)
+                        demand.decrementAndGet();
+                    subscriber.onNext(entry);
+                }
+                if (done)
+                    return;
+                if (failure != null) {
+                    cancel();
+                    subscriber.onError(failure);
+                }
+                else if (completing.get() && buffer.isEmpty()) {
+                    cancel();
+                    subscriber.onComplete();
+                }
+            }
+            catch(RuntimeException e) {
+                // subscribers must not throw: drop this one
+                cancel();
+                e.printStackTrace();
+            }
+        }
+    }
+}
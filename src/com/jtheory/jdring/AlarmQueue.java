@@ -0,0 +1,92 @@
+/*
+ *  com/jtheory/jdring/AlarmQueue.java
+ *  Copyright (C) 1999 - 2004 jtheory creations, Olivier Dedieu et al.
+ *
+ *  This library is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU Library General Public License as published
+ *  by the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Library General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Library General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+package com.jtheory.jdring;
+
+import java.util.List;
+
+/**
+ * The queue of pending alarms held by an AlarmManager, ordered by
+ * <code>alarmTime</code>.<p>
+ *
+ * Implementations are not synchronized: the AlarmManager only touches its
+ * queue while holding its own monitor.  An entry must be removed from the
+ * queue before its <code>alarmTime</code> is changed, and re-added after.
+ *
+ * @see TreeSetAlarmQueue
+ * @see TimingWheelAlarmQueue
+ */
+public interface AlarmQueue {
+
+    /**
+     * Adds an entry to the queue.
+     */
+    public void add(AlarmEntry entry);
+
+    /**
+     * Adds entries to the queue, e.g. when a manager is loaded with many
+     * alarms at startup.
+     *
+     * @param entries distinct entries, sorted by
+     * <code>AlarmEntry.compareTo()</code>, which implementations may take
+     * advantage of.
+     */
+    public void addAll(List /* of AlarmEntry */ entries);
+
+    /**
+     * Removes an entry from the queue.
+     *
+     * @return <code>true</code> if the entry was queued.
+     */
+    public boolean remove(AlarmEntry entry);
+
+    /**
+     * @return <code>true</code> if the entry is queued.
+     */
+    public boolean contains(AlarmEntry entry);
+
+    /**
+     * @return the entry that will ring first, or <code>null</code> if the
+     * queue is empty.
+     */
+    public AlarmEntry first();
+
+    /**
+     * Removes and returns the entry that will ring first, if its alarm time
+     * is not after the given time.
+     *
+     * @param now the current time, in milliseconds.
+     * @return the due entry, or <code>null</code> if no entry is due.
+     */
+    public AlarmEntry pollDue(long now);
+
+    public int size();
+
+    public boolean isEmpty();
+
+    /**
+     * Removes all the entries.
+     */
+    public void clear();
+
+    /**
+     * @return a copy of the queued entries, in the order they will ring.
+     */
+    public List toList();
+}
@@ -0,0 +1,79 @@
+/*
+ *  com/jtheory/jdring/AlarmStore.java
+ *  Copyright (C) 1999 - 2004 jtheory creations, Olivier Dedieu et al.
+ *
+ *  This library is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU Library General Public License as published
+ *  by the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Library General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Library General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+
+package com.jtheory.jdring;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Keeps the alarms of an AlarmManager across restarts.  The manager tells
+ * its store about every alarm added, removed or rung, while holding its own
+ * monitor, so implementations need no locking of their own.<p>
+ *
+ * Listeners are not stored: entries are read back with the listener
+ * registered under the same name in an <code>AlarmListenerRegistry</code>.
+ * Store methods called by the manager throw
+ * <code>java.io.UncheckedIOException</code> when the store can't be written.
+ *
+ * @see AlarmManager#setStore(AlarmStore)
+ * @see JournalAlarmStore
+ */
+public interface AlarmStore {
+
+    /**
+     * Reads back the alarms that were pending when the store was last
+     * written, with their listeners bound again.  Called once, by
+     * <code>AlarmManager.setStore()</code>, before any other method.
+     *
+     * @param clock the clock of the manager the alarms are read for.
+     * @return the pending alarms.
+     * @exception IOException if the store can't be read.
+     */
+    public List /* of AlarmEntry */ load(AlarmClock clock) throws IOException;
+
+    /**
+     * An alarm was added to the manager.
+     */
+    public void added(AlarmEntry entry);
+
+    /**
+     * An alarm was removed from the manager before ringing.
+     */
+    public void removed(AlarmEntry entry);
+
+    /**
+     * An alarm is about to ring.  A repeating alarm already has its next
+     * <code>alarmTime</code>; a one-shot alarm is gone from the manager.
+     */
+    public void fired(AlarmEntry entry);
+
+    /**
+     * All the alarms were removed from the manager.
+     */
+    public void cleared();
+
+    /**
+     * Writes out anything pending and releases the store.
+     *
+     * @exception IOException if the store can't be written.
+     */
+    public void close() throws IOException;
+}
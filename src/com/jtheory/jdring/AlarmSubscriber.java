@@ -0,0 +1,56 @@
+/*
+ *  com/jtheory/jdring/AlarmSubscriber.java
+ *  Copyright (C) 1999 - 2004 jtheory creations, Olivier Dedieu et al.
+ *
+ *  This library is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU Library General Public License as published
+ *  by the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Library General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Library General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+
+package com.jtheory.jdring;
+
+/**
+  * Receives the alarms rung by an AlarmPublisher, as many as it asked for
+  * through its AlarmSubscription.  The methods of one subscriber are called
+  * in turn, never at the same time, and never in the manager's waiter
+  * thread.  This is <code>java.util.concurrent.Flow.Subscriber</code>, for
+  * runtimes without it; see <code>AlarmPublisher.asFlowPublisher()</code>.
+  *
+  * @see AlarmPublisher#subscribe(AlarmSubscriber)
+  */
+public interface AlarmSubscriber {
+
+  /**
+    * Invoked first, with the subscription to request alarms through.
+    */
+  public abstract void onSubscribe(AlarmSubscription subscription);
+
+  /**
+    * Invoked for each alarm rung, once requested.
+    */
+  public abstract void onNext(AlarmEntry entry);
+
+  /**
+    * Invoked if the subscription fails, e.g. on a request for less than
+    * one alarm.  Nothing is received after it.
+    */
+  public abstract void onError(Throwable failure);
+
+  /**
+    * Invoked when the publisher is closed (or its manager stopped), once
+    * the alarms received before have been handed over.  Nothing is
+    * received after it.
+    */
+  public abstract void onComplete();
+}
@@ -0,0 +1,43 @@
+/*
+ *  com/jtheory/jdring/AlarmSubscription.java
+ *  Copyright (C) 1999 - 2004 jtheory creations, Olivier Dedieu et al.
+ *
+ *  This library is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU Library General Public License as published
+ *  by the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Library General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Library General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+
+package com.jtheory.jdring;
+
+/**
+  * The link between an AlarmPublisher and one of its subscribers, through
+  * which the subscriber tells how many more alarms it can take.  This is
+  * <code>java.util.concurrent.Flow.Subscription</code>, for runtimes
+  * without it.
+  *
+  * @see AlarmSubscriber
+  */
+public interface AlarmSubscription {
+
+  /**
+    * Asks for up to <code>n</code> more alarms; <code>Long.MAX_VALUE</code>
+    * means no limit.
+    */
+  public abstract void request(long n);
+
+  /**
+    * Stops receiving alarms.  Alarms waiting in the buffer are dropped.
+    */
+  public abstract void cancel();
+}
@@ -0,0 +1,84 @@
+/*
+ *  com/jtheory/jdring/AlarmTracer.java
+ *  Copyright (C) 1999 - 2004 jtheory creations, Olivier Dedieu et al.
+ *
+ *  This library is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU Library General Public License as published
+ *  by the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Library General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Library General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+
+package com.jtheory.jdring;
+
+/**
+ * Receives the events of an AlarmManager, e.g. to log or trace them.  A
+ * manager with no tracer set only checks for one at each event: nothing
+ * is built or allocated for tracing.<p>
+ *
+ * Events about the queue (added, removed, rescheduled) are sent holding
+ * the manager's monitor, so tracers must be quick and must not call back
+ * into the manager.  Extend AlarmTracerAdapter to receive only some of the
+ * events.
+ *
+ * @see AlarmManager#setTracer(AlarmTracer)
+ * @see PrintAlarmTracer
+ */
+public interface AlarmTracer {
+
+    /**
+     * An alarm was added to the manager.
+     */
+    public void alarmAdded(AlarmManager manager, AlarmEntry entry);
+
+    /**
+     * An alarm was removed from the manager (removing them all at once
+     * sends no event).
+     */
+    public void alarmRemoved(AlarmManager manager, AlarmEntry entry);
+
+    /**
+     * An alarm got a new alarm time: a repeating alarm just due, or one
+     * moved by <code>reschedule()</code>.
+     *
+     * @param previousAlarmTime the alarm time before.
+     */
+    public void alarmRescheduled(AlarmManager manager, AlarmEntry entry, long previousAlarmTime);
+
+    /**
+     * An alarm was due later than the manager's misfire threshold; it rings
+     * or not according to its misfire policy.
+     *
+     * @param lateMillis how late it was.
+     */
+    public void alarmMisfired(AlarmManager manager, AlarmEntry entry, long lateMillis);
+
+    /**
+     * An alarm's listener is about to be called, in the thread it rings in.
+     */
+    public void alarmFired(AlarmManager manager, AlarmEntry entry);
+
+    /**
+     * An alarm's listener threw an exception.  Without a tracer, its stack
+     * trace is printed.
+     *
+     * @param entry the alarm, or the first of a batch.
+     */
+    public void listenerFailed(AlarmManager manager, AlarmEntry entry, Throwable failure);
+
+    /**
+     * The manager's waiter (or virtual clock) woke up to ring due alarms.
+     *
+     * @param dueCount the number of alarms due.
+     */
+    public void waiterWoke(AlarmManager manager, int dueCount);
+}
@@ -0,0 +1,48 @@
+/*
+ *  com/jtheory/jdring/AlarmTracerAdapter.java
+ *  Copyright (C) 1999 - 2004 jtheory creations, Olivier Dedieu et al.
+ *
+ *  This library is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU Library General Public License as published
+ *  by the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Library General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Library General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+
+package com.jtheory.jdring;
+
+/**
+ * An AlarmTracer ignoring every event, to extend for those of interest.
+ */
+public abstract class AlarmTracerAdapter implements AlarmTracer {
+
+    public void alarmAdded(AlarmManager _manager, AlarmEntry _entry) {
+    }
+
+    public void alarmRemoved(AlarmManager _manager, AlarmEntry _entry) {
+    }
+
+    public void alarmRescheduled(AlarmManager _manager, AlarmEntry _entry, long _previousAlarmTime) {
+    }
+
+    public void alarmMisfired(AlarmManager _manager, AlarmEntry _entry, long _lateMillis) {
+    }
+
+    public void alarmFired(AlarmManager _manager, AlarmEntry _entry) {
+    }
+
+    public void listenerFailed(AlarmManager _manager, AlarmEntry _entry, Throwable _failure) {
+    }
+
+    public void waiterWoke(AlarmManager _manager, int _dueCount) {
+    }
+}
@@ -22,7 +22,12 @@ package com.jtheory.jdring;
 /**
  * This class manages the thread which sleeps until the next alarm.
  * Methods are synchronized to prevent interference from the AlarmWaiter
- * thread and external threads.
+ * thread and external threads.  The waiter thread releases its monitor
+ * before calling back into the manager, so threads adding alarms (which
+ * hold the manager's monitor) never wait on a ringing alarm.<p>
+ *
+ * With a <code>VirtualAlarmClock</code> no thread is started: the clock
+ * rings the alarms as it is moved forward.
  *
  * @author  Olivier Dedieu, David Sims, Jim Lerner, Rob Whelan
  * @version 1.4, 2004/04/02
@@ -30,14 +35,10 @@ package com.jtheory.jdring;
 public class AlarmWaiter implements Runnable {
     protected AlarmManager mgr;
     protected Thread thread;
+    protected final AlarmClock clock;
     private long sleepUntil = -1;
-    private boolean debug = false;
     private boolean shutdown = false;
-    
-    private void debug(String s) {
-        if (debug)
-            System.out.println("[" + Thread.currentThread().getName() + "] AlarmWaiter: " + s);
-    }
+    private boolean inboxPending = false;
     
     /**
      * Creates a new AlarmWaiter.
@@ -47,6 +48,13 @@ public class AlarmWaiter implements Runnable {
      */
     public AlarmWaiter(AlarmManager mgr, boolean isDaemon, String waiterName) {
         this.mgr = mgr;
+        clock = mgr.getClock();
+        
+        if (clock instanceof VirtualAlarmClock) {
+            // the clock drives us
+            ((VirtualAlarmClock) clock).register(this);
+            return;
+        }
         
         // start the thread
         thread = new Thread(this, waiterName);
@@ -62,8 +70,7 @@ public class AlarmWaiter implements Runnable {
      */
     public synchronized void update(long _sleep_until) {
         this.sleepUntil = _sleep_until;
-        debug("Update for " + _sleep_until); // timeToSleep);
-        debug("calling notify() to update thread wait timeout");
+        // wake the thread up so it waits for the new time
         notify();
     }
     
@@ -77,47 +84,105 @@ public class AlarmWaiter implements Runnable {
         notify();
     }
     
+    /**
+     * Wakes the thread up to apply registrations posted through the
+     * manager's lock-free inbox.
+     */
+    public void wakeUp() {
+        if (thread == null) {
+            // no thread to wake up: apply them right away
+            mgr.drainInbox();
+            return;
+        }
+        
+        synchronized(this) {
+            inboxPending = true;
+            notify();
+        }
+    }
+    
+    /**
+     * @return the time the next alarm is due, or -1 if there is none.
+     */
+    synchronized long getSleepUntil() {
+        return sleepUntil;
+    }
+    
+    /**
+     * Rings the alarms due now, in the calling thread.  Used by the
+     * <code>VirtualAlarmClock</code> in place of the waiter thread.
+     */
+    void wakeUpAndRing() {
+        synchronized(this) {
+            sleepUntil = -1;
+            inboxPending = false;
+        }
+        mgr.drainInbox();
+        mgr.ringDueAlarms();
+    }
+    
     /**
      * Stops (destroy) the thread.
      */
-    public synchronized void stop() {
-        shutdown = true;
-        notify();
+    public void stop() {
+        synchronized(this) {
+            shutdown = true;
+            notify();
+        }
+        if (clock instanceof VirtualAlarmClock)
+            ((VirtualAlarmClock) clock).unregister(this);
     }  
     
     
-    public synchronized void run() {
-        debug("running");
-        while(!shutdown) { 
-            try {
-                // check if there's an alarm scheduled
-                if (sleepUntil <= 0) {
-                    // no alarm. Wait for a new alarm to come along.
-                    wait();
-                } // if
-                else {
-                    // Found alarm, set timeout based on alarm time
-                    long timeout = sleepUntil - System.currentTimeMillis();
-                    if (timeout > 0) {
-                        wait(timeout);
+    public void run() {
+        while(!isShutdown()) {
+            boolean drain = false;
+            boolean ring = false;
+            
+            synchronized(this) {
+                try {
+                    if (!inboxPending) {
+                        // check if there's an alarm scheduled
+                        if (sleepUntil <= 0) {
+                            // no alarm. Wait for a new alarm to come along.
+                            wait();
+                        } // if
+                        else {
+                            // Found alarm, set timeout based on alarm time
+                            long timeout = sleepUntil - clock.currentTimeMillis();
+                            if (timeout > 0) {
+                                wait(timeout);
+                            }
+                        }
                     }
                 }
+                catch(InterruptedException e) {
+                    // check again below
+                }
                 
-                // now that we've awakened again, check if an alarm is due (within
-                // 1 second or already past)
-                if (sleepUntil >= 0 && (sleepUntil - System.currentTimeMillis() < 1000)) {
-                    // yes, an alarm is ready (or already past). Notify the manager to ring it.
+                drain = inboxPending;
+                inboxPending = false;
+                
+                // now that we've awakened again, check if an alarm is due
+                if (sleepUntil >= 0 && sleepUntil <= clock.currentTimeMillis()) {
                     sleepUntil = -1;
-                    debug("notifying manager to ring next alarm");
-                    mgr.ringNextAlarm();
+                    ring = true;
                 }
-                
             }
-            catch(InterruptedException e) {
-                debug("interrupted");
+            
+            // call the manager without holding our monitor
+            if (drain) {
+                mgr.drainInbox();
+            }
+            if (ring) {
+                // yes, alarms are ready (or already past). Notify the manager to ring them.
+                mgr.ringDueAlarms();
             }
         }
-        debug("stopping");
+    }
+    
+    private synchronized boolean isShutdown() {
+        return shutdown;
     }
     
 }
@@ -0,0 +1,54 @@
+/*
+ *  com/jtheory/jdring/AsyncAlarmListener.java
+ *  Copyright (C) 1999 - 2004 jtheory creations, Olivier Dedieu et al.
+ *
+ *  This library is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU Library General Public License as published
+ *  by the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Library General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Library General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+package com.jtheory.jdring;
+
+import java.util.concurrent.CompletionStage;
+
+/**
+  * A listener whose work carries on after it returns, e.g. a call to a
+  * non-blocking client.  It hands the AlarmManager a CompletionStage, and
+  * the ring lasts until that stage completes:<ul>
+  * <li>overlap policies see the listener as running until then, so
+  *     <code>OVERLAP_SKIP</code> keeps at most one call in flight;</li>
+  * <li>the metrics time the listener up to its completion;</li>
+  * <li>a <code>REPEAT_FIXED_DELAY</code> entry is rescheduled from it;</li>
+  * <li>a stage not done within the entry's listener timeout is cancelled,
+  *     and the ring ends.</li></ul>
+  * No thread waits for the stage meanwhile.  A stage completing
+  * exceptionally counts as a failed listener.<p>
+  *
+  * <code>handleAlarm()</code> is only used when an entry is rung on its
+  * own, through <code>AlarmEntry.ringAlarm()</code>.
+  *
+  * @see AlarmEntry#setListenerTimeout(long)
+  * @see AlarmEntry#setRepeatMode(int)
+  */
+public interface AsyncAlarmListener extends AlarmListener {
+
+  /**
+    * Invoked when an alarm is triggered.  It should start its work and
+    * return without blocking.
+    *
+    * @param entry the AlarmEntry which has been triggered.
+    * @return a stage completing when the work is done, or
+    * <code>null</code> if it's done already.
+    */
+  public abstract CompletionStage handleAlarmAsync(AlarmEntry entry);
+}
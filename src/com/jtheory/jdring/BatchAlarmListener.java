@@ -0,0 +1,46 @@
+/*
+ *  com/jtheory/jdring/BatchAlarmListener.java
+ *  Copyright (C) 1999 - 2004 jtheory creations, Olivier Dedieu et al.
+ *
+ *  This library is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU Library General Public License as published
+ *  by the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Library General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Library General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+package com.jtheory.jdring;
+
+import java.util.List;
+
+/**
+  * A listener receiving all the alarms it handles that are due together in
+  * one call, e.g. to make one database round trip instead of thousands when
+  * many alarms share a schedule.<p>
+  *
+  * Each pass of the AlarmManager collects the due alarms, and hands those
+  * sharing a BatchAlarmListener (and ring mode) to one
+  * <code>handleAlarms()</code> call, rung according to that ring mode.
+  * <code>handleAlarm()</code> is only used when an entry is rung on its own,
+  * through <code>AlarmEntry.ringAlarm()</code>.
+  *
+  * @see AlarmManager#ringDueAlarms()
+  */
+public interface BatchAlarmListener extends AlarmListener {
+
+  /**
+    * Invoked when alarms are triggered.
+    *
+    * @param entries the AlarmEntries which have been triggered, in the
+    * order they were due.
+    */
+  public abstract void handleAlarms(List entries);
+}
@@ -0,0 +1,333 @@
+/*
+ *  com/jtheory/jdring/CalendarCron.java
+ *  Copyright (C) 1999 - 2004 jtheory creations, Olivier Dedieu et al.
+ *
+ *  This library is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU Library General Public License as published
+ *  by the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Library General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Library General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+package com.jtheory.jdring;
+
+import java.util.Calendar;
+
+/**
+ * The original <code>Calendar</code>-based computation of the next alarm
+ * time of a cron-style AlarmEntry.  AlarmEntry now uses the precompiled
+ * CronSchedule; this is kept, unchanged, as the reference it is checked
+ * against (see <code>AlarmEntry.main()</code>).<p>
+ *
+ * It only holds for the schedules it got right: moving a field on, it
+ * keeps the values of the fields below instead of starting them over
+ * (at 15:35, "30,45 5 * * *" gives 05:45 instead of 05:30), and it
+ * ignores the months when neither day field is restricted.  It knows no
+ * seconds, and follows Calendar through daylight saving time.
+ *
+ * @author  Rob Whelan
+ */
+class CalendarCron {
+    private static int minMinute = 0;
+    private static int maxMinute = 59;
+    private static int minHour = 0;
+    private static int maxHour = 23;
+    private static int minDayOfMonth = 1;
+    // maxDayOfMonth varies by month
+    private static int minMonth = 0;
+    private static int maxMonth = 11;
+    private static int minDayOfWeek = 1;
+    private static int maxDayOfWeek = 7;
+    
+    private CalendarCron() {
+    }
+    
+    /**
+     * Computes the next valid alarm time, AFTER the given time.
+     *
+     * @param now the current time; not modified.
+     * @return the next alarm time, in milliseconds.
+     */
+    static long nextAlarmTime( Calendar now, int[] minutes, int[] hours,
+            int[] daysOfMonth, int[] months, int[] daysOfWeek )
+    {
+        Calendar alarm = (Calendar)now.clone();
+        alarm.set( Calendar.SECOND, 0 );
+        
+        //
+        // the updates work in a cascade -- if next minute value is in the
+        // following hour, hour is incremented.  If next valid hour value is
+        // in the following day, day is incremented, and so on.
+        //
+        
+        // increase alarm minutes
+        int current = alarm.get( Calendar.MINUTE );
+        int offset = 0;
+        // force increment at least to next minute
+        offset = getOffsetToNext( current, minMinute, maxMinute, minutes );
+        alarm.add( Calendar.MINUTE, offset );
+        
+        // update alarm hours if necessary
+        current = alarm.get( Calendar.HOUR_OF_DAY );  // (as updated by minute shift)
+        offset = getOffsetToNextOrEqual( current, minHour, maxHour, hours );
+        alarm.add( Calendar.HOUR_OF_DAY, offset );
+        
+        //
+        // If days of month AND days of week are restricted, we take whichever match
+        // comes sooner.
+        // If only one is restricted, take the first match for that one.
+        // If neither is restricted, don't do anything.
+        //
+        if( daysOfMonth[0] != -1 && daysOfWeek[0] != -1 )
+        {
+            // BOTH are restricted - take earlier match
+            Calendar dayOfWeekAlarm = (Calendar)alarm.clone();
+            updateDayOfWeekAndMonth( dayOfWeekAlarm, months, daysOfWeek );
+            
+            Calendar dayOfMonthAlarm = (Calendar)alarm.clone();
+            updateDayOfMonthAndMonth( dayOfMonthAlarm, months, daysOfMonth );
+            
+            // take the earlier one
+            if( dayOfMonthAlarm.getTime().getTime() < dayOfWeekAlarm.getTime().getTime() )
+                alarm = dayOfMonthAlarm;
+            else
+                alarm = dayOfWeekAlarm;
+        }
+        else if( daysOfWeek[0] != -1 ) // only dayOfWeek is restricted
+        {
+            // update dayInWeek and month if necessary
+            updateDayOfWeekAndMonth( alarm, months, daysOfWeek );
+        }
+        else if( daysOfMonth[0] != -1 ) // only dayOfMonth is restricted
+        {
+            // update dayInMonth and month if necessary
+            updateDayOfMonthAndMonth( alarm, months, daysOfMonth );
+        }
+        // else if neither is restricted (both[0] == -1), we don't need to do anything.
+        
+        return alarm.getTime().getTime();
+    }
+    
+    /**
+     * daysInMonth can't use simple offsets like the other fields, because the
+     * number of days varies per month (think of an alarm that executes on every
+     * 31st).  Instead we advance month and dayInMonth together until we're on a
+     * matching value pair.
+     */
+    static void updateDayOfMonthAndMonth( Calendar alarm, int[] months, int[] daysOfMonth )
+    {
+        int currentMonth = alarm.get( Calendar.MONTH );
+        int currentDayOfMonth = alarm.get( Calendar.DAY_OF_MONTH );
+        int offset = 0;
+        
+        // loop until we have a valid day AND month (if current is invalid)
+        while( !isIn(currentMonth, months) || !isIn(currentDayOfMonth, daysOfMonth) )
+        {
+            // if current month is invalid, advance to 1st day of next valid month
+            if( !isIn(currentMonth, months) )
+            {
+                offset = getOffsetToNextOrEqual( currentMonth, minMonth, maxMonth, months );
+                alarm.add( Calendar.MONTH, offset );
+                alarm.set( Calendar.DAY_OF_MONTH, 1 );
+                currentDayOfMonth = 1;
+            }
+            
+            // advance to the next valid day of month, if necessary
+            if( !isIn(currentDayOfMonth, daysOfMonth) )
+            {
+                int maxDayOfMonth = alarm.getActualMaximum( Calendar.DAY_OF_MONTH );
+                offset = getOffsetToNextOrEqual( currentDayOfMonth, minDayOfMonth, maxDayOfMonth, daysOfMonth );
+                alarm.add( Calendar.DAY_OF_MONTH, offset );
+            }
+            
+            currentMonth = alarm.get( Calendar.MONTH );
+            currentDayOfMonth = alarm.get( Calendar.DAY_OF_MONTH );
+        }
+    }
+    
+    
+    static void updateDayOfWeekAndMonth( Calendar alarm, int[] months, int[] daysOfWeek )
+    {
+        int currentMonth = alarm.get( Calendar.MONTH );
+        int currentDayOfWeek = alarm.get( Calendar.DAY_OF_WEEK );
+        int offset = 0;
+        
+        // loop until we have a valid day AND month (if current is invalid)
+        while( !isIn(currentMonth, months) || !isIn(currentDayOfWeek, daysOfWeek) )
+        {
+            // if current month is invalid, advance to 1st day of next valid month
+            if( !isIn(currentMonth, months) )
+            {
+                offset = getOffsetToNextOrEqual( currentMonth, minMonth, maxMonth, months );
+                alarm.add( Calendar.MONTH, offset );
+                alarm.set( Calendar.DAY_OF_MONTH, 1 );
+                currentDayOfWeek = alarm.get( Calendar.DAY_OF_WEEK );
+            }
+            
+            // advance to the next valid day of week, if necessary
+            if( !isIn(currentDayOfWeek, daysOfWeek) )
+            {
+                offset = getOffsetToNextOrEqual( currentDayOfWeek, minDayOfWeek, maxDayOfWeek, daysOfWeek );
+                alarm.add( Calendar.DAY_OF_YEAR, offset );
+            }
+            
+            currentDayOfWeek = alarm.get( Calendar.DAY_OF_WEEK );
+            currentMonth = alarm.get( Calendar.MONTH );
+        }
+    }
+    
+    
+    
+    // ----------------------------------------------------------------------
+    //                      General utility methods
+    // ----------------------------------------------------------------------
+    
+    /**
+     * if values = {-1}
+     *   offset is 1 (because next value definitely matches)
+     * if current < last(values)
+     *   offset is diff to next valid value
+     * if current >= last(values)
+     *   offset is diff to values[0], wrapping from max to min
+     */
+    static int getOffsetToNext( int current, int min, int max, int[] values )
+    {
+        int offset = 0;
+        
+        // find the distance to the closest valid value > current (wrapping if neccessary)
+        
+        // {-1} means *  -- offset is 1 because current++ is valid value
+        if (values[0] == -1 )
+        {
+            offset = 1;
+        }
+        else
+        {
+            // need to wrap
+            if( current >= last(values) )
+            {
+                int next = values[0];
+                offset = (max-current+1) + (next-min);
+            }
+            else // current < max(values) -- find next valid value after current
+            {
+                findvalue:
+                for( int i=0; i<values.length; i++ )
+                {
+                    if( current < values[i] )
+                    {
+                        offset = values[i] - current;
+                        break findvalue;
+                    }
+                }
+            } // end current < max(values)
+        }
+        
+        return offset;
+    }
+    
+    /**
+     * if values = {-1} or current is valid
+     *   offset is 0.
+     * if current < last(values)
+     *   offset is diff to next valid value
+     * if current >= last(values)
+     *   offset is diff to values[0], wrapping from max to min
+     */
+    static int getOffsetToNextOrEqual( int current, int min, int max, int[] values )
+    {
+        int offset = 0;
+        int[] safeValues = null;
+        
+        // find the distance to the closest valid value >= current (wrapping if necessary)
+        
+        // {-1} means *  -- offset is 0 if current is valid value
+        if (values[0] == -1 || isIn(current, values) )
+        {
+            offset = 0;
+        }
+        else
+        {
+            safeValues = discardValuesOverMax( values, max );
+            
+            // need to wrap
+            if( current > last(safeValues) )
+            {
+                int next = safeValues[0];
+                offset = (max-current+1) + (next-min);
+            }
+            else // current <= max(values) -- find next valid value
+            {
+                findvalue:
+                for( int i=0; i<values.length; i++ )
+                {
+                    if( current < safeValues[i] )
+                    {
+                        offset = safeValues[i] - current;
+                        break findvalue;
+                    }
+                }
+            } // end current <= max(values)
+        }
+        
+        return offset;
+    }
+    
+    /**
+     * handles -1 in values as * and returns true
+     * otherwise returns true iff given value is in the array
+     */
+    static boolean isIn( int find, int[] values )
+    {
+        if( values[0] == -1 )
+        {
+            return true;
+        }
+        else
+        {
+            for( int i=0; i<values.length; i++ )
+            {
+                if( find == values[i] )
+                    return true;
+            }
+            return false;
+        }
+    }
+    
+    /**
+     * @return the last int in the array
+     */
+    static int last( int[] intArray )
+    {
+        return intArray[ intArray.length - 1 ];
+    }
+    
+    /**
+     * Assumes inputted values are not null, have at least one value, and are in
+     * ascending order.
+     * @return  copy of values without any trailing values that exceed the max
+     */
+    static int[] discardValuesOverMax( int[] values, int max )
+    {
+        int[] safeValues = null;
+        for( int i=0; i<values.length; i++ )
+        {
+            if( values[i] > max )
+            {
+                safeValues = new int[i];
+                System.arraycopy( values, 0, safeValues, 0, i );
+                return safeValues;
+            }
+        }
+        return values;
+    }
+
+}
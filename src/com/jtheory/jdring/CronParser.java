@@ -0,0 +1,245 @@
+/*
+ *  com/jtheory/jdring/CronParser.java
+ *  Copyright (C) 1999 - 2004 jtheory creations, Olivier Dedieu et al.
+ *
+ *  This library is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU Library General Public License as published
+ *  by the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Library General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Library General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+
+package com.jtheory.jdring;
+
+import java.util.Locale;
+
+/**
+ * Parses cron expressions into CronSchedules; see CronSchedule for the
+ * syntax.  Each field is parsed into a bitmask in cron numbering (months
+ * 1-12, days of week 0-6), then shifted to Calendar numbering.
+ */
+final class CronParser {
+    private static final String[] MONTH_NAMES = {
+        "JAN", "FEB", "MAR", "APR", "MAY", "JUN", "JUL", "AUG", "SEP", "OCT", "NOV", "DEC"
+    };
+    private static final String[] DAY_NAMES = {
+        "SUN", "MON", "TUE", "WED", "THU", "FRI", "SAT"
+    };
+
+    private static final String[][] MACROS = {
+        { "@yearly", "0 0 1 1 *" },
+        { "@annually", "0 0 1 1 *" },
+        { "@monthly", "0 0 1 * *" },
+        { "@weekly", "0 0 * * 0" },
+        { "@daily", "0 0 * * *" },
+        { "@midnight", "0 0 * * *" },
+        { "@hourly", "0 * * * *" },
+    };
+
+    private final String expression;
+
+    // day rules, filled in while parsing the day fields
+    private int lastDayOfMonth = -1;
+    private int nearestWeekdays = 0;
+    private boolean lastWeekday = false;
+    private int lastDaysOfWeek = 0;
+    private long nthDaysOfWeek = 0;
+
+    private CronParser(String _expression) {
+        expression = _expression;
+    }
+
+    static CronSchedule parse(String _expression) {
+        if (_expression == null)
+            throw new NullPointerException("expression");
+        return new CronParser(_expression.trim()).parse();
+    }
+
+    private CronSchedule parse() {
+        String text = expression;
+        if (text.startsWith("@")) {
+            text = null;
+            for (int i = 0; i < MACROS.length && text == null; i++) {
+                if (MACROS[i][0].equalsIgnoreCase(expression))
+                    text = MACROS[i][1];
+            }
+            if (text == null)
+                throw error("unknown macro");
+        }
+
+        String[] fields = text.toUpperCase(Locale.ROOT).split("\\s+");
+        if (fields.length == 5) {
+            fields = new String[] { "0", fields[0], fields[1], fields[2], fields[3], fields[4] };
+        }
+        else if (fields.length != 6) {
+            throw error("expected 5 or 6 fields, found " + fields.length);
+        }
+
+        long seconds = parseField(fields[0], 0, 59, null);
+        long minutes = parseField(fields[1], 0, 59, null);
+        long hours = parseField(fields[2], 0, 23, null);
+        long daysOfMonth = parseDaysOfMonth(fields[3]);
+        long months = parseField(fields[4], 1, 12, MONTH_NAMES) >>> 1;
+        long daysOfWeek = parseDaysOfWeek(fields[5]);
+
+        return new CronSchedule(expression, seconds, minutes, (int) hours,
+                (int) daysOfMonth, (int) months, (int) daysOfWeek,
+                lastDayOfMonth, nearestWeekdays, lastWeekday, lastDaysOfWeek, nthDaysOfWeek,
+                !isStar(fields[3]), !isStar(fields[5]));
+    }
+
+    /**
+     * A day field starting with * or ? makes the two day fields ANDed rather
+     * than ORed, as in Vixie cron: "*&#47;2" in the day of month and "MON"
+     * in the day of week means odd days of the month that are Mondays.  Its
+     * mask is still checked, so a stepped * restricts the days all the same.
+     */
+    private static boolean isStar(String _field) {
+        return _field.startsWith("*") || _field.startsWith("?");
+    }
+
+    private long parseDaysOfMonth(String _field) {
+        if (_field.equals("?"))
+            return parseField("*", 1, 31, null);
+
+        long mask = 0;
+        String[] items = _field.split(",", -1);
+        for (int i = 0; i < items.length; i++) {
+            String item = items[i];
+            if (item.equals("L")) {
+                lastDayOfMonth = 0;
+            }
+            else if (item.startsWith("L-")) {
+                lastDayOfMonth = parseNumber(item.substring(2), 0, 30, null);
+            }
+            else if (item.equals("LW")) {
+                lastWeekday = true;
+            }
+            else if (item.endsWith("W")) {
+                nearestWeekdays |= 1 << parseNumber(item.substring(0, item.length() - 1), 1, 31, null);
+            }
+            else {
+                mask |= parseItem(item, 1, 31, null);
+            }
+        }
+        return mask;
+    }
+
+    private long parseDaysOfWeek(String _field) {
+        if (_field.equals("?"))
+            _field = "*";
+
+        long mask = 0;
+        String[] items = _field.split(",", -1);
+        for (int i = 0; i < items.length; i++) {
+            String item = items[i];
+            int hash = item.indexOf('#');
+            if (item.equals("L")) {
+                lastDaysOfWeek |= 1 << toCalendarDay(6); // Saturday, the last day of the week
+            }
+            else if (item.length() > 1 && item.endsWith("L")) {
+                int day = parseNumber(item.substring(0, item.length() - 1), 0, 7, DAY_NAMES);
+                lastDaysOfWeek |= 1 << toCalendarDay(day);
+            }
+            else if (hash >= 0) {
+                int day = parseNumber(item.substring(0, hash), 0, 7, DAY_NAMES);
+                int nth = parseNumber(item.substring(hash + 1), 1, 5, null);
+                nthDaysOfWeek |= 1L << (8 * toCalendarDay(day) + nth);
+            }
+            else {
+                mask |= parseItem(item, 0, 7, DAY_NAMES);
+            }
+        }
+
+        // 7 is Sunday too; then shift to Calendar days 1-7
+        if ((mask & (1 << 7)) != 0)
+            mask = (mask | 1) & ~(1L << 7);
+        return mask << 1;
+    }
+
+    private static int toCalendarDay(int _cronDay) {
+        return (_cronDay % 7) + 1;
+    }
+
+    private long parseField(String _field, int _min, int _max, String[] _names) {
+        long mask = 0;
+        String[] items = _field.split(",", -1);
+        for (int i = 0; i < items.length; i++)
+            mask |= parseItem(items[i], _min, _max, _names);
+        return mask;
+    }
+
+    /**
+     * Parses one item of a list: *, a value, a range, each with an optional
+     * step.  A range may wrap around, e.g. 22-2 for hours.
+     */
+    private long parseItem(String _item, int _min, int _max, String[] _names) {
+        int step = 1;
+        int slash = _item.indexOf('/');
+        String range = _item;
+        if (slash >= 0) {
+            step = parseNumber(_item.substring(slash + 1), 1, _max - _min + 1, null);
+            range = _item.substring(0, slash);
+        }
+
+        int from, to;
+        if (range.equals("*")) {
+            from = _min;
+            to = _max;
+        }
+        else {
+            int dash = range.indexOf('-');
+            if (dash > 0) {
+                from = parseNumber(range.substring(0, dash), _min, _max, _names);
+                to = parseNumber(range.substring(dash + 1), _min, _max, _names);
+            }
+            else {
+                from = parseNumber(range, _min, _max, _names);
+                to = (slash >= 0) ? _max : from; // 5/20 runs to the end
+            }
+        }
+
+        long mask = 0;
+        int count = (to >= from) ? to - from : (_max - from) + (to - _min) + 1;
+        for (int i = 0; i <= count; i += step) {
+            int value = from + i;
+            if (value > _max)
+                value -= _max - _min + 1;
+            mask |= 1L << value;
+        }
+        return mask;
+    }
+
+    private int parseNumber(String _text, int _min, int _max, String[] _names) {
+        if (_names != null) {
+            for (int i = 0; i < _names.length; i++) {
+                if (_names[i].equals(_text))
+                    return i + _min;
+            }
+        }
+
+        int value;
+        try {
+            value = Integer.parseInt(_text);
+        }
+        catch(NumberFormatException e) {
+            throw error("not a number: '" + _text + "'");
+        }
+        if (value < _min || value > _max)
+            throw error(value + " is out of range " + _min + "-" + _max);
+        return value;
+    }
+
+    private IllegalArgumentException error(String _message) {
+        return new IllegalArgumentException(_message + " in cron expression '" + expression + "'");
+    }
+}
@@ -0,0 +1,738 @@
+/*
+ *  com/jtheory/jdring/CronSchedule.java
+ *  Copyright (C) 1999 - 2004 jtheory creations, Olivier Dedieu et al.
+ *
+ *  This library is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU Library General Public License as published
+ *  by the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Library General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Library General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+package com.jtheory.jdring;
+
+import java.lang.ref.WeakReference;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.zone.ZoneOffsetTransition;
+import java.time.zone.ZoneRules;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A cron schedule, compiled once into bitmasks: bit <i>n</i> of a field is
+ * set when value <i>n</i> is allowed.  Computing the next alarm time is then
+ * a matter of bit scans and epoch-day arithmetic, with no Calendar, on the
+ * wall clock of the entry's <code>ZoneId</code>.<p>
+ *
+ * Schedules are immutable and interned: every AlarmEntry on
+ * <code>"*&#47;5 * * * *"</code> shares one instance.  Get them from
+ * <code>parse()</code>, which takes standard cron expressions:
+ * <pre>
+ *  [second] minute hour day-of-month month day-of-week
+ * </pre>
+ * with <code>*</code>, lists (<code>1,15</code>), ranges
+ * (<code>9-17</code>, wrapping around as in <code>FRI-MON</code>), steps
+ * (<code>*&#47;15</code>, <code>0-30/10</code>, <code>5/20</code>), month
+ * and day names (<code>JAN</code>-<code>DEC</code>,
+ * <code>SUN</code>-<code>SAT</code>), <code>?</code> for <code>*</code> in
+ * the day fields, and these day rules:
+ * <ul>
+ * <li><code>L</code> in the day of month: the last day of the month;
+ * <code>L-3</code>, three days before it;
+ * <li><code>15W</code>: the weekday nearest the 15th, within the month;
+ * <code>LW</code>, the last weekday of the month;
+ * <li><code>5L</code> or <code>FRIL</code> in the day of week: the last
+ * Friday of the month;
+ * <li><code>MON#2</code>: the second Monday of the month.
+ * </ul>
+ * Months are 1-12 and days of week 0-7 (0 or 7 = Sunday) in expressions.
+ * <code>@yearly</code>, <code>@monthly</code>, <code>@weekly</code>,
+ * <code>@daily</code> and <code>@hourly</code> are accepted too.<p>
+ *
+ * As in Vixie cron, a day matches when both its day of month and its day
+ * of week match -- or either one, when neither day field starts with
+ * <code>*</code> or <code>?</code>.  So <code>"0 0 *&#47;2 * *"</code>
+ * rings on odd days of the month, and <code>"0 0 1,15 * MON"</code> on the
+ * 1st, the 15th and every Monday.<p>
+ *
+ * The search starts from the largest field: find the first allowed day
+ * (by month, then day of month and day of week), then the first allowed
+ * hour of that day, minute of that hour and second of that minute.
+ * Whenever a field has to move, the fields below it start over from their
+ * first allowed value.  Internally, field values follow
+ * <code>java.util.Calendar</code>: months 0-11, days of week 1-7
+ * (1 = Sunday).<p>
+ *
+ * Each schedule keeps the next <code>OCCURRENCES_AHEAD</code> alarm times
+ * it computed, per time zone, and answers from them while they last: the
+ * thousands of entries sharing a schedule, rescheduled at the same second,
+ * compute them once.  Answering from them allocates nothing; computing the
+ * next ones allocates their array, and with daylight saving time a few
+ * <code>java.time</code> objects per alarm time.
+ *
+ * @author  Rob Whelan, Olivier Dedieu
+ * @see AlarmEntry#AlarmEntry(String, CronSchedule, ZoneId, AlarmClock, AlarmListener)
+ */
+public final class CronSchedule implements java.io.Serializable {
+    private static final long serialVersionUID = 1L;
+    private static final long MILLIS_PER_DAY = 86400000L;
+    private static final int SECONDS_PER_DAY = 86400;
+    private static final long DAYS_PER_400_YEARS = 146097; // the calendar repeats after that
+    private static final int SUNDAY = 1;
+    private static final int SATURDAY = 7;
+    private static final int ALL_DAYS_OF_MONTH = -2;  // bits 1-31
+    private static final int ALL_DAYS_OF_WEEK = 0xfe; // bits 1-7
+
+    // weakly held, so schedules no entry uses any more can go
+    private static final Map /* of CronSchedule to WeakReference */ INTERNED = new WeakHashMap();
+
+    /** The number of alarm times computed ahead and kept, per time zone. */
+    public static final int OCCURRENCES_AHEAD = 16;
+
+    private final long seconds;    // bits 0-59
+    private final long minutes;    // bits 0-59
+    private final int hours;       // bits 0-23
+    private final int daysOfMonth; // bits 1-31
+    private final int months;      // bits 0-11
+    private final int daysOfWeek;  // bits 1-7
+    private final int lastDayOfMonth;   // L-n: n days before the last, or -1
+    private final int nearestWeekdays;  // nW: bits 1-31
+    private final boolean lastWeekday;  // LW
+    private final int lastDaysOfWeek;   // nL: bits 1-7
+    private final long nthDaysOfWeek;   // n#k: bit 8 * n + k
+    private final boolean dayOfMonthRestricted; // not * or ?: ORed with the day of week
+    private final boolean dayOfWeekRestricted;
+    private final boolean hoursRestricted;
+    private final boolean everyDayOfMonth;
+    private final boolean everyDay;
+    private final String expression;
+    private transient volatile Map /* of ZoneId to Occurrences */ occurrences;
+
+    /**
+     * For CronParser and of().  Masks are in Calendar numbering.
+     *
+     * @exception IllegalArgumentException if no day ever matches.
+     */
+    CronSchedule(String _expression, long _seconds, long _minutes, int _hours,
+            int _daysOfMonth, int _months, int _daysOfWeek,
+            int _lastDayOfMonth, int _nearestWeekdays, boolean _lastWeekday,
+            int _lastDaysOfWeek, long _nthDaysOfWeek,
+            boolean _dayOfMonthRestricted, boolean _dayOfWeekRestricted) {
+        expression = _expression;
+        seconds = _seconds;
+        minutes = _minutes;
+        hours = _hours;
+        daysOfMonth = _daysOfMonth;
+        months = _months;
+        daysOfWeek = _daysOfWeek;
+        lastDayOfMonth = _lastDayOfMonth;
+        nearestWeekdays = _nearestWeekdays;
+        lastWeekday = _lastWeekday;
+        lastDaysOfWeek = _lastDaysOfWeek;
+        nthDaysOfWeek = _nthDaysOfWeek;
+        dayOfMonthRestricted = _dayOfMonthRestricted;
+        dayOfWeekRestricted = _dayOfWeekRestricted;
+        hoursRestricted = (hours != (1 << 24) - 1);
+        // full masks match every day, whether the fields are ANDed or ORed
+        everyDayOfMonth = daysOfMonth == ALL_DAYS_OF_MONTH && daysOfWeek == ALL_DAYS_OF_WEEK;
+        everyDay = everyDayOfMonth && months == (1 << 12) - 1;
+
+        if (seconds == 0 || minutes == 0 || hours == 0 || months == 0)
+            throw new IllegalArgumentException("a field allows no value: " + expression);
+        // e.g. the 31st of February would never ring, and never stop looking
+        if (nextAllowedDay(-1, DAYS_PER_400_YEARS) < 0)
+            throw new IllegalArgumentException("no day ever matches: " + expression);
+    }
+
+    /**
+     * Parses a cron expression (see above).
+     *
+     * @param expression the expression, with 5 fields, 6 with seconds first,
+     * or a macro such as <code>@daily</code>.
+     * @return the compiled schedule, shared with every other use of the
+     * same schedule.
+     * @exception IllegalArgumentException if the expression is not valid,
+     * or never matches.
+     */
+    public static CronSchedule parse(String _expression) {
+        return intern(CronParser.parse(_expression));
+    }
+
+    /**
+     * Compiles cron fields given as AlarmEntry takes them: sorted lists of
+     * values, or {-1} for all.
+     *
+     * @exception IllegalArgumentException if a value is out of range, or the
+     * days of month never occur in the allowed months.
+     */
+    static CronSchedule of(int[] _seconds, int[] _minutes, int[] _hours, int[] _daysOfMonth,
+            int[] _months, int[] _daysOfWeek) {
+        long seconds = compile(_seconds, 0, 59, "second");
+        long minutes = compile(_minutes, 0, 59, "minute");
+        long hours = compile(_hours, 0, 23, "hour");
+        long daysOfMonth = compile(_daysOfMonth, 1, 31, "day of month");
+        long months = compile(_months, 0, 11, "month");
+        long daysOfWeek = compile(_daysOfWeek, 1, 7, "day of week");
+        boolean dayOfMonthRestricted = (_daysOfMonth[0] != -1);
+        boolean dayOfWeekRestricted = (_daysOfWeek[0] != -1);
+
+        // the same schedule as text, in cron numbering
+        String expression = format(_seconds[0] == -1, seconds, 0)
+            + " " + format(_minutes[0] == -1, minutes, 0)
+            + " " + format(_hours[0] == -1, hours, 0)
+            + " " + format(!dayOfMonthRestricted, daysOfMonth, 0)
+            + " " + format(_months[0] == -1, months, 1)
+            + " " + format(!dayOfWeekRestricted, daysOfWeek, -1);
+
+        return intern(new CronSchedule(expression, seconds, minutes, (int) hours,
+                (int) daysOfMonth, (int) months, (int) daysOfWeek, -1, 0, false, 0, 0,
+                dayOfMonthRestricted, dayOfWeekRestricted));
+    }
+
+    private static long compile(int[] _values, int _min, int _max, String _field) {
+        if (_values == null || _values.length == 0)
+            throw new IllegalArgumentException("no " + _field + " value");
+
+        if (_values[0] == -1)
+            return (-1L >>> (63 - _max)) & (-1L << _min);
+
+        long mask = 0;
+        for (int i = 0; i < _values.length; i++) {
+            if (_values[i] < _min || _values[i] > _max)
+                throw new IllegalArgumentException(_field + " out of range: " + _values[i]);
+            mask |= 1L << _values[i];
+        }
+        return mask;
+    }
+
+    /**
+     * Writes a field mask as a cron list, with runs of values as ranges.
+     *
+     * @param shift added to each value, for cron numbering.
+     */
+    private static String format(boolean _all, long _mask, int _shift) {
+        if (_all)
+            return "*";
+
+        StringBuffer sb = new StringBuffer();
+        while (_mask != 0) {
+            int from = Long.numberOfTrailingZeros(_mask);
+            int to = Long.numberOfTrailingZeros(~(_mask >>> from)) + from - 1;
+            _mask &= -2L << to;
+            if (sb.length() > 0)
+                sb.append(',');
+            sb.append(from + _shift);
+            if (to > from)
+                sb.append(to > from + 1 ? '-' : ',').append(to + _shift);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * @return the shared instance equal to this schedule.
+     */
+    private static CronSchedule intern(CronSchedule _schedule) {
+        synchronized (INTERNED) {
+            WeakReference ref = (WeakReference) INTERNED.get(_schedule);
+            CronSchedule interned = (ref == null) ? null : (CronSchedule) ref.get();
+            if (interned == null) {
+                INTERNED.put(_schedule, new WeakReference(_schedule));
+                interned = _schedule;
+            }
+            return interned;
+        }
+    }
+
+    /**
+     * Keeps deserialized schedules shared too.
+     */
+    private Object readResolve() {
+        return intern(this);
+    }
+
+    /**
+     * Computes the next alarm time strictly after the given time, on a
+     * whole second.<p>
+     *
+     * The fields are matched against the wall clock of the zone.  Where
+     * daylight saving time makes a wall-clock time ambiguous:
+     * <ul>
+     * <li>a time skipped when the clocks go forward rings once, shifted
+     * later by the length of the gap (02:30 in a 02:00-03:00 gap rings at
+     * 03:30), as <code>ZonedDateTime</code> resolves it;
+     * <li>a time repeated when the clocks go back rings once, at its first
+     * occurrence -- unless the hours are not restricted (e.g. "every 15
+     * minutes"), in which case the schedule follows elapsed time and rings
+     * on both passes.
+     * </ul>
+     *
+     * @param now the current time, in milliseconds.
+     * @param zone the time zone the fields are expressed in.
+     * @return the next alarm time, in milliseconds.
+     */
+    public long nextAlarmTime(long _now, ZoneId _zone) {
+        Occurrences cached = (Occurrences) getOccurrences().get(_zone);
+        if (cached != null) {
+            long next = cached.after(_now);
+            if (next >= 0)
+                return next;
+        }
+
+        long[] times = new long[OCCURRENCES_AHEAD];
+        long time = _now;
+        for (int i = 0; i < times.length; i++)
+            time = times[i] = computeNextAlarmTime(time, _zone);
+        getOccurrences().put(_zone, new Occurrences(_now, times));
+        return times[0];
+    }
+
+    /**
+     * Lists the next alarm times of this schedule, e.g. to preview them.
+     *
+     * @param from the time to start after, in milliseconds.
+     * @param count the number of alarm times.
+     * @param zone the time zone the fields are expressed in.
+     * @return the <code>count</code> alarm times following
+     * <code>from</code>, in order.
+     */
+    public long[] nextOccurrences(long _from, int _count, ZoneId _zone) {
+        if (_count < 0)
+            throw new IllegalArgumentException("negative count: " + _count);
+
+        // from the kept ones while they last, without replacing them
+        Occurrences cached = (Occurrences) getOccurrences().get(_zone);
+        long[] times = new long[_count];
+        long time = _from;
+        for (int i = 0; i < _count; i++) {
+            long next = (cached != null) ? cached.after(time) : -1;
+            time = times[i] = (next >= 0) ? next : computeNextAlarmTime(time, _zone);
+        }
+        return times;
+    }
+
+    private Map getOccurrences() {
+        Map map = occurrences;
+        if (map == null) // a race only costs an extra map
+            occurrences = map = new ConcurrentHashMap();
+        return map;
+    }
+
+    /**
+     * Computes the next alarm time strictly after the given time, without
+     * the kept alarm times.
+     */
+    private long computeNextAlarmTime(long _now, ZoneId _zone) {
+        if (_zone instanceof ZoneOffset) {
+            // no rules to look up: bit scans only
+            long offset = offsetMillis((ZoneOffset) _zone);
+            return nextLocalTime(_now + offset) - offset;
+        }
+
+        ZoneRules rules = _zone.getRules();
+        if (rules.isFixedOffset()) {
+            long offset = offsetMillis(rules.getOffset(Instant.EPOCH));
+            return nextLocalTime(_now + offset) - offset;
+        }
+
+        Instant now = Instant.ofEpochMilli(_now);
+        long alarm = resolve(rules, nextLocalTime(_now + offsetMillis(rules.getOffset(now))), _now);
+
+        // times skipped by a gap just passed may not have rung yet
+        ZoneOffsetTransition previous = rules.previousTransition(Instant.ofEpochMilli(_now + 1));
+        if (previous != null && previous.isGap())
+            alarm = Math.min(alarm, nextInGap(previous, _now));
+
+        // times skipped by a coming gap ring later than they read, so times
+        // just after the gap may come first
+        ZoneOffsetTransition next = rules.nextTransition(now);
+        if (next != null && next.isGap() && next.toEpochSecond() * 1000 < alarm) {
+            long gapEnd = next.toEpochSecond() * 1000 + offsetMillis(next.getOffsetAfter());
+            long afterGap = resolve(rules, nextLocalTime(gapEnd - 1), _now);
+            alarm = Math.min(nextInGap(next, _now), afterGap);
+        }
+
+        if (!hoursRestricted) {
+            // if the clocks go back first, the repeated hour rings again
+            ZoneOffsetTransition transition = rules.nextTransition(now);
+            if (transition != null && transition.isOverlap()
+                    && transition.toEpochSecond() * 1000 < alarm) {
+                long after = offsetMillis(transition.getOffsetAfter());
+                long from = transition.toEpochSecond() * 1000 + after - 1;
+                long repeated = nextLocalTime(from) - after;
+                if (repeated < alarm)
+                    alarm = repeated;
+            }
+        }
+        return alarm;
+    }
+
+    /**
+     * @return the first alarm time after now among the wall-clock times
+     * skipped by a gap, each shifted by the length of the gap, or
+     * <code>Long.MAX_VALUE</code> if there is none.
+     */
+    private long nextInGap(ZoneOffsetTransition _gap, long _now) {
+        long before = offsetMillis(_gap.getOffsetBefore());
+        long start = _gap.toEpochSecond() * 1000 + before; // first skipped wall-clock time
+        long end = start + _gap.getDuration().toMillis();
+        long local = nextLocalTime(Math.max(_now + before, start - 1));
+        return (local < end) ? local - before : Long.MAX_VALUE;
+    }
+
+    /**
+     * Converts a local alarm time to UTC, moving on to the next local alarm
+     * time if this one has already passed (the second pass of a repeated
+     * hour).
+     */
+    private long resolve(ZoneRules _rules, long _local, long _now) {
+        while (true) {
+            LocalDateTime dateTime = LocalDateTime.ofEpochSecond(Math.floorDiv(_local, 1000L),
+                (int) Math.floorMod(_local, 1000L) * 1000000, ZoneOffset.UTC);
+            ZoneOffsetTransition transition = _rules.getTransition(dateTime);
+            if (transition == null) {
+                long alarm = _local - offsetMillis(_rules.getOffset(dateTime));
+                if (alarm > _now)
+                    return alarm;
+            }
+            else if (transition.isGap()) {
+                return _local - offsetMillis(transition.getOffsetBefore());
+            }
+            else {
+                long first = _local - offsetMillis(transition.getOffsetBefore());
+                if (first > _now)
+                    return first;
+                long second = _local - offsetMillis(transition.getOffsetAfter());
+                if (!hoursRestricted && second > _now)
+                    return second;
+            }
+            _local = nextLocalTime(_local);
+        }
+    }
+
+    /**
+     * Computes the next alarm time strictly after the given wall-clock
+     * time, ignoring time zones altogether.
+     */
+    private long nextLocalTime(long _local) {
+        long day = Math.floorDiv(_local, MILLIS_PER_DAY);
+        int time = (int) (Math.floorMod(_local, MILLIS_PER_DAY) / 1000) + 1; // second of day
+
+        while (true) {
+            if (time >= SECONDS_PER_DAY || !isAllowedDay(day)) {
+                day = nextAllowedDay(day);
+                time = 0;
+            }
+
+            int hour = time / 3600;
+            int minute = (time / 60) % 60;
+            int second = time % 60;
+
+            if ((hours & (1 << hour)) == 0) {
+                int next = nextAllowed(hours, hour);
+                time = (next < 0) ? SECONDS_PER_DAY : next * 3600;
+            }
+            else if ((minutes & (1L << minute)) == 0) {
+                int next = nextAllowed(minutes, minute);
+                time = (next < 0) ? (hour + 1) * 3600 : hour * 3600 + next * 60;
+            }
+            else if ((seconds & (1L << second)) == 0) {
+                int next = nextAllowed(seconds, second);
+                time = (next < 0) ? hour * 3600 + (minute + 1) * 60 : hour * 3600 + minute * 60 + next;
+            }
+            else {
+                return day * MILLIS_PER_DAY + time * 1000L;
+            }
+        }
+    }
+
+    private boolean isAllowedDay(long _day) {
+        if (everyDay)
+            return true;
+
+        int date = civil(_day);
+        if ((months & (1 << monthOf(date))) == 0)
+            return false;
+        if (everyDayOfMonth)
+            return true;
+
+        // a * field matches every day through its mask, unless stepped
+        boolean byDayOfMonth = isAllowedDayOfMonth(date, _day);
+        if (dayOfMonthRestricted && dayOfWeekRestricted)
+            return byDayOfMonth || isAllowedDayOfWeek(date, _day);
+        return byDayOfMonth && isAllowedDayOfWeek(date, _day);
+    }
+
+    private boolean isAllowedDayOfMonth(int _date, long _day) {
+        int day = dayOf(_date);
+        if ((daysOfMonth & (1 << day)) != 0)
+            return true;
+        if (lastDayOfMonth < 0 && nearestWeekdays == 0 && !lastWeekday)
+            return false;
+
+        int length = daysInMonth(yearOf(_date), monthOf(_date));
+        if (day == length - lastDayOfMonth)
+            return true;
+
+        int dayOfWeek = dayOfWeek(_day);
+        if (dayOfWeek == SUNDAY || dayOfWeek == SATURDAY)
+            return false; // W days are always weekdays
+        if (lastWeekday && day == nearestWeekday(length, length, dayOfWeek(_day + length - day)))
+            return true;
+
+        // the W days this one may stand for: from two days before to two after
+        int candidates = nearestWeekdays & (0x1f << Math.max(day - 2, 0)) & (-1 >>> (31 - length));
+        while (candidates != 0) {
+            int wanted = Integer.numberOfTrailingZeros(candidates);
+            candidates &= candidates - 1;
+            if (nearestWeekday(wanted, length, dayOfWeek(_day + wanted - day)) == day)
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return the weekday nearest a day, without leaving its month.
+     */
+    private static int nearestWeekday(int _day, int _length, int _dayOfWeek) {
+        if (_dayOfWeek == SATURDAY)
+            return (_day == 1) ? 3 : _day - 1;
+        if (_dayOfWeek == SUNDAY)
+            return (_day == _length) ? _day - 2 : _day + 1;
+        return _day;
+    }
+
+    private boolean isAllowedDayOfWeek(int _date, long _day) {
+        int dayOfWeek = dayOfWeek(_day);
+        if ((daysOfWeek & (1 << dayOfWeek)) != 0)
+            return true;
+
+        int day = dayOf(_date);
+        if ((lastDaysOfWeek & (1 << dayOfWeek)) != 0
+                && day + 7 > daysInMonth(yearOf(_date), monthOf(_date)))
+            return true;
+        return (nthDaysOfWeek & (1L << (8 * dayOfWeek + (day - 1) / 7 + 1))) != 0;
+    }
+
+    /**
+     * @return the first allowed day after the given one.
+     */
+    private long nextAllowedDay(long _day) {
+        return nextAllowedDay(_day, Long.MAX_VALUE);
+    }
+
+    /**
+     * @return the first allowed day after the given one, looking no further
+     * than the given number of days, or -1 if none was found.
+     */
+    private long nextAllowedDay(long _day, long _limit) {
+        long day = _day + 1;
+        while (!isAllowedDay(day)) {
+            int date = civil(day);
+            if ((months & (1 << monthOf(date))) == 0) {
+                // skip the whole month at once
+                int month = monthOf(date) + offsetToNextOrEqual(months, monthOf(date), 0, 11);
+                day = epochDay(yearOf(date) + month / 12, month % 12, 1);
+            }
+            else {
+                day++;
+            }
+            if (day - _day > _limit)
+                return -1;
+        }
+        return day;
+    }
+
+    // ----------------------------------------------------------------------
+    //                      Bit scans
+    // ----------------------------------------------------------------------
+
+    /**
+     * @return the first allowed value after current, or -1 if there is none.
+     */
+    static int nextAllowed(long _mask, int _current) {
+        long above = _mask & (-2L << _current);
+        return (above == 0) ? -1 : Long.numberOfTrailingZeros(above);
+    }
+
+    /**
+     * @return the distance from current to the next allowed value after it,
+     * wrapping from max to min.
+     */
+    static int offsetToNext(long _mask, int _current, int _min, int _max) {
+        long above = _mask & (-2L << _current);
+        if (above != 0)
+            return Long.numberOfTrailingZeros(above) - _current;
+        return (_max - _current + 1) + (Long.numberOfTrailingZeros(_mask) - _min);
+    }
+
+    /**
+     * @return 0 if current is allowed, else the distance to the next allowed
+     * value up to max, wrapping from max to min.  If no allowed value is
+     * within max (e.g. the 31st in a 30-day month), the distance to the
+     * start of the next cycle.
+     */
+    static int offsetToNextOrEqual(long _mask, int _current, int _min, int _max) {
+        if ((_mask & (1L << _current)) != 0)
+            return 0;
+
+        long allowed = _mask & (-1L >>> (63 - _max));
+        long above = allowed & (-2L << _current);
+        if (above != 0)
+            return Long.numberOfTrailingZeros(above) - _current;
+        if (allowed != 0)
+            return (_max - _current + 1) + (Long.numberOfTrailingZeros(allowed) - _min);
+        return _max - _current + 1;
+    }
+
+    // ----------------------------------------------------------------------
+    //                      Epoch-day arithmetic
+    // ----------------------------------------------------------------------
+
+    /** @return the day of week of an epoch day, 1 = Sunday (1970-01-01 was a Thursday). */
+    private static int dayOfWeek(long _day) {
+        return (int) Math.floorMod(_day + 4, 7) + 1;
+    }
+
+    /**
+     * Converts an epoch day into a civil date, packed into an int as
+     * year * 512 + month * 32 + day, month being 0-11.
+     */
+    static int civil(long _day) {
+        long z = _day + 719468;
+        long era = Math.floorDiv(z, 146097);
+        long doe = z - era * 146097;
+        long yoe = (doe - doe / 1460 + doe / 36524 - doe / 146096) / 365;
+        long doy = doe - (365 * yoe + yoe / 4 - yoe / 100);
+        long mp = (5 * doy + 2) / 153;
+        int day = (int) (doy - (153 * mp + 2) / 5 + 1);
+        int month = (int) (mp < 10 ? mp + 2 : mp - 10);
+        long year = yoe + era * 400 + (month <= 1 ? 1 : 0);
+        return (int) (year * 512 + month * 32 + day);
+    }
+
+    static int yearOf(int _date) {
+        return _date >> 9;
+    }
+
+    static int monthOf(int _date) {
+        return (_date >> 5) & 15;
+    }
+
+    static int dayOf(int _date) {
+        return _date & 31;
+    }
+
+    /** @return the epoch day of a date, month being 0-11. */
+    static long epochDay(int _year, int _month, int _day) {
+        long year = _year - (_month <= 1 ? 1 : 0);
+        long era = Math.floorDiv(year, 400);
+        long yoe = year - era * 400;
+        long doy = (153 * (_month > 1 ? _month - 2 : _month + 10) + 2) / 5 + _day - 1;
+        long doe = yoe * 365 + yoe / 4 - yoe / 100 + doy;
+        return era * 146097 + doe - 719468;
+    }
+
+    static int daysInMonth(int _year, int _month) {
+        if (_month == 1)
+            return ((_year % 4 == 0 && _year % 100 != 0) || _year % 400 == 0) ? 29 : 28;
+        return maxDayOfMonth(_month);
+    }
+
+    private static int maxDayOfMonth(int _month) {
+        switch (_month) {
+        case 1:  return 29;
+        case 3:
+        case 5:
+        case 8:
+        case 10: return 30;
+        default: return 31;
+        }
+    }
+
+    private static long offsetMillis(ZoneOffset _offset) {
+        return _offset.getTotalSeconds() * 1000L;
+    }
+
+    // ----------------------------------------------------------------------
+    //                      Object
+    // ----------------------------------------------------------------------
+
+    public boolean equals(Object _obj) {
+        if (!(_obj instanceof CronSchedule))
+            return false;
+        CronSchedule other = (CronSchedule) _obj;
+        return seconds == other.seconds
+            && minutes == other.minutes
+            && hours == other.hours
+            && daysOfMonth == other.daysOfMonth
+            && months == other.months
+            && daysOfWeek == other.daysOfWeek
+            && lastDayOfMonth == other.lastDayOfMonth
+            && nearestWeekdays == other.nearestWeekdays
+            && lastWeekday == other.lastWeekday
+            && lastDaysOfWeek == other.lastDaysOfWeek
+            && nthDaysOfWeek == other.nthDaysOfWeek
+            && dayOfMonthRestricted == other.dayOfMonthRestricted
+            && dayOfWeekRestricted == other.dayOfWeekRestricted;
+    }
+
+    public int hashCode() {
+        long h = seconds * 31 + minutes;
+        h = h * 31 + hours;
+        h = h * 31 + daysOfMonth;
+        h = h * 31 + months;
+        h = h * 31 + daysOfWeek;
+        h = h * 31 + lastDayOfMonth;
+        h = h * 31 + nearestWeekdays;
+        h = h * 31 + lastDaysOfWeek;
+        h = h * 31 + nthDaysOfWeek;
+        h = h * 8 + (lastWeekday ? 4 : 0) + (dayOfMonthRestricted ? 2 : 0) + (dayOfWeekRestricted ? 1 : 0);
+        return (int) (h ^ (h >>> 32));
+    }
+
+    /**
+     * @return the cron expression of this schedule, as it was first parsed
+     * (or built from AlarmEntry fields, with seconds).
+     */
+    public String toString() {
+        return expression;
+    }
+
+    /**
+     * The alarm times following a given time, in order.  Immutable, so it
+     * is read without locking.
+     */
+    private static final class Occurrences {
+        private final long from;
+        private final long[] times;
+
+        Occurrences(long _from, long[] _times) {
+            from = _from;
+            times = _times;
+        }
+
+        /**
+         * @return the first alarm time strictly after the given time, or
+         * -1 if that's not known here.
+         */
+        long after(long _time) {
+            if (_time < from || _time >= times[times.length - 1])
+                return -1;
+            int i = Arrays.binarySearch(times, _time);
+            return times[(i >= 0) ? i + 1 : -i - 1];
+        }
+    }
+}
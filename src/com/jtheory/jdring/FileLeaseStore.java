@@ -0,0 +1,205 @@
+/*
+ *  com/jtheory/jdring/FileLeaseStore.java
+ *  Copyright (C) 1999 - 2004 jtheory creations, Olivier Dedieu et al.
+ *
+ *  This library is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU Library General Public License as published
+ *  by the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Library General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Library General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+
+package com.jtheory.jdring;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A LeaseStore in a file, shared by the members of a cluster running on
+ * one machine, or on machines sharing a file system with working locks.
+ * Each call locks the file, reads it, and replaces it if it changed:
+ * fine for tests and small clusters, but each pass of alarms rung in
+ * cluster mode costs one such call.<p>
+ *
+ * The file holds a record per lease and per alarm ever rung, so it grows
+ * with the number of alarm names used.
+ */
+public class FileLeaseStore implements LeaseStore {
+    private static final int MAGIC = 0x4a444c31; // "JDL1"
+
+    // file locks are held by the whole JVM: members in the same JVM also
+    // lock out each other on one monitor per file
+    private static final Map /* of String to Object */ monitors = new HashMap();
+
+    private final File file;
+    private final File lockFile;
+    private final File tempFile;
+    private final Object monitor;
+
+    /**
+     * Creates a store in the given file; it's created if needed, along
+     * with <code>file.lock</code> and <code>file.tmp</code> next to it.
+     */
+    public FileLeaseStore(File _file) {
+        file = _file.getAbsoluteFile();
+        lockFile = new File(file.getPath() + ".lock");
+        tempFile = new File(file.getPath() + ".tmp");
+        synchronized (monitors) {
+            Object m = monitors.get(file.getPath());
+            if (m == null) {
+                m = new Object();
+                monitors.put(file.getPath(), m);
+            }
+            monitor = m;
+        }
+    }
+
+    public Lease acquire(final int _partition, final String _owner, final long _now, final long _ttl) {
+        final Lease[] result = new Lease[1];
+        update(new Change() {
+            public boolean apply(LeaseTable _table) {
+                result[0] = _table.acquire(_partition, _owner, _now, _ttl);
+                return result[0] != null;
+            }
+        });
+        return result[0];
+    }
+
+    public void release(final Lease _lease) {
+        update(new Change() {
+            public boolean apply(LeaseTable _table) {
+                return _table.release(_lease);
+            }
+        });
+    }
+
+    public boolean claim(final Lease _lease, final String _alarm, final long _alarmTime,
+            final long _now) {
+        final boolean[] result = new boolean[1];
+        update(new Change() {
+            public boolean apply(LeaseTable _table) {
+                result[0] = _table.claim(_lease, _alarm, _alarmTime, _now);
+                return result[0];
+            }
+        });
+        return result[0];
+    }
+
+    public boolean[] claimAll(final Lease[] _leases, final String[] _alarms,
+            final long[] _alarmTimes, final long _now) {
+        final boolean[][] result = new boolean[1][];
+        update(new Change() {
+            public boolean apply(LeaseTable _table) {
+                result[0] = _table.claimAll(_leases, _alarms, _alarmTimes, _now);
+                for (int i = 0; i < result[0].length; i++) {
+                    if (result[0][i])
+                        return true;
+                }
+                return false;
+            }
+        });
+        return result[0];
+    }
+
+    public void heartbeat(final String _member, final long _now, final long _ttl) {
+        update(new Change() {
+            public boolean apply(LeaseTable _table) {
+                _table.heartbeat(_member, _now, _ttl);
+                return true;
+            }
+        });
+    }
+
+    public int countMembers(final long _now) {
+        final int[] result = new int[1];
+        update(new Change() {
+            public boolean apply(LeaseTable _table) {
+                result[0] = _table.countMembers(_now);
+                return false;
+            }
+        });
+        return result[0];
+    }
+
+    private interface Change {
+        /** @return <code>true</code> if the table must be written back. */
+        boolean apply(LeaseTable table);
+    }
+
+    /**
+     * Applies a change to the table in the file, holding the lock file's
+     * lock.  The new table is written to a temporary file then renamed, so
+     * a crash never leaves a half-written table (and fencing tokens are
+     * never handed out twice).
+     *
+     * @exception UncheckedIOException if the files can't be read or written.
+     */
+    private void update(Change _change) {
+        synchronized (monitor) {
+            try {
+                RandomAccessFile lockFile = new RandomAccessFile(this.lockFile, "rw");
+                try {
+                    FileLock lock = lockFile.getChannel().lock();
+                    try {
+                        LeaseTable table = new LeaseTable();
+                        if (file.exists()) {
+                            DataInputStream in = new DataInputStream(new ByteArrayInputStream(
+                                    Files.readAllBytes(file.toPath())));
+                            if (in.readInt() != MAGIC)
+                                throw new IOException(file + " is not a lease file");
+                            table.readFrom(in);
+                        }
+                        
+                        if (_change.apply(table)) {
+                            FileOutputStream bytes = new FileOutputStream(tempFile);
+                            try {
+                                DataOutputStream out = new DataOutputStream(
+                                        new BufferedOutputStream(bytes));
+                                out.writeInt(MAGIC);
+                                table.writeTo(out);
+                                out.flush();
+                                bytes.getFD().sync();
+                            }
+                            finally {
+                                bytes.close();
+                            }
+                            Files.move(tempFile.toPath(), file.toPath(),
+                                    StandardCopyOption.REPLACE_EXISTING,
+                                    StandardCopyOption.ATOMIC_MOVE);
+                        }
+                    }
+                    finally {
+                        lock.release();
+                    }
+                }
+                finally {
+                    lockFile.close();
+                }
+            }
+            catch(IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+}
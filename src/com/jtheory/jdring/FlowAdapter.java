@@ -0,0 +1,171 @@
+/*
+ *  com/jtheory/jdring/FlowAdapter.java
+ *  Copyright (C) 1999 - 2004 jtheory creations, Olivier Dedieu et al.
+ *
+ *  This library is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU Library General Public License as published
+ *  by the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Library General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Library General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+
+package com.jtheory.jdring;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+/**
+ * Presents AlarmPublishers as <code>java.util.concurrent.Flow</code>
+ * publishers when the runtime has Flow (JDK 9 and above).  The library is
+ * compiled for older runtimes, so Flow is reached through reflection and
+ * dynamic proxies, looked up once, when this class is loaded.
+ */
+class FlowAdapter {
+    private static final Class PUBLISHER;
+    private static final Class SUBSCRIPTION;
+    private static final Method ON_SUBSCRIBE;
+    private static final Method ON_NEXT;
+    private static final Method ON_ERROR;
+    private static final Method ON_COMPLETE;
+
+    static {
+        Class publisher = null;
+        Class subscription = null;
+        Method onSubscribe = null;
+        Method onNext = null;
+        Method onError = null;
+        Method onComplete = null;
+        try {
+            publisher = Class.forName("java.util.concurrent.Flow$Publisher");
+            subscription = Class.forName("java.util.concurrent.Flow$Subscription");
+            Class subscriber = Class.forName("java.util.concurrent.Flow$Subscriber");
+            onSubscribe = subscriber.getMethod("onSubscribe", new Class[] { subscription });
+            onNext = subscriber.getMethod("onNext", new Class[] { Object.class });
+            onError = subscriber.getMethod("onError", new Class[] { Throwable.class });
+            onComplete = subscriber.getMethod("onComplete", new Class[0]);
+        }
+        catch(Throwable e) {
+            // older runtime: no Flow
+            publisher = null;
+        }
+        PUBLISHER = publisher;
+        SUBSCRIPTION = subscription;
+        ON_SUBSCRIBE = onSubscribe;
+        ON_NEXT = onNext;
+        ON_ERROR = onError;
+        ON_COMPLETE = onComplete;
+    }
+
+    private FlowAdapter() {
+    }
+
+    /**
+     * @return <code>true</code> if this runtime has Flow.
+     */
+    static boolean isSupported() {
+        return PUBLISHER != null;
+    }
+
+    /**
+     * @return a <code>Flow.Publisher</code> subscribing Flow subscribers to
+     * the given publisher.
+     * @exception UnsupportedOperationException if this runtime has no Flow.
+     */
+    static Object toFlowPublisher(final AlarmPublisher _publisher) {
+        if (!isSupported())
+            throw new UnsupportedOperationException("java.util.concurrent.Flow needs Java 9 or above");
+
+        return Proxy.newProxyInstance(FlowAdapter.class.getClassLoader(), new Class[] { PUBLISHER },
+                new InvocationHandler() {
+                    public Object invoke(Object _proxy, Method _method, Object[] _args) {
+                        if (_method.getName().equals("subscribe")) {
+                            if (_args[0] == null)
+                                throw new NullPointerException("subscriber");
+                            _publisher.subscribe(new FlowSubscriber(_args[0]));
+                            return null;
+                        }
+                        return objectMethod(_proxy, _method, _args, _publisher);
+                    }
+                });
+    }
+
+    /**
+     * Answers the Object methods of a proxy.
+     */
+    private static Object objectMethod(Object _proxy, Method _method, Object[] _args, Object _target) {
+        if (_method.getName().equals("equals"))
+            return Boolean.valueOf(_proxy == _args[0]);
+        if (_method.getName().equals("hashCode"))
+            return Integer.valueOf(System.identityHashCode(_proxy));
+        return "Flow view of " + _target; // toString
+    }
+
+    /**
+     * An AlarmSubscriber passing everything on to a Flow subscriber.
+     */
+    private static class FlowSubscriber implements AlarmSubscriber {
+        private final Object subscriber;
+
+        FlowSubscriber(Object _subscriber) {
+            subscriber = _subscriber;
+        }
+
+        public void onSubscribe(final AlarmSubscription _subscription) {
+            Object subscription = Proxy.newProxyInstance(FlowAdapter.class.getClassLoader(),
+                    new Class[] { SUBSCRIPTION }, new InvocationHandler() {
+                        public Object invoke(Object _proxy, Method _method, Object[] _args) {
+                            if (_method.getName().equals("request")) {
+                                _subscription.request(((Long) _args[0]).longValue());
+                                return null;
+                            }
+                            if (_method.getName().equals("cancel")) {
+                                _subscription.cancel();
+                                return null;
+                            }
+                            return objectMethod(_proxy, _method, _args, _subscription);
+                        }
+                    });
+            call(ON_SUBSCRIBE, new Object[] { subscription });
+        }
+
+        public void onNext(AlarmEntry _entry) {
+            call(ON_NEXT, new Object[] { _entry });
+        }
+
+        public void onError(Throwable _failure) {
+            call(ON_ERROR, new Object[] { _failure });
+        }
+
+        public void onComplete() {
+            call(ON_COMPLETE, new Object[0]);
+        }
+
+        private void call(Method _method, Object[] _args) {
+            try {
+                _method.invoke(subscriber, _args);
+            }
+            catch(InvocationTargetException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof RuntimeException)
+                    throw (RuntimeException) cause;
+                if (cause instanceof Error)
+                    throw (Error) cause;
+                throw new IllegalStateException(cause.toString());
+            }
+            catch(IllegalAccessException e) {
+                throw new IllegalStateException(e.toString());
+            }
+        }
+    }
+}
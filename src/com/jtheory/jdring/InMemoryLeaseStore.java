@@ -0,0 +1,54 @@
+/*
+ *  com/jtheory/jdring/InMemoryLeaseStore.java
+ *  Copyright (C) 1999 - 2004 jtheory creations, Olivier Dedieu et al.
+ *
+ *  This library is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU Library General Public License as published
+ *  by the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Library General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Library General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+
+package com.jtheory.jdring;
+
+/**
+ * A LeaseStore in memory, shared by the AlarmManagers of one JVM: for
+ * tests of clustered alarms, with one manager standing for each member.
+ */
+public class InMemoryLeaseStore implements LeaseStore {
+    private final LeaseTable table = new LeaseTable();
+
+    public synchronized Lease acquire(int _partition, String _owner, long _now, long _ttl) {
+        return table.acquire(_partition, _owner, _now, _ttl);
+    }
+
+    public synchronized void release(Lease _lease) {
+        table.release(_lease);
+    }
+
+    public synchronized boolean claim(Lease _lease, String _alarm, long _alarmTime, long _now) {
+        return table.claim(_lease, _alarm, _alarmTime, _now);
+    }
+
+    public synchronized boolean[] claimAll(Lease[] _leases, String[] _alarms, long[] _alarmTimes,
+            long _now) {
+        return table.claimAll(_leases, _alarms, _alarmTimes, _now);
+    }
+
+    public synchronized void heartbeat(String _member, long _now, long _ttl) {
+        table.heartbeat(_member, _now, _ttl);
+    }
+
+    public synchronized int countMembers(long _now) {
+        return table.countMembers(_now);
+    }
+}
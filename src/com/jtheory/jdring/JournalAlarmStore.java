@@ -0,0 +1,472 @@
+/*
+ *  com/jtheory/jdring/JournalAlarmStore.java
+ *  Copyright (C) 1999 - 2004 jtheory creations, Olivier Dedieu et al.
+ *
+ *  This library is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU Library General Public License as published
+ *  by the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Library General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Library General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+
+package com.jtheory.jdring;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * An AlarmStore keeping alarms in a directory, as a snapshot of the pending
+ * alarms plus a journal of the changes since.<p>
+ *
+ * The journal is a memory-mapped file records are appended to: writing one
+ * is a copy into memory, with no system call.  What's in the mapping
+ * survives the process crashing; to survive the machine crashing too, call
+ * <code>setForceOnWrite(true)</code>, at the cost of a disk write per
+ * record.  When the journal is full, and each time the store is loaded, the
+ * pending alarms are written to a new snapshot and the journal starts over.
+ * Each record carries a checksum, so a record torn by a crash ends the
+ * journal instead of corrupting it.<p>
+ *
+ * The store is told about a ringing alarm before its listener runs, so an
+ * alarm may be lost by a crash while it rings, but it never rings twice.
+ *
+ * Example of use:
+ * <pre>
+ *  AlarmListenerRegistry registry = new AlarmListenerRegistry();
+ *  registry.register("reports", reportListener);
+ *
+ *  AlarmManager mgr = new AlarmManager();
+ *  mgr.setStore(new JournalAlarmStore(new File("alarms"), registry));
+ *  // alarms from the last run are back; new ones are kept from now on
+ *  mgr.addAlarm("nightly", 0, 2, -1, -1, -1, -1, reportListener);
+ * </pre>
+ */
+public class JournalAlarmStore implements AlarmStore {
+    private static final int JOURNAL_MAGIC = 0x4a444a31; // "JDJ1"
+    private static final int SNAPSHOT_MAGIC = 0x4a445331; // "JDS1"
+    private static final int HEADER_SIZE = 12; // magic, generation
+    private static final int RECORD_HEADER_SIZE = 8; // length, checksum
+
+    private static final byte ADDED = 1;
+    private static final byte REMOVED = 2;
+    private static final byte FIRED = 3;
+    private static final byte CLEARED = 4;
+
+    /** The default size of the journal: 16 MB. */
+    public static final int DEFAULT_JOURNAL_SIZE = 16 << 20;
+
+    private final File snapshotFile;
+    private final File journalFile;
+    private final AlarmListenerRegistry registry;
+    private int journalSize;
+    private boolean forceOnWrite = false;
+
+    private RandomAccessFile journal;
+    private MappedByteBuffer buffer;
+    private long generation;
+    private int position;
+    private long nextId;
+    private final Map /* of Long to Stored */ stored = new LinkedHashMap();
+
+    private final ByteArrayOutputStream recordBytes = new ByteArrayOutputStream(256);
+    private final DataOutputStream record = new DataOutputStream(recordBytes);
+    private final CRC32 crc = new CRC32();
+
+    /**
+     * Creates a store in a directory, with a journal of the default size.
+     *
+     * @param directory the directory the store's files are kept in; it's
+     * created if needed.
+     * @param registry the listeners of the stored alarms.
+     */
+    public JournalAlarmStore(File _directory, AlarmListenerRegistry _registry) {
+        this(_directory, _registry, DEFAULT_JOURNAL_SIZE);
+    }
+
+    /**
+     * Creates a store in a directory.
+     *
+     * @param directory the directory the store's files are kept in; it's
+     * created if needed.
+     * @param registry the listeners of the stored alarms.
+     * @param journalSize the size of the journal, in bytes.  The bigger it
+     * is, the less often a snapshot is written.
+     */
+    public JournalAlarmStore(File _directory, AlarmListenerRegistry _registry, int _journalSize) {
+        if (_registry == null)
+            throw new NullPointerException("registry");
+        if (_journalSize < 4096)
+            throw new IllegalArgumentException("journal too small: " + _journalSize);
+
+        snapshotFile = new File(_directory, "alarms.snapshot");
+        journalFile = new File(_directory, "alarms.journal");
+        registry = _registry;
+        journalSize = _journalSize;
+    }
+
+    /**
+     * Forces each journal record to disk as it is written, so that alarms
+     * survive a crash of the machine, not only of the process.
+     */
+    public synchronized void setForceOnWrite(boolean _forceOnWrite) {
+        forceOnWrite = _forceOnWrite;
+    }
+
+    public synchronized List load(AlarmClock _clock) throws IOException {
+        if (journal != null)
+            throw new IllegalStateException("store already loaded");
+
+        File directory = snapshotFile.getParentFile();
+        if (directory != null && !directory.isDirectory() && !directory.mkdirs())
+            throw new IOException("can't create " + directory);
+
+        generation = 0;
+        nextId = 0;
+        if (snapshotFile.exists())
+            readSnapshot(_clock);
+
+        journal = new RandomAccessFile(journalFile, "rw");
+        journalSize = (int) Math.max(journalSize, journal.length());
+        buffer = journal.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, journalSize);
+
+        // a journal of another generation was written before the snapshot
+        // (a crash while compacting): the snapshot has all of it
+        if (buffer.getInt(0) == JOURNAL_MAGIC && buffer.getLong(4) == generation)
+            replayJournal(_clock);
+
+        List result = new ArrayList(stored.size());
+        for (Iterator it = stored.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry e = (Map.Entry) it.next();
+            Stored s = (Stored) e.getValue();
+            AlarmListener listener = registry.getListener(s.listenerName);
+            if (listener == null) {
+                throw new IllegalStateException("no listener registered as "
+                        + s.listenerName + " for " + s.entry);
+            }
+            s.entry.setListener(listener);
+            s.entry.storeId = ((Long) e.getKey()).longValue();
+            result.add(s.entry);
+        }
+
+        // start from a clean snapshot, so this run's journal holds only
+        // this run's changes
+        compact();
+        return result;
+    }
+
+    public synchronized void added(AlarmEntry _entry) {
+        String listenerName = registry.getName(_entry.getListener());
+        if (listenerName == null) {
+            throw new IllegalArgumentException("the listener of " + _entry
+                    + " is not registered: it couldn't be bound again");
+        }
+
+        long id = nextId++;
+        try {
+            startRecord(ADDED, id);
+            record.writeUTF(listenerName);
+            _entry.writeTo(record);
+            append();
+        }
+        catch(IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        _entry.storeId = id;
+        stored.put(Long.valueOf(id), new Stored(_entry, listenerName));
+    }
+
+    public synchronized void removed(AlarmEntry _entry) {
+        if (!isStored(_entry))
+            return;
+
+        try {
+            startRecord(REMOVED, _entry.storeId);
+            append();
+        }
+        catch(IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        stored.remove(Long.valueOf(_entry.storeId));
+        _entry.storeId = -1;
+    }
+
+    public synchronized void fired(AlarmEntry _entry) {
+        if (!isStored(_entry))
+            return;
+        if (!_entry.isRepeating) {
+            removed(_entry);
+            return;
+        }
+
+        try {
+            startRecord(FIRED, _entry.storeId);
+            record.writeLong(_entry.alarmTime);
+            record.writeLong(_entry.lastAlarmTime);
+            append();
+        }
+        catch(IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public synchronized void cleared() {
+        try {
+            startRecord(CLEARED, -1);
+            append();
+        }
+        catch(IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        for (Iterator it = stored.values().iterator(); it.hasNext(); )
+            ((Stored) it.next()).entry.storeId = -1;
+        stored.clear();
+    }
+
+    /**
+     * Writes the pending alarms to a new snapshot and empties the journal.
+     * This is done whenever the journal is full; call it to keep the next
+     * load short after many changes.
+     *
+     * @exception IOException if the snapshot can't be written.
+     */
+    public synchronized void compact() throws IOException {
+        if (journal == null)
+            throw new IllegalStateException("store not loaded");
+
+        long newGeneration = generation + 1;
+        writeSnapshot(newGeneration);
+
+        // from here on the old journal is ignored, whatever it holds; reset it
+        generation = newGeneration;
+        buffer.putInt(HEADER_SIZE, 0);
+        buffer.putInt(0, JOURNAL_MAGIC);
+        buffer.putLong(4, generation);
+        position = HEADER_SIZE;
+        if (forceOnWrite)
+            buffer.force();
+    }
+
+    public synchronized void close() throws IOException {
+        if (journal == null)
+            return;
+
+        buffer.force();
+        journal.close();
+        journal = null;
+        buffer = null;
+    }
+
+    private boolean isStored(AlarmEntry _entry) {
+        return _entry.storeId >= 0 && stored.get(Long.valueOf(_entry.storeId)) != null;
+    }
+
+    // ----------------------------------------------------------------------
+    //                      Journal
+    // ----------------------------------------------------------------------
+
+    private void startRecord(byte _type, long _id) throws IOException {
+        if (journal == null)
+            throw new IllegalStateException("store not loaded");
+
+        recordBytes.reset();
+        record.writeByte(_type);
+        record.writeLong(_id);
+    }
+
+    /**
+     * Appends the record being built to the journal, compacting or growing
+     * it first if it's full.  The length goes in last: until it's there, the
+     * record ends the journal.
+     */
+    private void append() throws IOException {
+        int length = recordBytes.size();
+        int needed = RECORD_HEADER_SIZE + length + 4; // and the next record's length
+        if (position + needed > journalSize) {
+            // the record is kept: compact() uses its own buffers
+            byte[] pending = recordBytes.toByteArray();
+            compact();
+            if (position + needed > journalSize)
+                grow(position + needed);
+            recordBytes.reset();
+            recordBytes.write(pending);
+        }
+
+        byte[] bytes = recordBytes.toByteArray();
+        buffer.putInt(position + RECORD_HEADER_SIZE + length, 0);
+        buffer.position(position + RECORD_HEADER_SIZE);
+        buffer.put(bytes);
+        buffer.putInt(position + 4, checksum(bytes, length));
+        buffer.putInt(position, length);
+        position += RECORD_HEADER_SIZE + length;
+        if (forceOnWrite)
+            buffer.force();
+    }
+
+    private void grow(int _size) throws IOException {
+        journalSize = Math.max(_size, 2 * journalSize);
+        buffer.force();
+        buffer = journal.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, journalSize);
+    }
+
+    /**
+     * The checksum covers the generation too, so records left over from
+     * an earlier journal never pass for current ones.
+     */
+    private int checksum(byte[] _bytes, int _length) {
+        crc.reset();
+        for (int shift = 56; shift >= 0; shift -= 8)
+            crc.update((int) (generation >>> shift));
+        crc.update(_bytes, 0, _length);
+        return (int) crc.getValue();
+    }
+
+    private void replayJournal(AlarmClock _clock) throws IOException {
+        position = HEADER_SIZE;
+        while (position + RECORD_HEADER_SIZE <= journalSize) {
+            int length = buffer.getInt(position);
+            if (length <= 0 || position + RECORD_HEADER_SIZE + length > journalSize)
+                break;
+
+            byte[] bytes = new byte[length];
+            buffer.position(position + RECORD_HEADER_SIZE);
+            buffer.get(bytes);
+            if (buffer.getInt(position + 4) != checksum(bytes, length))
+                break; // torn by a crash: the journal ends here
+
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+            byte type = in.readByte();
+            long id = in.readLong();
+            switch (type) {
+            case ADDED:
+                String listenerName = in.readUTF();
+                stored.put(Long.valueOf(id), new Stored(AlarmEntry.readFrom(in, _clock), listenerName));
+                nextId = Math.max(nextId, id + 1);
+                break;
+            case REMOVED:
+                stored.remove(Long.valueOf(id));
+                break;
+            case FIRED:
+                Stored s = (Stored) stored.get(Long.valueOf(id));
+                if (s != null) {
+                    s.entry.alarmTime = in.readLong();
+                    s.entry.lastAlarmTime = in.readLong();
+                }
+                break;
+            case CLEARED:
+                stored.clear();
+                break;
+            default:
+                throw new IOException("unknown journal record type " + type + " at " + position);
+            }
+            position += RECORD_HEADER_SIZE + length;
+        }
+    }
+
+    // ----------------------------------------------------------------------
+    //                      Snapshot
+    // ----------------------------------------------------------------------
+
+    /**
+     * Writes the snapshot to a temporary file, then renames it over the old
+     * one, so a crash leaves one or the other, whole.
+     */
+    private void writeSnapshot(long _generation) throws IOException {
+        File tmp = new File(snapshotFile.getPath() + ".tmp");
+        FileOutputStream file = new FileOutputStream(tmp);
+        try {
+            CheckedOutputStream checked = new CheckedOutputStream(
+                    new BufferedOutputStream(file, 1 << 16), new CRC32());
+            DataOutputStream out = new DataOutputStream(checked);
+            out.writeInt(SNAPSHOT_MAGIC);
+            out.writeLong(_generation);
+            out.writeLong(nextId);
+            out.writeInt(stored.size());
+            for (Iterator it = stored.entrySet().iterator(); it.hasNext(); ) {
+                Map.Entry e = (Map.Entry) it.next();
+                Stored s = (Stored) e.getValue();
+                out.writeLong(((Long) e.getKey()).longValue());
+                out.writeUTF(s.listenerName);
+                s.entry.writeTo(out);
+            }
+            out.writeLong(checked.getChecksum().getValue());
+            out.flush();
+            file.getFD().sync();
+        }
+        finally {
+            file.close();
+        }
+        Files.move(tmp.toPath(), snapshotFile.toPath(),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private void readSnapshot(AlarmClock _clock) throws IOException {
+        DataInputStream in = null;
+        try {
+            CheckedInputStream checked = new CheckedInputStream(
+                    new BufferedInputStream(new FileInputStream(snapshotFile), 1 << 16), new CRC32());
+            in = new DataInputStream(checked);
+            if (in.readInt() != SNAPSHOT_MAGIC)
+                throw new IOException(snapshotFile + " is not an alarm snapshot");
+
+            generation = in.readLong();
+            nextId = in.readLong();
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                long id = in.readLong();
+                String listenerName = in.readUTF();
+                stored.put(Long.valueOf(id), new Stored(AlarmEntry.readFrom(in, _clock), listenerName));
+            }
+            long expected = checked.getChecksum().getValue();
+            if (in.readLong() != expected)
+                throw new IOException(snapshotFile + " is corrupt");
+        }
+        finally {
+            if (in != null)
+                in.close();
+        }
+    }
+
+    /**
+     * A stored alarm, and the name of its listener.
+     */
+    private static class Stored {
+        final AlarmEntry entry;
+        final String listenerName;
+
+        Stored(AlarmEntry _entry, String _listenerName) {
+            entry = _entry;
+            listenerName = _listenerName;
+        }
+    }
+}
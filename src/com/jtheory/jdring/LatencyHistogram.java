@@ -0,0 +1,132 @@
+/*
+ *  com/jtheory/jdring/LatencyHistogram.java
+ *  Copyright (C) 1999 - 2004 jtheory creations, Olivier Dedieu et al.
+ *
+ *  This library is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU Library General Public License as published
+ *  by the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Library General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Library General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+
+package com.jtheory.jdring;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A histogram of durations, recorded without locking, in the manner of
+ * HdrHistogram: values are counted in buckets growing by powers of two,
+ * each cut into 2<sup>precisionBits</sup> sub-buckets, so the relative
+ * error is bounded whatever the value, and the size is fixed.
+ */
+public final class LatencyHistogram {
+    private final int precisionBits;
+    private final int subBuckets;
+    private final long highestValue;
+    private final AtomicLongArray counts;
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Creates a histogram.
+     *
+     * @param highestValue the highest value told apart; higher values are
+     * counted as this one.
+     * @param precisionBits the number of sub-buckets per power of two, in
+     * bits: values are within 1/2<sup>precisionBits</sup> of their bucket.
+     */
+    public LatencyHistogram(long _highestValue, int _precisionBits) {
+        if (_highestValue < 1)
+            throw new IllegalArgumentException("highest value too small: " + _highestValue);
+        if (_precisionBits < 1 || _precisionBits > 10)
+            throw new IllegalArgumentException("precision out of range: " + _precisionBits);
+
+        precisionBits = _precisionBits;
+        subBuckets = 1 << _precisionBits;
+        highestValue = _highestValue;
+        counts = new AtomicLongArray(indexOf(_highestValue) + 1);
+    }
+
+    /**
+     * Records a value; negative values are counted as 0.
+     */
+    public void record(long _value) {
+        if (_value < 0)
+            _value = 0;
+        counts.incrementAndGet(indexOf(Math.min(_value, highestValue)));
+        count.incrementAndGet();
+        sum.addAndGet(_value);
+
+        long m;
+        while (_value > (m = max.get()) && !max.compareAndSet(m, _value)) {
+            // lost a race with a higher value: try again
+        }
+    }
+
+    private int indexOf(long _value) {
+        if (_value < subBuckets)
+            return (int) _value;
+        int shift = 63 - Long.numberOfLeadingZeros(_value) - precisionBits;
+        return (shift + 1) * subBuckets + (int) ((_value >>> shift) & (subBuckets - 1));
+    }
+
+    /**
+     * @return the highest value counted in the bucket at the given index.
+     */
+    private long highestValueAt(int _index) {
+        if (_index < subBuckets)
+            return _index;
+        int shift = _index / subBuckets - 1;
+        long sub = _index % subBuckets;
+        return ((subBuckets + sub + 1) << shift) - 1;
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    public double getMean() {
+        long n = count.get();
+        return (n == 0) ? 0 : (double) sum.get() / n;
+    }
+
+    /**
+     * @param percentile the percentile, from 0 to 100.
+     * @return the value below or at which that percentile of the values
+     * fall, to the precision of the histogram; 0 if it's empty.
+     */
+    public long getValueAtPercentile(double _percentile) {
+        long n = count.get();
+        if (n == 0)
+            return 0;
+        long rank = Math.max(1, (long) Math.ceil(Math.min(_percentile, 100) / 100 * n));
+
+        long seen = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            seen += counts.get(i);
+            if (seen >= rank)
+                return Math.min(highestValueAt(i), getMax());
+        }
+        return getMax(); // counts moved on while we read them
+    }
+
+    public String toString() {
+        return "count " + getCount() + ", mean " + (long) getMean() + ", 50% "
+            + getValueAtPercentile(50) + ", 99% " + getValueAtPercentile(99) + ", max " + getMax();
+    }
+}
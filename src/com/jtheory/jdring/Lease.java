@@ -0,0 +1,81 @@
+/*
+ *  com/jtheory/jdring/Lease.java
+ *  Copyright (C) 1999 - 2004 jtheory creations, Olivier Dedieu et al.
+ *
+ *  This library is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU Library General Public License as published
+ *  by the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Library General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Library General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+
+package com.jtheory.jdring;
+
+/**
+ * The right of one cluster member to ring the alarms of a partition, until
+ * a given time.  Each new owner of a partition gets a higher fencing
+ * token, so anything a former owner still tries with its old lease can be
+ * told apart and refused.
+ *
+ * @see LeaseStore
+ */
+public final class Lease implements java.io.Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final int partition;
+    private final String owner;
+    private final long token;
+    private final long expiresAt;
+
+    public Lease(int _partition, String _owner, long _token, long _expiresAt) {
+        partition = _partition;
+        owner = _owner;
+        token = _token;
+        expiresAt = _expiresAt;
+    }
+
+    public int getPartition() {
+        return partition;
+    }
+
+    /**
+     * @return the member holding the lease, or <code>null</code> once it
+     * has been released.
+     */
+    public String getOwner() {
+        return owner;
+    }
+
+    /**
+     * @return the fencing token: it only grows, from one owner of the
+     * partition to the next.
+     */
+    public long getToken() {
+        return token;
+    }
+
+    /**
+     * @return the time the lease runs out unless renewed, in milliseconds.
+     */
+    public long getExpiresAt() {
+        return expiresAt;
+    }
+
+    public boolean isValid(long _now) {
+        return owner != null && _now < expiresAt;
+    }
+
+    public String toString() {
+        return "Lease on partition " + partition + " to " + owner + " (token " + token
+            + ", until " + new java.util.Date(expiresAt) + ")";
+    }
+}
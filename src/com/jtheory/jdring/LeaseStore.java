@@ -0,0 +1,90 @@
+/*
+ *  com/jtheory/jdring/LeaseStore.java
+ *  Copyright (C) 1999 - 2004 jtheory creations, Olivier Dedieu et al.
+ *
+ *  This library is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU Library General Public License as published
+ *  by the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Library General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Library General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+
+package com.jtheory.jdring;
+
+/**
+ * Shared state of an alarm cluster: who owns which partition of the
+ * alarms, which members are alive, and which alarm times have already been
+ * rung.  Every method is atomic across the whole cluster; times are those
+ * of the calling member's AlarmClock, so members' clocks should be kept in
+ * sync (e.g. with NTP).
+ *
+ * @see AlarmCluster
+ * @see InMemoryLeaseStore
+ * @see FileLeaseStore
+ */
+public interface LeaseStore {
+
+    /**
+     * Takes or renews the lease on a partition.  A member renewing its own
+     * valid lease keeps its fencing token; a new owner gets a higher one.
+     *
+     * @param partition the partition.
+     * @param owner the member asking.
+     * @param now the current time, in milliseconds.
+     * @param ttl how long the lease lasts, in milliseconds.
+     * @return the lease, or <code>null</code> if another member holds a
+     * valid lease on the partition.
+     */
+    public Lease acquire(int partition, String owner, long now, long ttl);
+
+    /**
+     * Gives a lease up before it runs out.  Does nothing if the lease is
+     * no longer the current one.
+     */
+    public void release(Lease lease);
+
+    /**
+     * Records that an alarm rings for a given alarm time, provided the
+     * lease is still the current, valid lease on the alarm's partition
+     * (fencing), and that alarm time was not recorded already.
+     *
+     * @param lease the caller's lease on the alarm's partition.
+     * @param alarm the name of the alarm.
+     * @param alarmTime the alarm time being rung.
+     * @param now the current time, in milliseconds.
+     * @return <code>true</code> if the caller should ring the alarm.
+     */
+    public boolean claim(Lease lease, String alarm, long alarmTime, long now);
+
+    /**
+     * Claims several alarm times at once, as <code>claim()</code> does for
+     * each, in a single round-trip: AlarmCluster claims all the alarms due
+     * in a pass this way.
+     *
+     * @param leases the caller's lease on each alarm's partition.
+     * @param alarms the names of the alarms.
+     * @param alarmTimes the alarm times being rung.
+     * @param now the current time, in milliseconds.
+     * @return for each alarm, <code>true</code> if the caller should ring it.
+     */
+    public boolean[] claimAll(Lease[] leases, String[] alarms, long[] alarmTimes, long now);
+
+    /**
+     * Tells the cluster a member is alive, until a given time.
+     */
+    public void heartbeat(String member, long now, long ttl);
+
+    /**
+     * @return the number of members alive.
+     */
+    public int countMembers(long now);
+}
@@ -0,0 +1,153 @@
+/*
+ *  com/jtheory/jdring/LeaseTable.java
+ *  Copyright (C) 1999 - 2004 jtheory creations, Olivier Dedieu et al.
+ *
+ *  This library is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU Library General Public License as published
+ *  by the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Library General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Library General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+
+package com.jtheory.jdring;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * The state behind the LeaseStore implementations: the leases (kept after
+ * they are released, for their fencing token), the last alarm time rung
+ * per alarm, and the members' heartbeats.  Not synchronized.
+ */
+class LeaseTable {
+    private final Map /* of Integer to Lease */ leases = new HashMap();
+    private final Map /* of String to Long */ rung = new HashMap();
+    private final Map /* of String to Long */ members = new HashMap();
+
+    Lease acquire(int _partition, String _owner, long _now, long _ttl) {
+        Lease current = (Lease) leases.get(Integer.valueOf(_partition));
+        long token;
+        if (current == null) {
+            token = 1;
+        }
+        else if (current.isValid(_now)) {
+            if (!current.getOwner().equals(_owner))
+                return null;
+            token = current.getToken(); // a renewal
+        }
+        else {
+            token = current.getToken() + 1;
+        }
+
+        Lease lease = new Lease(_partition, _owner, token, _now + _ttl);
+        leases.put(Integer.valueOf(_partition), lease);
+        return lease;
+    }
+
+    boolean release(Lease _lease) {
+        if (!isCurrent(_lease))
+            return false;
+        leases.put(Integer.valueOf(_lease.getPartition()),
+                new Lease(_lease.getPartition(), null, _lease.getToken(), 0));
+        return true;
+    }
+
+    boolean claim(Lease _lease, String _alarm, long _alarmTime, long _now) {
+        Lease current = (Lease) leases.get(Integer.valueOf(_lease.getPartition()));
+        if (!isCurrent(_lease) || !current.isValid(_now))
+            return false;
+
+        Long last = (Long) rung.get(_alarm);
+        if (last != null && last.longValue() >= _alarmTime)
+            return false;
+        rung.put(_alarm, Long.valueOf(_alarmTime));
+        return true;
+    }
+
+    boolean[] claimAll(Lease[] _leases, String[] _alarms, long[] _alarmTimes, long _now) {
+        boolean[] claimed = new boolean[_alarms.length];
+        for (int i = 0; i < _alarms.length; i++)
+            claimed[i] = claim(_leases[i], _alarms[i], _alarmTimes[i], _now);
+        return claimed;
+    }
+
+    private boolean isCurrent(Lease _lease) {
+        Lease current = (Lease) leases.get(Integer.valueOf(_lease.getPartition()));
+        return current != null && current.getToken() == _lease.getToken()
+            && _lease.getOwner().equals(current.getOwner());
+    }
+
+    void heartbeat(String _member, long _now, long _ttl) {
+        members.put(_member, Long.valueOf(_now + _ttl));
+        for (Iterator it = members.values().iterator(); it.hasNext(); ) {
+            if (((Long) it.next()).longValue() <= _now)
+                it.remove();
+        }
+    }
+
+    int countMembers(long _now) {
+        int count = 0;
+        for (Iterator it = members.values().iterator(); it.hasNext(); ) {
+            if (((Long) it.next()).longValue() > _now)
+                count++;
+        }
+        return count;
+    }
+
+    // ----------------------------------------------------------------------
+    //                      Storage, for FileLeaseStore
+    // ----------------------------------------------------------------------
+
+    void writeTo(DataOutput _out) throws IOException {
+        _out.writeInt(leases.size());
+        for (Iterator it = leases.values().iterator(); it.hasNext(); ) {
+            Lease lease = (Lease) it.next();
+            _out.writeInt(lease.getPartition());
+            _out.writeUTF((lease.getOwner() != null) ? lease.getOwner() : "");
+            _out.writeLong(lease.getToken());
+            _out.writeLong(lease.getExpiresAt());
+        }
+        writeTimes(_out, rung);
+        writeTimes(_out, members);
+    }
+
+    void readFrom(DataInput _in) throws IOException {
+        int count = _in.readInt();
+        for (int i = 0; i < count; i++) {
+            int partition = _in.readInt();
+            String owner = _in.readUTF();
+            leases.put(Integer.valueOf(partition), new Lease(partition,
+                    (owner.length() > 0) ? owner : null, _in.readLong(), _in.readLong()));
+        }
+        readTimes(_in, rung);
+        readTimes(_in, members);
+    }
+
+    private static void writeTimes(DataOutput _out, Map _times) throws IOException {
+        _out.writeInt(_times.size());
+        for (Iterator it = _times.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry e = (Map.Entry) it.next();
+            _out.writeUTF((String) e.getKey());
+            _out.writeLong(((Long) e.getValue()).longValue());
+        }
+    }
+
+    private static void readTimes(DataInput _in, Map _times) throws IOException {
+        int count = _in.readInt();
+        for (int i = 0; i < count; i++)
+            _times.put(_in.readUTF(), Long.valueOf(_in.readLong()));
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ *  com/jtheory/jdring/OffsetAlarmClock.java
+ *  Copyright (C) 1999 - 2004 jtheory creations, Olivier Dedieu et al.
+ *
+ *  This library is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU Library General Public License as published
+ *  by the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Library General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Library General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+package com.jtheory.jdring;
+
+/**
+ * A clock running a fixed offset ahead of (or behind) another one, e.g. to
+ * rehearse tomorrow's schedule today.  Alarms still wait in real time.
+ */
+public class OffsetAlarmClock implements AlarmClock {
+    private final AlarmClock base;
+    private final long offset;
+
+    /**
+     * Creates a clock a fixed offset away from the system clock.
+     *
+     * @param offset the offset, in milliseconds; negative values run behind.
+     */
+    public OffsetAlarmClock(long _offset) {
+        this(AlarmClock.SYSTEM, _offset);
+    }
+
+    /**
+     * Creates a clock a fixed offset away from another clock.
+     *
+     * @param base the clock to follow.
+     * @param offset the offset, in milliseconds; negative values run behind.
+     */
+    public OffsetAlarmClock(AlarmClock _base, long _offset) {
+        if (_base == null)
+            throw new NullPointerException("base");
+        base = _base;
+        offset = _offset;
+    }
+
+    public long currentTimeMillis() {
+        return base.currentTimeMillis() + offset;
+    }
+
+    public long getOffset() {
+        return offset;
+    }
+
+    public String toString() {
+        return "OffsetAlarmClock[" + offset + " ms from " + base + "]";
+    }
+}
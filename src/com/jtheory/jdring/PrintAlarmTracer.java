@@ -0,0 +1,76 @@
+/*
+ *  com/jtheory/jdring/PrintAlarmTracer.java
+ *  Copyright (C) 1999 - 2004 jtheory creations, Olivier Dedieu et al.
+ *
+ *  This library is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU Library General Public License as published
+ *  by the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Library General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Library General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+
+package com.jtheory.jdring;
+
+import java.io.PrintStream;
+
+/**
+ * An AlarmTracer printing every event, one line each, as the managers'
+ * debug output used to.
+ *
+ * Example of use:
+ * <pre>
+ *  mgr.setTracer(new PrintAlarmTracer(System.out));
+ * </pre>
+ */
+public class PrintAlarmTracer implements AlarmTracer {
+    private final PrintStream out;
+
+    public PrintAlarmTracer(PrintStream _out) {
+        if (_out == null)
+            throw new NullPointerException("out");
+        out = _out;
+    }
+
+    public void alarmAdded(AlarmManager _manager, AlarmEntry _entry) {
+        print(_manager, "added " + _entry);
+    }
+
+    public void alarmRemoved(AlarmManager _manager, AlarmEntry _entry) {
+        print(_manager, "removed " + _entry);
+    }
+
+    public void alarmRescheduled(AlarmManager _manager, AlarmEntry _entry, long _previousAlarmTime) {
+        print(_manager, "rescheduled " + _entry);
+    }
+
+    public void alarmMisfired(AlarmManager _manager, AlarmEntry _entry, long _lateMillis) {
+        print(_manager, "misfired by " + _lateMillis + " ms: " + _entry);
+    }
+
+    public void alarmFired(AlarmManager _manager, AlarmEntry _entry) {
+        print(_manager, "ringing " + _entry);
+    }
+
+    public void listenerFailed(AlarmManager _manager, AlarmEntry _entry, Throwable _failure) {
+        print(_manager, "listener of " + _entry + " failed: " + _failure);
+        _failure.printStackTrace(out);
+    }
+
+    public void waiterWoke(AlarmManager _manager, int _dueCount) {
+        print(_manager, _dueCount + " alarms due");
+    }
+
+    private void print(AlarmManager _manager, String _event) {
+        out.println("[" + Thread.currentThread().getName() + "] AlarmManager "
+                + _manager.getThreadName() + ": " + _event);
+    }
+}
@@ -0,0 +1,459 @@
+/*
+ *  com/jtheory/jdring/ShardedAlarmManager.java
+ *  Copyright (C) 1999 - 2004 jtheory creations, Olivier Dedieu et al.
+ *
+ *  This library is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU Library General Public License as published
+ *  by the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Library General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Library General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+
+package com.jtheory.jdring;
+
+import java.time.Duration;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * An alarm manager split into independent shards, each an AlarmManager
+ * with its own queue, monitor and waiter thread.  Alarms are spread over
+ * the shards by a hash of their name, so threads adding alarms and
+ * alarms ringing at the same time mostly meet different monitors, and due
+ * alarms are taken off the queues by several waiters at once.<p>
+ *
+ * The methods are those of AlarmManager.  Alarms are only ordered within
+ * a shard: two alarms due at the same time in different shards ring in
+ * either order.  The shards share one ring executor.  To keep the alarms
+ * across restarts, give each shard a store of its own:
+ * <pre>
+ *  for (int i = 0; i < mgr.getShardCount(); i++)
+ *    mgr.getShard(i).setStore(new JournalAlarmStore(new File(dir, "shard" + i), registry));
+ * </pre>
+ * The number of shards must then stay the same from one run to the next.
+ */
+public class ShardedAlarmManager {
+    private final AlarmManager[] shards;
+    private final AlarmClock clock;
+    private Executor ringExecutor;
+    private boolean ownsRingExecutor;
+
+    /**
+     * Creates a sharded manager with one shard per processor.
+     *
+     * @param isDaemon true if the waiter threads should run as daemons.
+     * @param threadName the prefix of the names of the waiter threads.
+     */
+    public ShardedAlarmManager(boolean isDaemon, String threadName) {
+        this(isDaemon, threadName, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Creates a sharded manager.
+     *
+     * @param isDaemon true if the waiter threads should run as daemons.
+     * @param threadName the prefix of the names of the waiter threads.
+     * @param shards the number of shards.
+     */
+    public ShardedAlarmManager(boolean isDaemon, String threadName, int _shards) {
+        this(isDaemon, threadName, treeSetQueues(_shards), AlarmClock.SYSTEM);
+    }
+
+    /**
+     * Creates a sharded manager with specific queues and clock.
+     *
+     * @param isDaemon true if the waiter threads should run as daemons.
+     * @param threadName the prefix of the names of the waiter threads.
+     * @param queues one (empty) queue per shard.
+     * @param clock the source of the current time.
+     */
+    public ShardedAlarmManager(boolean isDaemon, String threadName, AlarmQueue[] _queues,
+            AlarmClock _clock) {
+        if (_queues.length < 1)
+            throw new IllegalArgumentException("no shard");
+
+        clock = _clock;
+        ringExecutor = AlarmManager.newRingPool(threadName, isDaemon);
+        ownsRingExecutor = true;
+        shards = new AlarmManager[_queues.length];
+        for (int i = 0; i < shards.length; i++) {
+            shards[i] = new AlarmManager(isDaemon, threadName + "-" + i, _queues[i], _clock);
+            shards[i].setRingExecutor(ringExecutor);
+        }
+    }
+
+    private static AlarmQueue[] treeSetQueues(int _shards) {
+        if (_shards < 1)
+            throw new IllegalArgumentException("no shard: " + _shards);
+
+        AlarmQueue[] queues = new AlarmQueue[_shards];
+        for (int i = 0; i < _shards; i++)
+            queues[i] = new TreeSetAlarmQueue();
+        return queues;
+    }
+
+    public int getShardCount() {
+        return shards.length;
+    }
+
+    /**
+     * @return a shard, e.g. to give it a store.
+     */
+    public AlarmManager getShard(int _index) {
+        return shards[_index];
+    }
+
+    /**
+     * @return the shard an alarm with the given name goes to.
+     */
+    public AlarmManager getShard(String _name) {
+        return shards[shardIndex(_name)];
+    }
+
+    private int shardIndex(String _name) {
+        int h = _name.hashCode();
+        h ^= h >>> 16; // the low bits alone are poor for names like "job1", "job2"...
+        return (h & 0x7fffffff) % shards.length;
+    }
+
+    public AlarmClock getClock() {
+        return clock;
+    }
+
+    /**
+     * Sets the executor all the shards ring <code>RING_POOLED</code>
+     * entries on; see <code>AlarmManager.setRingExecutor()</code>.
+     *
+     * @param executor the executor, or <code>null</code> for the default pool.
+     */
+    public synchronized void setRingExecutor(Executor _executor) {
+        if (ownsRingExecutor)
+            ((ExecutorService) ringExecutor).shutdown();
+        ownsRingExecutor = false;
+        ringExecutor = _executor;
+        for (int i = 0; i < shards.length; i++)
+            shards[i].setRingExecutor(_executor);
+    }
+
+    /**
+     * Sets the tracer of all the shards; see
+     * <code>AlarmManager.setTracer()</code>.
+     *
+     * @param tracer the tracer, or <code>null</code> for none.
+     */
+    public void setTracer(AlarmTracer _tracer) {
+        for (int i = 0; i < shards.length; i++)
+            shards[i].setTracer(_tracer);
+    }
+
+    /**
+     * Limits the rate at which alarms ring, shared evenly by the shards;
+     * see <code>AlarmManager.setMaxRingRate()</code>.  The burst is split
+     * in whole alarms: with 10 over 4 shards, the first two get 3 and the
+     * others 2, so the shards add up to the burst given.
+     *
+     * @param ringsPerSecond the rate for all the shards, or 0 for no limit.
+     * @param burst the number of alarms which may ring at once, for all
+     * the shards.
+     * @exception IllegalArgumentException if the rate is limited and the
+     * burst is under the number of shards: some would never ring.
+     */
+    public void setMaxRingRate(double _ringsPerSecond, int _burst) {
+        if (!(_ringsPerSecond >= 0))
+            throw new IllegalArgumentException("bad ring rate: " + _ringsPerSecond);
+        if (_burst < 1)
+            throw new IllegalArgumentException("burst under 1: " + _burst);
+        if (_ringsPerSecond > 0 && _burst < shards.length)
+            throw new IllegalArgumentException("burst under the number of shards: " + _burst);
+
+        for (int i = 0; i < shards.length; i++) {
+            int share = _burst / shards.length + ((i < _burst % shards.length) ? 1 : 0);
+            // without a limit, the burst is unused: any valid one will do
+            shards[i].setMaxRingRate(_ringsPerSecond / shards.length, Math.max(1, share));
+        }
+    }
+
+    // ----------------------------------------------------------------------
+    //                      Adding alarms
+    // ----------------------------------------------------------------------
+
+    /**
+     * Adds an alarm for a specified date.
+     *
+     * @exception PastDateException if the alarm date is in the past.
+     * @see AlarmManager#addAlarm(String, Date, AlarmListener)
+     */
+    public AlarmEntry addAlarm(String _name, Date _date, AlarmListener _listener)
+    throws PastDateException {
+        AlarmEntry entry = new AlarmEntry(_name, _date, clock, _listener);
+        addAlarm(entry);
+        return entry;
+    }
+
+    /**
+     * Adds an alarm for a specified delay, to the millisecond.
+     *
+     * @exception PastDateException if the delay is not positive.
+     * @see AlarmManager#addAlarm(String, Duration, boolean, AlarmListener)
+     */
+    public AlarmEntry addAlarm(String _name, Duration _delay, boolean _isRepeating,
+            AlarmListener _listener) throws PastDateException {
+        AlarmEntry entry = new AlarmEntry(_name, _delay, _isRepeating, clock, _listener);
+        addAlarm(entry);
+        return entry;
+    }
+
+    /**
+     * Adds an alarm ringing at a fixed rate: after the initial delay, then
+     * at that time plus every whole period, however late each ring is.
+     *
+     * @param initialDelay the delay before the first alarm; it may be zero.
+     * @param period the time between alarms, at least a millisecond.
+     * @param listener the alarm listener.
+     * @return the AlarmEntry.
+     * @exception PastDateException if the initial delay is negative.
+     * @see AlarmEntry#REPEAT_FIXED_RATE
+     */
+    public AlarmEntry addFixedRateAlarm(String _name, Duration _initialDelay, Duration _period,
+            AlarmListener _listener) throws PastDateException {
+        AlarmEntry entry = new AlarmEntry(_name, _initialDelay, _period,
+                AlarmEntry.REPEAT_FIXED_RATE, clock, _listener);
+        addAlarm(entry);
+        return entry;
+    }
+
+    /**
+     * Adds an alarm ringing with a fixed delay: after the initial delay,
+     * then a period after its listener is done each time.
+     *
+     * @param initialDelay the delay before the first alarm; it may be zero.
+     * @param period the time from the end of a run to the next alarm, at
+     * least a millisecond.
+     * @param listener the alarm listener.
+     * @return the AlarmEntry.
+     * @exception PastDateException if the initial delay is negative.
+     * @see AlarmEntry#REPEAT_FIXED_DELAY
+     */
+    public AlarmEntry addFixedDelayAlarm(String _name, Duration _initialDelay, Duration _period,
+            AlarmListener _listener) throws PastDateException {
+        AlarmEntry entry = new AlarmEntry(_name, _initialDelay, _period,
+                AlarmEntry.REPEAT_FIXED_DELAY, clock, _listener);
+        addAlarm(entry);
+        return entry;
+    }
+
+    /**
+     * Adds an alarm for a specified delay, in minutes.
+     *
+     * @exception PastDateException if the delay is less than a minute.
+     * @see AlarmManager#addAlarm(String, int, boolean, AlarmListener)
+     */
+    public AlarmEntry addAlarm(String _name, int _delay, boolean _isRepeating,
+            AlarmListener _listener) throws PastDateException {
+        AlarmEntry entry = new AlarmEntry(_name, _delay, _isRepeating, clock, _listener);
+        addAlarm(entry);
+        return entry;
+    }
+
+    /**
+     * Adds a cron-like alarm.
+     *
+     * @exception PastDateException if the alarm date is in the past.
+     * @see AlarmManager#addAlarm(String, int[], int[], int[], int[], int[], int, AlarmListener)
+     */
+    public AlarmEntry addAlarm(String _name, int[] _minutes, int[] _hours,
+            int[] _daysOfMonth, int[] _months, int[] _daysOfWeek, int _year,
+            AlarmListener _listener) throws PastDateException {
+        AlarmEntry entry = new AlarmEntry(_name, _minutes, _hours, _daysOfMonth, _months,
+                _daysOfWeek, _year, ZoneId.systemDefault(), clock, _listener);
+        addAlarm(entry);
+        return entry;
+    }
+
+    /**
+     * Adds a repeating alarm on a cron expression.
+     *
+     * @exception IllegalArgumentException if the expression is not valid.
+     * @see AlarmManager#addAlarm(String, String, AlarmListener)
+     */
+    public AlarmEntry addAlarm(String _name, String _cronExpression, AlarmListener _listener) {
+        AlarmEntry entry = new AlarmEntry(_name, CronSchedule.parse(_cronExpression),
+                ZoneId.systemDefault(), clock, _listener);
+        try {
+            addAlarm(entry);
+        }
+        catch(PastDateException e) {
+            // not thrown: addAlarm(AlarmEntry) doesn't check the time
+        }
+        return entry;
+    }
+
+    public void addAlarm(AlarmEntry _entry) throws PastDateException {
+        getShard(_entry.getName()).addAlarm(_entry);
+    }
+
+    /**
+     * Adds many alarms at once; each shard takes its own in one go.
+     *
+     * @exception PastDateException if an alarm date is in the past; no
+     * alarm is added then.
+     * @see AlarmManager#addAlarms(Collection)
+     */
+    public void addAlarms(Collection /* of AlarmEntry */ _entries) throws PastDateException {
+        List[] parts = new List[shards.length];
+        for (int i = 0; i < parts.length; i++)
+            parts[i] = new ArrayList(_entries.size() / shards.length + 1);
+        for (Iterator it = _entries.iterator(); it.hasNext(); ) {
+            AlarmEntry entry = (AlarmEntry) it.next();
+            entry.checkAlarmTime(); // all of them, before adding any
+            parts[shardIndex(entry.getName())].add(entry);
+        }
+        for (int i = 0; i < shards.length; i++) {
+            if (!parts[i].isEmpty())
+                shards[i].addAlarms(parts[i]);
+        }
+    }
+
+    /**
+     * @exception PastDateException if the alarm date is in the past.
+     * @see AlarmManager#addAlarmAsync(AlarmEntry)
+     */
+    public void addAlarmAsync(AlarmEntry _entry) throws PastDateException {
+        getShard(_entry.getName()).addAlarmAsync(_entry);
+    }
+
+    // ----------------------------------------------------------------------
+    //                      Finding and removing alarms
+    // ----------------------------------------------------------------------
+
+    public boolean removeAlarm(AlarmEntry _entry) {
+        return getShard(_entry.getName()).removeAlarm(_entry);
+    }
+
+    public void removeAlarmAsync(AlarmEntry _entry) {
+        getShard(_entry.getName()).removeAlarmAsync(_entry);
+    }
+
+    public boolean removeAlarm(String _name) {
+        return getShard(_name).removeAlarm(_name);
+    }
+
+    public int removeAlarmsByPrefix(String _prefix) {
+        int removed = 0;
+        for (int i = 0; i < shards.length; i++)
+            removed += shards[i].removeAlarmsByPrefix(_prefix);
+        return removed;
+    }
+
+    public int removeAlarmsByTag(String _tag) {
+        int removed = 0;
+        for (int i = 0; i < shards.length; i++)
+            removed += shards[i].removeAlarmsByTag(_tag);
+        return removed;
+    }
+
+    /**
+     * @exception PastDateException if the date is in the past.
+     * @see AlarmManager#reschedule(String, Date)
+     */
+    public boolean reschedule(String _name, Date _date) throws PastDateException {
+        return getShard(_name).reschedule(_name, _date);
+    }
+
+    public AlarmEntry getAlarm(String _name) {
+        return getShard(_name).getAlarm(_name);
+    }
+
+    public List getAlarmsByPrefix(String _prefix) {
+        List result = new ArrayList();
+        for (int i = 0; i < shards.length; i++)
+            result.addAll(shards[i].getAlarmsByPrefix(_prefix));
+        return result;
+    }
+
+    public List getAlarmsByTag(String _tag) {
+        List result = new ArrayList();
+        for (int i = 0; i < shards.length; i++)
+            result.addAll(shards[i].getAlarmsByTag(_tag));
+        return result;
+    }
+
+    public boolean containsAlarm(AlarmEntry _entry) {
+        return getShard(_entry.getName()).containsAlarm(_entry);
+    }
+
+    public int getAlarmCount() {
+        int count = 0;
+        for (int i = 0; i < shards.length; i++)
+            count += shards[i].getAlarmCount();
+        return count;
+    }
+
+    /**
+     * Returns a copy of all alarms in the manager, in the order they will
+     * ring.
+     */
+    public List getAllAlarms() {
+        List result = new ArrayList();
+        for (int i = 0; i < shards.length; i++)
+            result.addAll(shards[i].getAllAlarms());
+        Collections.sort(result);
+        return result;
+    }
+
+    public void removeAllAlarms() {
+        for (int i = 0; i < shards.length; i++)
+            shards[i].removeAllAlarms();
+    }
+
+    // ----------------------------------------------------------------------
+    //                      Stopping
+    // ----------------------------------------------------------------------
+
+    /**
+     * Stops every shard, leaving their alarms in their stores.
+     *
+     * @see AlarmManager#stop()
+     */
+    public synchronized void stop() {
+        for (int i = 0; i < shards.length; i++)
+            shards[i].stop();
+        if (ownsRingExecutor) {
+            ((ExecutorService) ringExecutor).shutdown();
+            ownsRingExecutor = false;
+        }
+    }
+
+    public synchronized void removeAllAlarmsAndStop() {
+        removeAllAlarms();
+        stop();
+    }
+
+    /**
+     * @return <code>true</code> once every shard is stopped, including
+     * shards stopped one by one through <code>getShard()</code>.
+     */
+    public boolean isStopped() {
+        for (int i = 0; i < shards.length; i++) {
+            if (!shards[i].isStopped())
+                return false;
+        }
+        return true;
+    }
+}
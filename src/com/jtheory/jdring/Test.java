@@ -18,10 +18,14 @@
  */
 
 package com.jtheory.jdring;
+import java.time.Duration;
 import java.util.Calendar;
 import java.util.Date;
 import java.util.List;
 import java.util.Iterator;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import com.jtheory.jdring.*;
 
@@ -35,6 +39,14 @@ import com.jtheory.jdring.*;
 public class Test {
   public static void main(String[] args) throws Exception {
 
+    System.out.println("TIMING WHEELS VS TREESET");
+    compareWheelWithTreeSet(1, 200000, new Random(0));
+    compareWheelWithTreeSet(7, 200000, new Random(1));
+    compareWheelWithTreeSet(1000, 200000, new Random(2));
+
+    checkAddedTwice();
+    checkBatchOverlap();
+
     AlarmManager mgr = new AlarmManager();
 
     long current = System.currentTimeMillis();
@@ -154,5 +166,204 @@ public class Test {
     }
     System.out.println("----------------------------");
   }
+
+  /**
+   * An entry can't be added to a second manager, nor queued again while
+   * its fixed-delay listener runs.
+   */
+  static void checkAddedTwice() throws Exception {
+    AlarmManager first = new AlarmManager(true, "first");
+    AlarmManager second = new AlarmManager(true, "second");
+    AlarmListener quiet = new AlarmListener() {
+      public void handleAlarm(AlarmEntry entry) {
+      }
+    };
+
+    AlarmEntry entry = new AlarmEntry("twice",
+        new Date(System.currentTimeMillis() + 3600000), quiet);
+    first.addAlarm(entry);
+    try {
+      second.addAlarm(entry);
+      System.out.println("in another manager: NOT refused");
+    }
+    catch (IllegalStateException e) {
+      System.out.println("in another manager: refused, "
+          + (first.getAlarm("twice") == entry && second.getAlarm("twice") == null
+             ? "first manager unchanged" : "FIRST MANAGER CHANGED"));
+    }
+
+    final CountDownLatch ringing = new CountDownLatch(1);
+    final CountDownLatch done = new CountDownLatch(1);
+    AlarmEntry delayed = new AlarmEntry("delayed", Duration.ZERO,
+        Duration.ofHours(1), AlarmEntry.REPEAT_FIXED_DELAY, new AlarmListener() {
+      public void handleAlarm(AlarmEntry entry) {
+        ringing.countDown();
+        try {
+          done.await();
+        }
+        catch (InterruptedException e) {
+        }
+      }
+    });
+    first.addAlarm(delayed);
+    ringing.await();
+    try {
+      first.addAlarm(delayed);
+      System.out.println("fixed delay, ringing: NOT refused");
+    }
+    catch (IllegalStateException e) {
+      System.out.println("fixed delay, ringing: refused");
+    }
+    done.countDown();
+
+    first.removeAllAlarmsAndStop();
+    second.removeAllAlarmsAndStop();
+  }
+
+  /**
+   * A batch listener slower than its alarms rings once at a time with
+   * OVERLAP_SKIP, as a plain listener would.
+   */
+  static void checkBatchOverlap() throws Exception {
+    AlarmManager mgr = new AlarmManager(true, "batch");
+    final AtomicInteger running = new AtomicInteger();
+    final AtomicInteger most = new AtomicInteger();
+    final AtomicInteger rings = new AtomicInteger();
+    BatchAlarmListener slow = new BatchAlarmListener() {
+      public void handleAlarms(List entries) {
+        int now = running.incrementAndGet();
+        most.accumulateAndGet(now, Math::max);
+        rings.incrementAndGet();
+        try {
+          Thread.sleep(200);
+        }
+        catch (InterruptedException e) {
+        }
+        running.decrementAndGet();
+      }
+      public void handleAlarm(AlarmEntry entry) {
+      }
+    };
+
+    AlarmEntry entry = new AlarmEntry("batch", Duration.ZERO,
+        Duration.ofMillis(20), AlarmEntry.REPEAT_FIXED_RATE, slow);
+    entry.setRingMode(AlarmEntry.RING_POOLED);
+    entry.setOverlapPolicy(AlarmEntry.OVERLAP_SKIP);
+    mgr.addAlarm(entry);
+    Thread.sleep(1000);
+    mgr.removeAllAlarmsAndStop();
+    Thread.sleep(300);
+    System.out.println("batch, skipping overlaps: " + rings.get()
+        + " rings, at most " + most.get() + " at once");
+  }
+
+  /**
+   * Differential check: runs the same random sequence of add, remove,
+   * first and pollDue on a TreeSetAlarmQueue and on timing wheels, and
+   * reports any difference.  Alarm times reach every level and the
+   * overflow list, time jumps far enough to cascade them down, and due
+   * entries are left in the expired heap to be removed from there.
+   */
+  static void compareWheelWithTreeSet(long tickMillis, int operations, Random random) {
+    final int levels = TimingWheelAlarmQueue.LEVELS;
+    final int bits = TimingWheelAlarmQueue.WHEEL_BITS;
+    final int expired = TimingWheelAlarmQueue.EXPIRED;
+    final int overflow = TimingWheelAlarmQueue.OVERFLOW;
+
+    long now = 1000000000000L;
+    TreeSetAlarmQueue tree = new TreeSetAlarmQueue();
+    TimingWheelAlarmQueue wheel = new TimingWheelAlarmQueue(tickMillis, now);
+
+    AlarmEntry[] entries = new AlarmEntry[2000];
+    Date future = new Date(System.currentTimeMillis() + 86400000L);
+    for (int i = 0; i < entries.length; i++) {
+      try {
+        entries[i] = new AlarmEntry("queue" + i, future, null);
+      }
+      catch (PastDateException e) {
+        throw new IllegalStateException(e.toString());
+      }
+    }
+
+    int mismatches = 0;
+    int[] placed = new int[overflow + 1];
+    int removedExpired = 0, polled = 0;
+    for (int op = 0; op < operations; op++) {
+      AlarmEntry entry = entries[random.nextInt(entries.length)];
+      String failure = null;
+      switch (random.nextInt(4)) {
+      case 0:
+        if (tree.contains(entry) != wheel.contains(entry)) {
+          failure = "contains";
+        }
+        else if (!tree.contains(entry)) {
+          // up to about 2^(6 * level) ticks ahead, or in the past
+          int level = random.nextInt(levels + 2);
+          long range = (1L << (bits * level)) * tickMillis;
+          entry.alarmTime = now - tickMillis + (long) (random.nextDouble() * range);
+          tree.add(entry);
+          wheel.add(entry);
+          placed[entry.wheelLevel]++;
+        }
+        break;
+      case 1:
+        if (random.nextBoolean()) {
+          // one of the entries in the expired heap, if any
+          int from = random.nextInt(entries.length);
+          for (int i = 0; i < entries.length; i++) {
+            AlarmEntry candidate = entries[(from + i) % entries.length];
+            if (candidate.wheel == wheel && candidate.wheelLevel == expired) {
+              entry = candidate;
+              break;
+            }
+          }
+        }
+        boolean wasExpired = (entry.wheel == wheel && entry.wheelLevel == expired);
+        if (tree.remove(entry) != wheel.remove(entry))
+          failure = "remove";
+        else if (wasExpired)
+          removedExpired++;
+        break;
+      case 2:
+        if (tree.first() != wheel.first())
+          failure = "first";
+        break;
+      default:
+        // mostly small steps, sometimes a jump across the upper levels
+        int level = (random.nextInt(8) == 0) ? 1 + random.nextInt(levels + 1) : 1;
+        now += (long) (random.nextDouble() * (1L << (bits * level)) * tickMillis);
+        // poll only some of the due entries: the rest stay in the heap
+        for (int n = random.nextInt(8); n > 0 && failure == null; n--) {
+          AlarmEntry expected = tree.pollDue(now);
+          if (expected != wheel.pollDue(now))
+            failure = "pollDue";
+          else if (expected == null)
+            break;
+          polled++;
+        }
+        break;
+      }
+      if (failure == null && tree.size() != wheel.size())
+        failure = "size";
+      if (failure == null && op % 1000 == 0 && !tree.toList().equals(wheel.toList()))
+        failure = "toList";
+
+      if (failure != null) {
+        if (mismatches++ < 5)
+          System.out.println("  MISMATCH in " + failure + " at operation " + op);
+        // start over in step
+        tree.clear();
+        wheel.clear();
+      }
+    }
+
+    StringBuffer byLevel = new StringBuffer();
+    for (int level = 0; level < levels; level++)
+      byLevel.append(level == 0 ? "" : "/").append(placed[level]);
+    System.out.println("tick " + tickMillis + " ms: " + operations + " operations, "
+        + mismatches + " mismatches; placed " + byLevel + " by level, "
+        + placed[overflow] + " in overflow, " + placed[expired] + " due; "
+        + polled + " polled, " + removedExpired + " removed while due");
+  }
 }
 
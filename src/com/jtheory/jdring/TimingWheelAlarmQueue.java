@@ -0,0 +1,426 @@
+/*
+ *  com/jtheory/jdring/TimingWheelAlarmQueue.java
+ *  Copyright (C) 1999 - 2004 jtheory creations, Olivier Dedieu et al.
+ *
+ *  This library is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU Library General Public License as published
+ *  by the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Library General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Library General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+package com.jtheory.jdring;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * An AlarmQueue built as a hierarchical timing wheel, for managers holding
+ * a very large number of alarms.  Adding and removing an entry are O(1);
+ * entries are linked directly into the wheel slots, so no node is allocated
+ * per entry.<p>
+ *
+ * Time is cut into ticks (1 ms by default).  Level 0 has one slot per tick,
+ * and each level above has one slot per full turn of the level below it.
+ * An entry sits in the lowest level whose current turn contains its tick;
+ * as time advances, the slot reached on each level is cascaded down, so an
+ * entry is moved at most once per level.  Entries beyond the top level wait
+ * in an overflow list.  Entries whose tick has been reached are moved to a
+ * small heap, so alarms due in the same pass come out in
+ * <code>alarmTime</code> order; each entry there knows its index in the
+ * heap, so removing it is O(log n) rather than a scan.<p>
+ *
+ * Time only advances through <code>pollDue()</code>.  Entries added for a
+ * tick that has already been reached are simply due.
+ *
+ * @see AlarmManager#AlarmManager(boolean, String, AlarmQueue)
+ */
+public class TimingWheelAlarmQueue implements AlarmQueue {
+    static final int WHEEL_BITS = 6; // package-private for Test
+    private static final int WHEEL_SIZE = 1 << WHEEL_BITS;
+    private static final int WHEEL_MASK = WHEEL_SIZE - 1;
+    static final int LEVELS = 6;
+
+    // pseudo-levels for entries which are not in a wheel slot
+    static final int EXPIRED = LEVELS;
+    static final int OVERFLOW = LEVELS + 1;
+
+    private final long tickMillis;
+    private long currentTick;
+
+    private final AlarmEntry[][] slots = new AlarmEntry[LEVELS][WHEEL_SIZE];
+    private final long[] occupied = new long[LEVELS]; // one bit per non-empty slot
+    private AlarmEntry overflow;
+    private AlarmEntry[] expired = new AlarmEntry[16]; // a binary heap; wheelSlot is the index
+    private int expiredCount = 0;
+
+    private int size = 0;
+    private AlarmEntry cachedFirst;
+
+    /**
+     * Creates a timing wheel with a 1 ms tick.
+     */
+    public TimingWheelAlarmQueue() {
+        this(1);
+    }
+
+    /**
+     * Creates a timing wheel.
+     *
+     * @param tickMillis the duration of one tick of the lowest wheel.  With
+     * the default of 1 ms, the wheels span a little over two years before
+     * entries go to the overflow list.
+     */
+    public TimingWheelAlarmQueue(long _tickMillis) {
+        this(_tickMillis, System.currentTimeMillis());
+    }
+
+    /**
+     * Creates a timing wheel starting at a given time, e.g. that of the
+     * manager's <code>VirtualAlarmClock</code>.
+     *
+     * @param tickMillis the duration of one tick of the lowest wheel.
+     * @param startTime the current time of the manager's clock.
+     */
+    public TimingWheelAlarmQueue(long _tickMillis, long _startTime) {
+        if (_tickMillis < 1) {
+            throw new IllegalArgumentException("tick must be at least 1 ms: " + _tickMillis);
+        }
+        tickMillis = _tickMillis;
+        currentTick = _startTime / tickMillis;
+    }
+
+    public void add(AlarmEntry _entry) {
+        if (_entry.wheel == this)
+            return; // already queued
+
+        place(_entry);
+        size++;
+
+        if (cachedFirst != null && _entry.compareTo(cachedFirst) < 0)
+            cachedFirst = _entry;
+    }
+
+    public void addAll(List _entries) {
+        // adding is O(1) already
+        for (int i = 0; i < _entries.size(); i++)
+            add((AlarmEntry) _entries.get(i));
+    }
+
+    public boolean remove(AlarmEntry _entry) {
+        if (_entry.wheel != this)
+            return false;
+
+        if (_entry.wheelLevel == EXPIRED) {
+            removeExpired(_entry.wheelSlot);
+        }
+        else {
+            unlink(_entry);
+        }
+
+        _entry.wheel = null;
+        size--;
+        if (_entry == cachedFirst)
+            cachedFirst = null;
+        return true;
+    }
+
+    public boolean contains(AlarmEntry _entry) {
+        return _entry.wheel == this;
+    }
+
+    public AlarmEntry first() {
+        if (cachedFirst != null)
+            return cachedFirst;
+
+        if (expiredCount > 0) {
+            cachedFirst = expired[0];
+        }
+        else {
+            // the lowest non-empty level holds the earliest entries, and its
+            // lowest non-empty slot the earliest of those
+            AlarmEntry list = overflow;
+            for (int level = 0; level < LEVELS; level++) {
+                if (occupied[level] != 0) {
+                    list = slots[level][Long.numberOfTrailingZeros(occupied[level])];
+                    break;
+                }
+            }
+            cachedFirst = earliest(list);
+        }
+        return cachedFirst;
+    }
+
+    public AlarmEntry pollDue(long _now) {
+        advance(_now);
+
+        if (expiredCount == 0)
+            return null;
+
+        AlarmEntry entry = expired[0];
+        if (entry.alarmTime > _now)
+            return null; // same tick, but not quite yet
+
+        removeExpired(0);
+        entry.wheel = null;
+        size--;
+        if (entry == cachedFirst)
+            cachedFirst = null;
+        return entry;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public void clear() {
+        for (Iterator it = toList().iterator(); it.hasNext(); ) {
+            AlarmEntry entry = (AlarmEntry) it.next();
+            entry.wheel = null;
+            entry.wheelPrev = null;
+            entry.wheelNext = null;
+        }
+        for (int level = 0; level < LEVELS; level++) {
+            for (int slot = 0; slot < WHEEL_SIZE; slot++)
+                slots[level][slot] = null;
+            occupied[level] = 0;
+        }
+        overflow = null;
+        for (int i = 0; i < expiredCount; i++)
+            expired[i] = null;
+        expiredCount = 0;
+        size = 0;
+        cachedFirst = null;
+    }
+
+    public List toList() {
+        List result = new ArrayList(size);
+        for (int i = 0; i < expiredCount; i++)
+            result.add(expired[i]);
+        for (int level = 0; level < LEVELS; level++) {
+            for (int slot = 0; slot < WHEEL_SIZE; slot++)
+                addAll(slots[level][slot], result);
+        }
+        addAll(overflow, result);
+        Collections.sort(result);
+        return result;
+    }
+
+    // ----------------------------------------------------------------------
+    //                      Wheel maintenance
+    // ----------------------------------------------------------------------
+
+    /**
+     * Moves the wheels forward to the tick of the given time.  Every slot
+     * passed on the way, on any level, is emptied and its entries placed
+     * again: they end up either due or in a lower level.
+     */
+    private void advance(long _now) {
+        long target = _now / tickMillis;
+        if (target <= currentTick)
+            return;
+
+        AlarmEntry moved = null;
+        for (int level = 0; level < LEVELS; level++) {
+            int shift = WHEEL_BITS * level;
+            if ((currentTick >> shift) == (target >> shift))
+                break; // still in the same slot here, so nothing moves above either
+
+            long mask = occupied[level];
+            if ((currentTick >> (shift + WHEEL_BITS)) == (target >> (shift + WHEEL_BITS))) {
+                // same turn of this wheel: only the slots up to the target move
+                int index = (int) (target >> shift) & WHEEL_MASK;
+                if (index < WHEEL_MASK)
+                    mask &= (1L << (index + 1)) - 1;
+            }
+
+            while (mask != 0) {
+                int slot = Long.numberOfTrailingZeros(mask);
+                mask &= mask - 1;
+                moved = detachAll(slots[level][slot], moved);
+                slots[level][slot] = null;
+                occupied[level] &= ~(1L << slot);
+            }
+        }
+        if ((currentTick >> (WHEEL_BITS * LEVELS)) != (target >> (WHEEL_BITS * LEVELS))) {
+            moved = detachAll(overflow, moved);
+            overflow = null;
+        }
+
+        currentTick = target;
+        while (moved != null) {
+            AlarmEntry next = moved.wheelNext;
+            place(moved);
+            moved = next;
+        }
+    }
+
+    /**
+     * Puts an entry in the expired heap, a wheel slot or the overflow list,
+     * according to its tick.
+     */
+    private void place(AlarmEntry _entry) {
+        _entry.wheel = this;
+
+        long tick = _entry.alarmTime / tickMillis;
+        if (tick <= currentTick) {
+            _entry.wheelLevel = EXPIRED;
+            _entry.wheelPrev = null;
+            _entry.wheelNext = null;
+            addExpired(_entry);
+            return;
+        }
+
+        for (int level = 0; level < LEVELS; level++) {
+            int shift = WHEEL_BITS * (level + 1);
+            if ((tick >> shift) == (currentTick >> shift)) {
+                link(_entry, level, (int) (tick >> (WHEEL_BITS * level)) & WHEEL_MASK);
+                return;
+            }
+        }
+        link(_entry, OVERFLOW, 0);
+    }
+
+    private void link(AlarmEntry _entry, int _level, int _slot) {
+        AlarmEntry head = (_level == OVERFLOW) ? overflow : slots[_level][_slot];
+
+        _entry.wheelLevel = _level;
+        _entry.wheelSlot = _slot;
+        _entry.wheelPrev = null;
+        _entry.wheelNext = head;
+        if (head != null)
+            head.wheelPrev = _entry;
+
+        if (_level == OVERFLOW) {
+            overflow = _entry;
+        }
+        else {
+            slots[_level][_slot] = _entry;
+            occupied[_level] |= 1L << _slot;
+        }
+    }
+
+    private void unlink(AlarmEntry _entry) {
+        int level = _entry.wheelLevel;
+        int slot = _entry.wheelSlot;
+
+        if (_entry.wheelPrev != null) {
+            _entry.wheelPrev.wheelNext = _entry.wheelNext;
+        }
+        else if (level == OVERFLOW) {
+            overflow = _entry.wheelNext;
+        }
+        else {
+            slots[level][slot] = _entry.wheelNext;
+            if (_entry.wheelNext == null)
+                occupied[level] &= ~(1L << slot);
+        }
+        if (_entry.wheelNext != null)
+            _entry.wheelNext.wheelPrev = _entry.wheelPrev;
+
+        _entry.wheelPrev = null;
+        _entry.wheelNext = null;
+    }
+
+    // ----------------------------------------------------------------------
+    //                      Expired heap
+    // ----------------------------------------------------------------------
+
+    private void addExpired(AlarmEntry _entry) {
+        if (expiredCount == expired.length) {
+            AlarmEntry[] grown = new AlarmEntry[expiredCount * 2];
+            System.arraycopy(expired, 0, grown, 0, expiredCount);
+            expired = grown;
+        }
+        siftUp(expiredCount++, _entry);
+    }
+
+    private void removeExpired(int _index) {
+        AlarmEntry last = expired[--expiredCount];
+        expired[expiredCount] = null;
+        if (_index == expiredCount)
+            return;
+
+        siftDown(_index, last);
+        if (expired[_index] == last)
+            siftUp(_index, last);
+    }
+
+    private void siftUp(int _index, AlarmEntry _entry) {
+        while (_index > 0) {
+            int parent = (_index - 1) >>> 1;
+            if (expired[parent].compareTo(_entry) <= 0)
+                break;
+            setExpired(_index, expired[parent]);
+            _index = parent;
+        }
+        setExpired(_index, _entry);
+    }
+
+    private void siftDown(int _index, AlarmEntry _entry) {
+        int half = expiredCount >>> 1;
+        while (_index < half) {
+            int child = 2 * _index + 1;
+            if (child + 1 < expiredCount && expired[child + 1].compareTo(expired[child]) < 0)
+                child++;
+            if (_entry.compareTo(expired[child]) <= 0)
+                break;
+            setExpired(_index, expired[child]);
+            _index = child;
+        }
+        setExpired(_index, _entry);
+    }
+
+    private void setExpired(int _index, AlarmEntry _entry) {
+        expired[_index] = _entry;
+        _entry.wheelSlot = _index;
+    }
+
+    // ----------------------------------------------------------------------
+    //                      Slot lists
+    // ----------------------------------------------------------------------
+
+    /**
+     * Pushes every entry of a slot list onto a singly-linked list.
+     *
+     * @return the new head of that list.
+     */
+    private static AlarmEntry detachAll(AlarmEntry _list, AlarmEntry _onto) {
+        while (_list != null) {
+            AlarmEntry next = _list.wheelNext;
+            _list.wheelPrev = null;
+            _list.wheelNext = _onto;
+            _onto = _list;
+            _list = next;
+        }
+        return _onto;
+    }
+
+    private static AlarmEntry earliest(AlarmEntry _list) {
+        AlarmEntry result = _list;
+        for (AlarmEntry e = _list; e != null; e = e.wheelNext) {
+            if (e.compareTo(result) < 0)
+                result = e;
+        }
+        return result;
+    }
+
+    private static void addAll(AlarmEntry _list, List _result) {
+        for (AlarmEntry e = _list; e != null; e = e.wheelNext)
+            _result.add(e);
+    }
+}
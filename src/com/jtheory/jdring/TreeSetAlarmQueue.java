@@ -0,0 +1,139 @@
+/*
+ *  com/jtheory/jdring/TreeSetAlarmQueue.java
+ *  Copyright (C) 1999 - 2004 jtheory creations, Olivier Dedieu et al.
+ *
+ *  This library is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU Library General Public License as published
+ *  by the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Library General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Library General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+package com.jtheory.jdring;
+
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+/**
+ * The default AlarmQueue: a <code>TreeSet</code> ordered by
+ * AlarmEntry.compareTo().  All operations are O(log n).
+ *
+ * @author  Olivier Dedieu, David Sims, Jim Lerner, Rob Whelan
+ */
+public class TreeSetAlarmQueue implements AlarmQueue {
+
+    protected SortedSet /* of AlarmEntry */ queue = new TreeSet();
+
+    public void add(AlarmEntry _entry) {
+        queue.add(_entry);
+    }
+
+    /**
+     * Adds sorted entries.  When the queue is empty, as at startup, the tree
+     * is built in one pass, in O(n), instead of by n insertions.
+     */
+    public void addAll(List _entries) {
+        // TreeSet.addAll() builds an empty tree straight from a SortedSet
+        // with the same ordering
+        queue.addAll(new SortedList(_entries));
+    }
+
+    public boolean remove(AlarmEntry _entry) {
+        return queue.remove(_entry);
+    }
+
+    public boolean contains(AlarmEntry _entry) {
+        return queue.contains(_entry);
+    }
+
+    public AlarmEntry first() {
+        if (queue.isEmpty())
+            return null;
+        return (AlarmEntry) queue.first();
+    }
+
+    public AlarmEntry pollDue(long _now) {
+        if (queue.isEmpty())
+            return null;
+
+        AlarmEntry entry = (AlarmEntry) queue.first();
+        if (entry.alarmTime > _now)
+            return null;
+
+        queue.remove(entry);
+        return entry;
+    }
+
+    public int size() {
+        return queue.size();
+    }
+
+    public boolean isEmpty() {
+        return queue.isEmpty();
+    }
+
+    public void clear() {
+        queue.clear();
+    }
+
+    public List toList() {
+        return new ArrayList(queue);
+    }
+
+    /**
+     * A read-only SortedSet view of a sorted list, just enough for
+     * TreeSet.addAll().
+     */
+    private static class SortedList extends AbstractSet implements SortedSet {
+        private final List list;
+
+        SortedList(List _list) {
+            list = _list;
+        }
+
+        public Iterator iterator() {
+            return list.iterator();
+        }
+
+        public int size() {
+            return list.size();
+        }
+
+        public Comparator comparator() {
+            return null; // natural ordering, as the queue's
+        }
+
+        public Object first() {
+            return list.get(0);
+        }
+
+        public Object last() {
+            return list.get(list.size() - 1);
+        }
+
+        public SortedSet subSet(Object _from, Object _to) {
+            throw new UnsupportedOperationException();
+        }
+
+        public SortedSet headSet(Object _to) {
+            throw new UnsupportedOperationException();
+        }
+
+        public SortedSet tailSet(Object _from) {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ *  com/jtheory/jdring/VirtualAlarmClock.java
+ *  Copyright (C) 1999 - 2004 jtheory creations, Olivier Dedieu et al.
+ *
+ *  This library is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU Library General Public License as published
+ *  by the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Library General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Library General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+package com.jtheory.jdring;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A clock which only moves when told to.  AlarmManagers using it start no
+ * waiter thread: alarms ring in the thread calling <code>advance()</code>
+ * or <code>advanceTo()</code>, in alarm time order, with the clock set to
+ * each alarm's time while it rings.  A month of alarms can be simulated in
+ * seconds, and tests don't wait on real time.<p>
+ *
+ * Entries added to such a manager should be created with the same clock
+ * (the manager's <code>addAlarm()</code> methods do so).  Entries rung in a
+ * ring executor (<code>RING_POOLED</code> and the like) still run in other
+ * threads, so for a deterministic run keep them inline.<p>
+ *
+ * Example:
+ * <pre>
+ *  VirtualAlarmClock clock = new VirtualAlarmClock(start);
+ *  AlarmManager mgr = new AlarmManager(true, "simulation",
+ *          new TreeSetAlarmQueue(), clock);
+ *  mgr.addAlarm(0, 9, -1, -1, -1, -1, listener);   // every day at 9:00
+ *  clock.advance(30L * 24 * 3600 * 1000);          // rings 30 times
+ * </pre>
+ */
+public class VirtualAlarmClock implements AlarmClock {
+    private volatile long now;
+    private final List /* of AlarmWaiter */ waiters = new ArrayList();
+
+    /**
+     * Creates a virtual clock starting at the current system time.
+     */
+    public VirtualAlarmClock() {
+        this(System.currentTimeMillis());
+    }
+
+    /**
+     * Creates a virtual clock.
+     *
+     * @param startTime the initial time, in milliseconds since the epoch.
+     */
+    public VirtualAlarmClock(long _startTime) {
+        now = _startTime;
+    }
+
+    public long currentTimeMillis() {
+        return now;
+    }
+
+    /**
+     * Moves the clock forward, ringing the alarms due on the way.
+     *
+     * @param millis how far to move, in milliseconds.
+     */
+    public void advance(long _millis) {
+        if (_millis < 0)
+            throw new IllegalArgumentException("the clock can't go back: " + _millis);
+        advanceTo(now + _millis);
+    }
+
+    /**
+     * Moves the clock forward to the given time, ringing the alarms due on
+     * the way.  Alarms rung may add alarms of their own; those ring too if
+     * they are due by then.
+     *
+     * @param time the new time, in milliseconds since the epoch.
+     */
+    public void advanceTo(long _time) {
+        if (_time < now)
+            throw new IllegalArgumentException("the clock can't go back: " + _time + " < " + now);
+
+        while (true) {
+            AlarmWaiter next = null;
+            long due = _time;
+            synchronized (this) {
+                for (int i = 0; i < waiters.size(); i++) {
+                    AlarmWaiter waiter = (AlarmWaiter) waiters.get(i);
+                    long sleepUntil = waiter.getSleepUntil();
+                    if (sleepUntil >= 0 && sleepUntil <= due) {
+                        next = waiter;
+                        due = sleepUntil;
+                    }
+                }
+            }
+            if (next == null)
+                break;
+
+            if (due > now)
+                now = due;
+            next.wakeUpAndRing();
+        }
+        now = _time;
+    }
+
+    synchronized void register(AlarmWaiter _waiter) {
+        waiters.add(_waiter);
+    }
+
+    synchronized void unregister(AlarmWaiter _waiter) {
+        waiters.remove(_waiter);
+    }
+
+    public String toString() {
+        return "VirtualAlarmClock[" + now + "]";
+    }
+}
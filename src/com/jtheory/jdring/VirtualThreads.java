@@ -0,0 +1,96 @@
+/*
+ *  com/jtheory/jdring/VirtualThreads.java
+ *  Copyright (C) 1999 - 2004 jtheory creations, Olivier Dedieu et al.
+ *
+ *  This library is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU Library General Public License as published
+ *  by the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Library General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Library General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+package com.jtheory.jdring;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Creates virtual-thread executors when the runtime has them (JDK 21 and
+ * above).  The library is compiled for older runtimes, so the JDK methods
+ * are looked up reflectively, once, when this class is loaded.
+ */
+class VirtualThreads {
+    private static final Method OF_VIRTUAL;
+    private static final Method BUILDER_NAME;
+    private static final Method BUILDER_FACTORY;
+    private static final Method NEW_THREAD_PER_TASK_EXECUTOR;
+
+    static {
+        Method ofVirtual = null;
+        Method builderName = null;
+        Method builderFactory = null;
+        Method newExecutor = null;
+        try {
+            ofVirtual = Thread.class.getMethod("ofVirtual", new Class[0]);
+            Class builder = Class.forName("java.lang.Thread$Builder");
+            builderName = builder.getMethod("name", new Class[] { String.class, long.class });
+            builderFactory = builder.getMethod("factory", new Class[0]);
+            newExecutor = Executors.class.getMethod("newThreadPerTaskExecutor",
+                    new Class[] { ThreadFactory.class });
+            
+            // JDK 19 and 20 have the methods, but throw unless preview
+            // features are enabled
+            ofVirtual.invoke(null, new Object[0]);
+        }
+        catch(Throwable e) {
+            // older runtime: no virtual threads
+            ofVirtual = null;
+        }
+        OF_VIRTUAL = ofVirtual;
+        BUILDER_NAME = builderName;
+        BUILDER_FACTORY = builderFactory;
+        NEW_THREAD_PER_TASK_EXECUTOR = newExecutor;
+    }
+
+    private VirtualThreads() {
+    }
+
+    /**
+     * @return <code>true</code> if this runtime supports virtual threads.
+     */
+    static boolean isSupported() {
+        return OF_VIRTUAL != null;
+    }
+
+    /**
+     * Creates an executor starting one virtual thread per task, named
+     * <code>prefix0</code>, <code>prefix1</code>, ...
+     *
+     * @return the executor, or <code>null</code> if this runtime has no
+     * virtual threads.
+     */
+    static ExecutorService newExecutor(String _prefix) {
+        if (!isSupported())
+            return null;
+
+        try {
+            Object builder = OF_VIRTUAL.invoke(null, new Object[0]);
+            builder = BUILDER_NAME.invoke(builder, new Object[] { _prefix, Long.valueOf(0) });
+            ThreadFactory factory = (ThreadFactory) BUILDER_FACTORY.invoke(builder, new Object[0]);
+            return (ExecutorService) NEW_THREAD_PER_TASK_EXECUTOR.invoke(null, new Object[] { factory });
+        }
+        catch(Exception e) {
+            return null;
+        }
+    }
+}